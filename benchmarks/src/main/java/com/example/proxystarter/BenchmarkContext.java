@@ -0,0 +1,34 @@
+package com.example.proxystarter;
+
+import org.springframework.boot.WebApplicationType;
+import org.springframework.boot.autoconfigure.ImportAutoConfiguration;
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.context.ConfigurableApplicationContext;
+import org.springframework.context.annotation.Configuration;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Application context with the starter's beans, proxied through the local forward proxy of {@link LocalServers}.
+ */
+@Configuration(proxyBeanMethods = false)
+@ImportAutoConfiguration({ProxyAutoConfiguration.class, JwtDecoderConfiguration.class})
+class BenchmarkContext {
+
+    static ConfigurableApplicationContext start(LocalServers servers, String... properties) {
+        List<String> all = new ArrayList<>(List.of(
+                "proxy.enabled=true",
+                "proxy.host=127.0.0.1",
+                "proxy.port=" + servers.proxyPort(),
+                "spring.security.oauth2.resourceserver.jwt.jwk-set-uri=" + servers.originUrl(LocalServers.JWKS_PATH),
+                "logging.level.com.example.proxystarter=warn"
+        ));
+        all.addAll(List.of(properties));
+        return new SpringApplicationBuilder(BenchmarkContext.class)
+                .web(WebApplicationType.NONE)
+                .logStartupInfo(false)
+                .properties(all.toArray(String[]::new))
+                .run();
+    }
+}
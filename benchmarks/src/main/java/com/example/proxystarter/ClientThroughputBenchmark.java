@@ -0,0 +1,85 @@
+package com.example.proxystarter;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.context.ConfigurableApplicationContext;
+import org.springframework.http.client.SimpleClientHttpRequestFactory;
+import org.springframework.web.client.RestClient;
+import org.springframework.web.client.RestTemplate;
+
+import java.net.InetSocketAddress;
+import java.net.Proxy;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Request throughput and latency through the local forward proxy: the starter's {@code RestTemplate} and
+ * {@code RestClient} beans on the shared pooled client, against a {@code RestTemplate} on an unpooled
+ * {@link SimpleClientHttpRequestFactory} that opens a JDK connection per request.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(1)
+@Threads(8)
+public class ClientThroughputBenchmark {
+
+    private LocalServers servers;
+
+    private ConfigurableApplicationContext context;
+
+    private RestTemplate restTemplate;
+
+    private RestClient restClient;
+
+    private RestTemplate simpleRestTemplate;
+
+    private String url;
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        servers = new LocalServers();
+        context = BenchmarkContext.start(servers);
+        restTemplate = context.getBean(RestTemplate.class);
+        restClient = context.getBean(RestClient.class);
+
+        SimpleClientHttpRequestFactory requestFactory = new SimpleClientHttpRequestFactory();
+        requestFactory.setProxy(new Proxy(Proxy.Type.HTTP, new InetSocketAddress("127.0.0.1", servers.proxyPort())));
+        simpleRestTemplate = new RestTemplate(requestFactory);
+
+        url = servers.originUrl("/echo");
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        context.close();
+        servers.close();
+    }
+
+    @Benchmark
+    public String restTemplatePooled() {
+        return restTemplate.getForObject(url, String.class);
+    }
+
+    @Benchmark
+    public String restClientPooled() {
+        return restClient.get().uri(url).retrieve().body(String.class);
+    }
+
+    @Benchmark
+    public String restTemplateSimpleUnpooled() {
+        return simpleRestTemplate.getForObject(url, String.class);
+    }
+}
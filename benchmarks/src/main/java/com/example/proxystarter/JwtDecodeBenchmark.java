@@ -0,0 +1,92 @@
+package com.example.proxystarter;
+
+import com.nimbusds.jose.JWSAlgorithm;
+import com.nimbusds.jose.jwk.source.JWKSource;
+import com.nimbusds.jose.jwk.source.JWKSourceBuilder;
+import com.nimbusds.jose.proc.JWSVerificationKeySelector;
+import com.nimbusds.jose.proc.SecurityContext;
+import com.nimbusds.jwt.proc.DefaultJWTProcessor;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.context.ConfigurableApplicationContext;
+import org.springframework.http.client.HttpComponentsClientHttpRequestFactory;
+import org.springframework.security.oauth2.jwt.Jwt;
+import org.springframework.security.oauth2.jwt.JwtDecoder;
+import org.springframework.security.oauth2.jwt.NimbusJwtDecoder;
+import org.springframework.web.client.RestTemplate;
+
+import java.net.URI;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * JWT decoding with the starter's caching JWK set source against a source that fetches the JWK set through the
+ * proxy for every token, as a decoder without a JWK cache does on each key lookup.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(1)
+@Threads(4)
+public class JwtDecodeBenchmark {
+
+    private LocalServers servers;
+
+    private ConfigurableApplicationContext context;
+
+    private JwtDecoder cachedDecoder;
+
+    private JwtDecoder uncachedDecoder;
+
+    private String token;
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        servers = new LocalServers();
+        context = BenchmarkContext.start(servers);
+        cachedDecoder = context.getBean(JwtDecoder.class);
+
+        RestTemplate restTemplate = new RestTemplate(context.getBean(HttpComponentsClientHttpRequestFactory.class));
+        JWKSource<SecurityContext> uncachedSource = JWKSourceBuilder.<SecurityContext>create(
+                        URI.create(servers.originUrl(LocalServers.JWKS_PATH)).toURL(),
+                        new RestOperationsResourceRetriever(restTemplate))
+                .cache(false)
+                .rateLimited(false)
+                .build();
+        DefaultJWTProcessor<SecurityContext> processor = new DefaultJWTProcessor<>();
+        processor.setJWSKeySelector(new JWSVerificationKeySelector<>(JWSAlgorithm.RS256, uncachedSource));
+        processor.setJWTClaimsSetVerifier((claims, securityContext) -> {
+        });
+        uncachedDecoder = new NimbusJwtDecoder(processor);
+
+        token = servers.createToken();
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        context.close();
+        servers.close();
+    }
+
+    @Benchmark
+    public Jwt cachedJwks() {
+        return cachedDecoder.decode(token);
+    }
+
+    @Benchmark
+    public Jwt uncachedJwks() {
+        return uncachedDecoder.decode(token);
+    }
+}
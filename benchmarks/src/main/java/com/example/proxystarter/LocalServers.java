@@ -0,0 +1,113 @@
+package com.example.proxystarter;
+
+import com.nimbusds.jose.JOSEException;
+import com.nimbusds.jose.JWSAlgorithm;
+import com.nimbusds.jose.JWSHeader;
+import com.nimbusds.jose.crypto.RSASSASigner;
+import com.nimbusds.jose.jwk.JWKSet;
+import com.nimbusds.jose.jwk.RSAKey;
+import com.nimbusds.jose.jwk.gen.RSAKeyGenerator;
+import com.nimbusds.jwt.JWTClaimsSet;
+import com.nimbusds.jwt.SignedJWT;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.util.Date;
+import java.util.concurrent.Executors;
+
+/**
+ * In-process servers the benchmarks talk to: an origin that echoes a fixed payload and serves a JWK set, and a
+ * forward proxy relaying absolute-form HTTP requests to it.
+ */
+final class LocalServers implements AutoCloseable {
+
+    static final String JWKS_PATH = "/jwks.json";
+
+    private static final byte[] PAYLOAD = "{\"message\":\"0123456789abcdef0123456789abcdef\"}".getBytes(StandardCharsets.UTF_8);
+
+    private final HttpServer origin;
+
+    private final HttpServer proxy;
+
+    private final HttpClient relay;
+
+    private final RSAKey signingKey;
+
+    LocalServers() throws IOException, JOSEException {
+        signingKey = new RSAKeyGenerator(2048).keyID("benchmark").generate();
+        byte[] jwks = new JWKSet(signingKey.toPublicJWK()).toString().getBytes(StandardCharsets.UTF_8);
+
+        origin = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        origin.setExecutor(Executors.newVirtualThreadPerTaskExecutor());
+        origin.createContext("/", exchange -> respond(exchange, 200,
+                exchange.getRequestURI().getPath().equals(JWKS_PATH) ? jwks : PAYLOAD));
+        origin.start();
+
+        relay = HttpClient.newBuilder()
+                .proxy(HttpClient.Builder.NO_PROXY)
+                .executor(Executors.newVirtualThreadPerTaskExecutor())
+                .build();
+        proxy = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        proxy.setExecutor(Executors.newVirtualThreadPerTaskExecutor());
+        proxy.createContext("/", this::relay);
+        proxy.start();
+    }
+
+    int proxyPort() {
+        return proxy.getAddress().getPort();
+    }
+
+    String originUrl(String path) {
+        return "http://127.0.0.1:" + origin.getAddress().getPort() + path;
+    }
+
+    /**
+     * Creates a token signed with the key published at {@link #JWKS_PATH}.
+     */
+    String createToken() throws JOSEException {
+        JWTClaimsSet claims = new JWTClaimsSet.Builder()
+                .subject("benchmark")
+                .issueTime(new Date())
+                .expirationTime(Date.from(Instant.now().plusSeconds(3600)))
+                .build();
+        SignedJWT jwt = new SignedJWT(new JWSHeader.Builder(JWSAlgorithm.RS256).keyID(signingKey.getKeyID()).build(), claims);
+        jwt.sign(new RSASSASigner(signingKey));
+        return jwt.serialize();
+    }
+
+    @Override
+    public void close() {
+        proxy.stop(0);
+        origin.stop(0);
+        relay.close();
+    }
+
+    private void relay(HttpExchange exchange) throws IOException {
+        try {
+            // A forward proxy receives the full target URI in the request line
+            HttpResponse<byte[]> response = relay.send(
+                    HttpRequest.newBuilder(exchange.getRequestURI()).GET().build(),
+                    HttpResponse.BodyHandlers.ofByteArray());
+            respond(exchange, response.statusCode(), response.body());
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            respond(exchange, 502, new byte[0]);
+        }
+    }
+
+    private static void respond(HttpExchange exchange, int status, byte[] body) throws IOException {
+        exchange.getResponseHeaders().set("Content-Type", "application/json");
+        exchange.sendResponseHeaders(status, body.length == 0 ? -1 : body.length);
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(body);
+        }
+    }
+}
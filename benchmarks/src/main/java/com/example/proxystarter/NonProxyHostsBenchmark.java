@@ -0,0 +1,92 @@
+package com.example.proxystarter;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.boot.context.properties.bind.Binder;
+import org.springframework.boot.context.properties.source.MapConfigurationPropertySource;
+
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Pattern;
+
+/**
+ * Cost of deciding whether a host bypasses the proxy: the starter's cached and uncached matcher and the full
+ * routing decision, against the regex translation the JDK applies to {@code http.nonProxyHosts}.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class NonProxyHostsBenchmark {
+
+    private static final String NON_PROXY_HOSTS =
+            "localhost|127.0.0.1|*.internal.example.com|*.svc.cluster.local|build-*|10.0.0.0/8|192.168.0.0/16";
+
+    @Param({"api.partner.com", "orders.internal.example.com", "10.42.7.1", "build-agent-17"})
+    public String host;
+
+    private NonProxyHostsMatcher matcher;
+
+    private ProxyRouting routing;
+
+    private Pattern jdkPattern;
+
+    @Setup
+    public void setUp() {
+        matcher = new NonProxyHostsMatcher(NON_PROXY_HOSTS, 4096);
+        ProxyProperties properties = new Binder(new MapConfigurationPropertySource(Map.of(
+                "proxy.enabled", "true",
+                "proxy.host", "proxy.example.com",
+                "proxy.port", "8080",
+                "proxy.non-proxy-hosts", NON_PROXY_HOSTS
+        ))).bind("proxy", ProxyProperties.class).get();
+        routing = new ProxyRouting(properties);
+        jdkPattern = toJdkPattern(NON_PROXY_HOSTS);
+    }
+
+    @Benchmark
+    public boolean matcherCached() {
+        return matcher.matches(host);
+    }
+
+    @Benchmark
+    public boolean matcherUncached() {
+        return matcher.evaluate(host);
+    }
+
+    @Benchmark
+    public Object routingDecision() {
+        return routing.resolve(host);
+    }
+
+    @Benchmark
+    public boolean jdkRegex() {
+        return jdkPattern.matcher(host.toLowerCase()).matches();
+    }
+
+    /**
+     * Mirrors the JDK's default proxy selector, which turns each pattern into a regex; CIDR ranges are not
+     * supported there and only match literally.
+     */
+    private static Pattern toJdkPattern(String nonProxyHosts) {
+        StringBuilder regex = new StringBuilder();
+        for (String pattern : nonProxyHosts.split("\\|")) {
+            if (!regex.isEmpty()) {
+                regex.append('|');
+            }
+            regex.append(Pattern.quote(pattern.toLowerCase()).replace("*", "\\E.*\\Q"));
+        }
+        return Pattern.compile(regex.toString());
+    }
+}
@@ -0,0 +1,115 @@
+package com.example.proxystarter;
+
+import com.sun.net.httpserver.HttpServer;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.boot.context.properties.bind.Binder;
+import org.springframework.boot.context.properties.source.MapConfigurationPropertySource;
+import org.springframework.web.client.RestTemplate;
+
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Fan-out throughput of the blocking client on platform threads against the virtual-thread mode, for requests to a
+ * direct origin that answers after a simulated upstream latency. Both modes get the same connections and
+ * concurrency, so only the threading model differs.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(1)
+public class VirtualThreadThroughputBenchmark {
+
+    private static final int REQUESTS = 1_000;
+
+    private static final int CONCURRENCY = 200;
+
+    private static final long LATENCY_MILLIS = 10;
+
+    @Param({"platform", "virtual"})
+    public String threads;
+
+    private HttpServer origin;
+
+    private ProxyConfigurationService service;
+
+    private ProxyFanOutExecutor executor;
+
+    private List<Callable<String>> tasks;
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        origin = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        origin.setExecutor(Executors.newVirtualThreadPerTaskExecutor());
+        origin.createContext("/", exchange -> {
+            try {
+                Thread.sleep(LATENCY_MILLIS);
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+            }
+            byte[] body = "ok".getBytes(StandardCharsets.UTF_8);
+            exchange.sendResponseHeaders(200, body.length);
+            exchange.getResponseBody().write(body);
+            exchange.close();
+        });
+        origin.start();
+
+        String limit = String.valueOf(CONCURRENCY);
+        Map<String, String> properties = threads.equals("virtual")
+                ? Map.of(
+                        "proxy.enabled", "false",
+                        "proxy.virtual-threads.enabled", "true",
+                        "proxy.virtual-threads.max-per-route", limit,
+                        "proxy.virtual-threads.max-concurrency", limit)
+                : Map.of(
+                        "proxy.enabled", "false",
+                        "proxy.pool.max-total", limit,
+                        "proxy.pool.max-per-route", limit);
+        service = new ProxyConfigurationService(new Binder(new MapConfigurationPropertySource(properties))
+                .bind("proxy", ProxyProperties.class).get());
+        executor = threads.equals("virtual")
+                ? new ProxyFanOutExecutor(CONCURRENCY)
+                : new ProxyFanOutExecutor(Executors.newFixedThreadPool(CONCURRENCY), CONCURRENCY);
+
+        RestTemplate restTemplate = service.createProxyEnabledRestTemplate();
+        String url = "http://127.0.0.1:" + origin.getAddress().getPort() + "/";
+        tasks = new ArrayList<>(REQUESTS);
+        for (int i = 0; i < REQUESTS; i++) {
+            tasks.add(() -> restTemplate.getForObject(url, String.class));
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        executor.close();
+        service.close();
+        origin.stop(0);
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(REQUESTS)
+    public List<String> fanOut() {
+        return executor.invokeAll(tasks);
+    }
+}
@@ -0,0 +1,80 @@
+package com.example.proxystarter;
+
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Function;
+
+/**
+ * Bounded cache of per-host decisions in a {@link ConcurrentHashMap}, so that lookups take no lock. A full cache
+ * evicts one entry for each new one, approximating least-recently-used order with a second chance: entries read
+ * since the last eviction pass are skipped once, so hot hosts stay cached while a stream of one-off hosts passes
+ * through. Concurrent insertions may briefly exceed the size by a few entries. A size of {@code 0} disables
+ * caching.
+ *
+ * @param <V> the decision type
+ */
+final class DecisionCache<V> {
+
+    // Entries an eviction looks at before taking one that was read recently
+    private static final int EVICTION_SAMPLE = 8;
+
+    private final int maxSize;
+
+    private final Map<String, Entry<V>> entries = new ConcurrentHashMap<>();
+
+    DecisionCache(int maxSize) {
+        this.maxSize = maxSize;
+    }
+
+    /**
+     * Returns the cached decision for the host, evaluating and caching it if absent. Two threads may evaluate the
+     * same new host; both reach the same decision.
+     */
+    V get(String host, Function<String, V> evaluate) {
+        if (maxSize <= 0) {
+            return evaluate.apply(host);
+        }
+        Entry<V> entry = entries.get(host);
+        if (entry != null) {
+            entry.touch();
+            return entry.decision;
+        }
+        V decision = evaluate.apply(host);
+        if (entries.size() >= maxSize) {
+            evictOne();
+        }
+        entries.putIfAbsent(host, new Entry<>(decision));
+        return decision;
+    }
+
+    private void evictOne() {
+        Iterator<Entry<V>> iterator = entries.values().iterator();
+        for (int sampled = 1; iterator.hasNext(); sampled++) {
+            Entry<V> candidate = iterator.next();
+            if (!candidate.referenced || sampled == EVICTION_SAMPLE || !iterator.hasNext()) {
+                iterator.remove();
+                return;
+            }
+            candidate.referenced = false;
+        }
+    }
+
+    private static final class Entry<V> {
+
+        private final V decision;
+
+        private volatile boolean referenced;
+
+        private Entry(V decision) {
+            this.decision = decision;
+        }
+
+        void touch() {
+            // Only written when cleared, so reads of a hot host do not keep dirtying its cache line
+            if (!referenced) {
+                referenced = true;
+            }
+        }
+    }
+}
@@ -0,0 +1,139 @@
+package com.example.proxystarter;
+
+import io.micrometer.observation.Observation;
+import org.apache.hc.client5.http.HttpRoute;
+import org.apache.hc.client5.http.io.ConnectionEndpoint;
+import org.apache.hc.client5.http.io.HttpClientConnectionManager;
+import org.apache.hc.client5.http.io.LeaseRequest;
+import org.apache.hc.core5.http.protocol.HttpContext;
+import org.apache.hc.core5.io.CloseMode;
+import org.apache.hc.core5.pool.ConnPoolControl;
+import org.apache.hc.core5.pool.PoolStats;
+import org.apache.hc.core5.util.TimeValue;
+import org.apache.hc.core5.util.Timeout;
+
+import java.io.IOException;
+import java.util.Set;
+
+/**
+ * Connection manager adding the TCP connects of sampled requests to their {@link RequestTimeline}. The DNS
+ * lookup and, for direct HTTPS routes, the TLS handshake happen within the connect and are recorded as phases of
+ * their own, so they are taken out of the connect time.
+ * <p>
+ * Implements {@link ConnPoolControl} so that the client's idle and expired connection evictor keeps working.
+ */
+class DiagnosticConnectionManager implements HttpClientConnectionManager, ConnPoolControl<HttpRoute> {
+
+    private final HttpClientConnectionManager delegate;
+
+    private final ConnPoolControl<HttpRoute> pool;
+
+    @SuppressWarnings("unchecked")
+    DiagnosticConnectionManager(HttpClientConnectionManager delegate) {
+        this.delegate = delegate;
+        // Both the plain pool and the metered wrapper expose pool control
+        this.pool = (ConnPoolControl<HttpRoute>) delegate;
+    }
+
+    @Override
+    public LeaseRequest lease(String id, HttpRoute route, Timeout requestTimeout, Object state) {
+        return delegate.lease(id, route, requestTimeout, state);
+    }
+
+    @Override
+    public void release(ConnectionEndpoint endpoint, Object newState, TimeValue validDuration) {
+        delegate.release(endpoint, newState, validDuration);
+    }
+
+    @Override
+    public void connect(ConnectionEndpoint endpoint, TimeValue timeout, HttpContext context) throws IOException {
+        RequestTimeline timeline = RequestTimeline.from(context);
+        if (timeline == null) {
+            delegate.connect(endpoint, timeout, context);
+            return;
+        }
+        long nestedBefore = timeline.get(RequestTimeline.Phase.DNS) + timeline.get(RequestTimeline.Phase.TLS);
+        long start = System.nanoTime();
+        Observation span = timeline.startSpan(RequestTimeline.Phase.CONNECT);
+        Throwable error = null;
+        try {
+            delegate.connect(endpoint, timeout, context);
+        } catch (IOException | RuntimeException ex) {
+            error = ex;
+            throw ex;
+        } finally {
+            timeline.end(RequestTimeline.Phase.CONNECT, start, span, error);
+            timeline.subtract(RequestTimeline.Phase.CONNECT, timeline.get(RequestTimeline.Phase.DNS)
+                    + timeline.get(RequestTimeline.Phase.TLS) - nestedBefore);
+        }
+    }
+
+    @Override
+    public void upgrade(ConnectionEndpoint endpoint, HttpContext context) throws IOException {
+        delegate.upgrade(endpoint, context);
+    }
+
+    @Override
+    public void close(CloseMode closeMode) {
+        delegate.close(closeMode);
+    }
+
+    @Override
+    public void close() throws IOException {
+        delegate.close();
+    }
+
+    @Override
+    public void setMaxTotal(int max) {
+        pool.setMaxTotal(max);
+    }
+
+    @Override
+    public int getMaxTotal() {
+        return pool.getMaxTotal();
+    }
+
+    @Override
+    public void setDefaultMaxPerRoute(int max) {
+        pool.setDefaultMaxPerRoute(max);
+    }
+
+    @Override
+    public int getDefaultMaxPerRoute() {
+        return pool.getDefaultMaxPerRoute();
+    }
+
+    @Override
+    public void setMaxPerRoute(HttpRoute route, int max) {
+        pool.setMaxPerRoute(route, max);
+    }
+
+    @Override
+    public int getMaxPerRoute(HttpRoute route) {
+        return pool.getMaxPerRoute(route);
+    }
+
+    @Override
+    public void closeIdle(TimeValue idleTime) {
+        pool.closeIdle(idleTime);
+    }
+
+    @Override
+    public void closeExpired() {
+        pool.closeExpired();
+    }
+
+    public Set<HttpRoute> getRoutes() {
+        return pool.getRoutes();
+    }
+
+    @Override
+    public PoolStats getTotalStats() {
+        return pool.getTotalStats();
+    }
+
+    @Override
+    public PoolStats getStats(HttpRoute route) {
+        return pool.getStats(route);
+    }
+}
@@ -0,0 +1,238 @@
+package com.example.proxystarter;
+
+import org.apache.hc.client5.http.classic.ExecChain;
+import org.apache.hc.client5.http.classic.ExecChainHandler;
+import org.apache.hc.client5.http.config.RequestConfig;
+import org.apache.hc.client5.http.impl.async.CloseableHttpAsyncClient;
+import org.apache.hc.client5.http.protocol.HttpClientContext;
+import org.apache.hc.core5.concurrent.FutureCallback;
+import org.apache.hc.core5.http.ClassicHttpRequest;
+import org.apache.hc.core5.http.ClassicHttpResponse;
+import org.apache.hc.core5.http.ContentType;
+import org.apache.hc.core5.http.EntityDetails;
+import org.apache.hc.core5.http.Header;
+import org.apache.hc.core5.http.HttpEntity;
+import org.apache.hc.core5.http.HttpException;
+import org.apache.hc.core5.http.HttpHost;
+import org.apache.hc.core5.http.HttpResponse;
+import org.apache.hc.core5.http.HttpVersion;
+import org.apache.hc.core5.http.ProtocolVersion;
+import org.apache.hc.core5.http.URIScheme;
+import org.apache.hc.core5.http.io.entity.InputStreamEntity;
+import org.apache.hc.core5.http.message.BasicClassicHttpResponse;
+import org.apache.hc.core5.http.message.BasicHttpRequest;
+import org.apache.hc.core5.http.nio.AsyncEntityProducer;
+import org.apache.hc.core5.http.nio.AsyncResponseConsumer;
+import org.apache.hc.core5.http.nio.CapacityChannel;
+import org.apache.hc.core5.http.nio.support.BasicRequestProducer;
+import org.apache.hc.core5.http.nio.support.classic.AbstractClassicEntityProducer;
+import org.apache.hc.core5.http.nio.support.classic.ContentInputStream;
+import org.apache.hc.core5.http.nio.support.classic.SharedInputBuffer;
+import org.apache.hc.core5.http.protocol.HttpContext;
+import org.apache.hc.core5.util.Timeout;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.net.SocketTimeoutException;
+import java.nio.ByteBuffer;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * Exec chain handler sending HTTPS requests of a blocking proxy client over a multiplexing async client instead,
+ * so that concurrent requests to one destination share a single HTTP/2 connection through one CONNECT tunnel; see
+ * {@link MultiplexingConnectionManager}. The request goes through the proxy endpoint the blocking client already
+ * chose. Destinations that negotiate HTTP/1.1 fall back to the blocking client's tunnels for good.
+ * <p>
+ * Registered right before the connect step, so redirects, retries, protocol interceptors and authentication
+ * still apply, while no blocking connection or tunnel is leased for multiplexed requests. Bodies are streamed:
+ * the request body is written on {@code executor}, and the response is returned once its head arrives, with a
+ * body the caller reads while the stream's flow control window keeps the buffered part bounded. The wait for the
+ * head is bounded by the time to lease and connect plus the request's response timeout.
+ */
+class Http2TunnelExecHandler implements ExecChainHandler {
+
+    static final String NAME = "proxy-http2";
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(Http2TunnelExecHandler.class);
+
+    // Connection-specific headers HTTP/2 forbids, and framing headers the async client sets itself
+    private static final Set<String> HOP_BY_HOP_HEADERS = Set.of("connection", "content-length",
+            "transfer-encoding", "host", "keep-alive", "proxy-connection", "upgrade", "te", "expect");
+
+    // Response bytes buffered per stream before the window stops the destination from sending more
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private final CloseableHttpAsyncClient client;
+
+    private final Executor executor;
+
+    private final Timeout establishTimeout;
+
+    private final Timeout defaultResponseTimeout;
+
+    // Destinations only ever grow as far as the hosts the application talks to
+    private final Set<HttpHost> http1Targets = ConcurrentHashMap.newKeySet();
+
+    /**
+     * Creates the handler.
+     *
+     * @param client                 the multiplexing async client
+     * @param executor               the executor writing request bodies
+     * @param establishTimeout       the time to lease a connection and open its tunnel
+     * @param defaultResponseTimeout the response timeout of requests that do not set one
+     */
+    Http2TunnelExecHandler(CloseableHttpAsyncClient client, Executor executor, Timeout establishTimeout,
+                           Timeout defaultResponseTimeout) {
+        this.client = client;
+        this.executor = executor;
+        this.establishTimeout = establishTimeout;
+        this.defaultResponseTimeout = defaultResponseTimeout;
+    }
+
+    @Override
+    public ClassicHttpResponse execute(ClassicHttpRequest request, ExecChain.Scope scope, ExecChain chain)
+            throws IOException, HttpException {
+        HttpHost target = scope.route.getTargetHost();
+        if (!scope.route.isTunnelled() || !URIScheme.HTTPS.same(target.getSchemeName()) || http1Targets.contains(target)) {
+            return chain.proceed(request, scope);
+        }
+
+        RequestConfig requestConfig = scope.clientContext.getRequestConfigOrDefault();
+        HttpClientContext context = HttpClientContext.create();
+        context.setRequestConfig(requestConfig);
+        context.setAttribute(ProxyRoutePlanner.PROXY_HOST_ATTRIBUTE, scope.route.getProxyHost());
+        Future<ClassicHttpResponse> future = client.execute(createRequestProducer(request, target),
+                new StreamingResponseConsumer(), null, context, null);
+
+        Timeout responseTimeout = requestConfig.getResponseTimeout() != null
+                ? requestConfig.getResponseTimeout() : defaultResponseTimeout;
+        ClassicHttpResponse response;
+        try {
+            response = Timeout.isPositive(responseTimeout)
+                    ? future.get(establishTimeout.toMilliseconds() + responseTimeout.toMilliseconds(),
+                    TimeUnit.MILLISECONDS)
+                    : future.get();
+        } catch (TimeoutException ex) {
+            future.cancel(true);
+            throw new SocketTimeoutException("No response from " + target + " within " + responseTimeout);
+        } catch (InterruptedException ex) {
+            future.cancel(true);
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted waiting for the response from " + target);
+        } catch (ExecutionException ex) {
+            Throwable cause = ex.getCause();
+            if (cause instanceof IOException io) {
+                throw io;
+            }
+            if (cause instanceof HttpException http) {
+                throw http;
+            }
+            throw new IOException("HTTP/2 exchange with " + target + " failed", cause);
+        }
+        ProtocolVersion version = context.getProtocolVersion();
+        if (version != null && version.greaterEquals(HttpVersion.HTTP_2)) {
+            // Only the destination speaks HTTP/2 here, the proxy answers the tunnel request in HTTP/1.1
+            scope.clientContext.setAttribute(ProxyHealthExecHandler.TARGET_REACHED_ATTRIBUTE, Boolean.TRUE);
+        } else if (version != null && http1Targets.add(target)) {
+            LOGGER.debug("{} negotiated {}, using HTTP/1.1 tunnels for it", target, version);
+        }
+        return response;
+    }
+
+    private BasicRequestProducer createRequestProducer(ClassicHttpRequest request, HttpHost target) {
+        BasicHttpRequest asyncRequest = new BasicHttpRequest(request.getMethod(), target, request.getPath());
+        for (Header header : request.getHeaders()) {
+            if (!HOP_BY_HOP_HEADERS.contains(header.getName().toLowerCase(Locale.ROOT))) {
+                asyncRequest.addHeader(header);
+            }
+        }
+        HttpEntity entity = request.getEntity();
+        AsyncEntityProducer entityProducer = null;
+        if (entity != null) {
+            ContentType contentType = entity.getContentType() != null ? ContentType.parse(entity.getContentType()) : null;
+            entityProducer = new AbstractClassicEntityProducer(BUFFER_SIZE, contentType, executor) {
+                @Override
+                protected void produceData(ContentType type, OutputStream out) throws IOException {
+                    entity.writeTo(out);
+                }
+
+                @Override
+                public String getContentEncoding() {
+                    return entity.getContentEncoding();
+                }
+            };
+        }
+        return new BasicRequestProducer(asyncRequest, entityProducer);
+    }
+
+    /**
+     * Consumer completing with a classic response as soon as the head arrives. Its body reads from a buffer the
+     * stream fills, and the capacity freed by reading is granted back to the stream's flow control window.
+     */
+    private static final class StreamingResponseConsumer implements AsyncResponseConsumer<ClassicHttpResponse> {
+
+        private final SharedInputBuffer buffer = new SharedInputBuffer(BUFFER_SIZE);
+
+        @Override
+        public void consumeResponse(HttpResponse response, EntityDetails entityDetails, HttpContext context,
+                                    FutureCallback<ClassicHttpResponse> resultCallback) {
+            BasicClassicHttpResponse classic = new BasicClassicHttpResponse(response.getCode(),
+                    response.getReasonPhrase());
+            classic.setVersion(response.getVersion());
+            for (Header header : response.getHeaders()) {
+                if (!HOP_BY_HOP_HEADERS.contains(header.getName().toLowerCase(Locale.ROOT))) {
+                    classic.addHeader(header);
+                }
+            }
+            if (entityDetails != null) {
+                ContentType contentType = entityDetails.getContentType() != null
+                        ? ContentType.parse(entityDetails.getContentType()) : null;
+                classic.setEntity(new InputStreamEntity(new ContentInputStream(buffer),
+                        entityDetails.getContentLength(), contentType, entityDetails.getContentEncoding()));
+            } else {
+                buffer.markEndStream();
+            }
+            resultCallback.completed(classic);
+        }
+
+        @Override
+        public void informationResponse(HttpResponse response, HttpContext context) {
+        }
+
+        @Override
+        public void updateCapacity(CapacityChannel capacityChannel) throws IOException {
+            buffer.updateCapacity(capacityChannel);
+        }
+
+        @Override
+        public void consume(ByteBuffer src) {
+            buffer.fill(src);
+        }
+
+        @Override
+        public void streamEnd(List<? extends Header> trailers) {
+            buffer.markEndStream();
+        }
+
+        @Override
+        public void failed(Exception cause) {
+            // Unblocks a caller reading the body; the exchange's future reports the failure
+            buffer.abort();
+        }
+
+        @Override
+        public void releaseResources() {
+        }
+    }
+}
@@ -0,0 +1,27 @@
+package com.example.proxystarter;
+
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.boot.context.properties.bind.DefaultValue;
+
+import java.time.Duration;
+
+/**
+ * Properties for the caching JWK set source used by the proxy-enabled JwtDecoder.
+ *
+ * @param enabled           whether the JWK set is cached; when disabled Nimbus defaults are used
+ * @param timeToLive        how long a fetched JWK set is considered fresh
+ * @param refreshTimeout    how long a caller waits for a refresh performed by another thread
+ * @param refreshAhead      how long before expiry the JWK set is refreshed in the background
+ * @param scheduled         whether refresh-ahead runs on a scheduler rather than being triggered by a lookup
+ * @param outageTolerance   how long a stale JWK set keeps being served when the JWK set endpoint fails
+ */
+@ConfigurationProperties(prefix = "proxy.jwk-cache")
+public record JwkCacheProperties(
+    @DefaultValue("true") boolean enabled,
+    @DefaultValue("5m") Duration timeToLive,
+    @DefaultValue("15s") Duration refreshTimeout,
+    @DefaultValue("30s") Duration refreshAhead,
+    @DefaultValue("true") boolean scheduled,
+    @DefaultValue("1h") Duration outageTolerance
+) {
+}
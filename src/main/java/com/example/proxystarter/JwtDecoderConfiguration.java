@@ -1,25 +1,50 @@
 package com.example.proxystarter;
 
+import com.nimbusds.jose.JWSAlgorithm;
+import com.nimbusds.jose.JWSHeader;
+import com.nimbusds.jose.KeySourceException;
+import com.nimbusds.jose.jwk.source.JWKSource;
+import com.nimbusds.jose.jwk.source.JWKSourceBuilder;
+import com.nimbusds.jose.proc.JWSAlgorithmFamilyJWSKeySelector;
+import com.nimbusds.jose.proc.JWSKeySelector;
+import com.nimbusds.jose.proc.JWSVerificationKeySelector;
+import com.nimbusds.jose.proc.SecurityContext;
+import com.nimbusds.jwt.proc.DefaultJWTProcessor;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.ObjectProvider;
 import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.AutoConfiguration;
 import org.springframework.boot.autoconfigure.condition.ConditionalOnClass;
 import org.springframework.boot.autoconfigure.condition.ConditionalOnMissingBean;
 import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
 import org.springframework.boot.context.properties.EnableConfigurationProperties;
+import org.springframework.boot.context.properties.bind.Bindable;
+import org.springframework.boot.context.properties.bind.Binder;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
-import org.springframework.http.client.SimpleClientHttpRequestFactory;
+import org.springframework.context.annotation.Lazy;
+import org.springframework.core.env.Environment;
+import org.springframework.http.client.ClientHttpRequestFactory;
+import org.springframework.http.client.HttpComponentsClientHttpRequestFactory;
 import org.springframework.security.oauth2.jwt.JwtDecoder;
 import org.springframework.security.oauth2.jwt.NimbusJwtDecoder;
+import org.springframework.util.function.SingletonSupplier;
+import org.springframework.web.client.RestOperations;
 import org.springframework.web.client.RestTemplate;
 
-import java.net.InetSocketAddress;
-import java.net.Proxy;
+import java.net.MalformedURLException;
+import java.net.URI;
+import java.net.URL;
+import java.security.Key;
+import java.util.List;
+import java.util.Set;
+import java.util.stream.Collectors;
 
-@Configuration
+@AutoConfiguration(after = ProxyAutoConfiguration.class,
+        beforeName = "org.springframework.boot.autoconfigure.security.oauth2.resource.servlet.OAuth2ResourceServerAutoConfiguration")
 @ConditionalOnClass(JwtDecoder.class)
-@EnableConfigurationProperties(ProxyProperties.class)
+@EnableConfigurationProperties({ProxyProperties.class, JwkCacheProperties.class})
 public class JwtDecoderConfiguration {
     private static final Logger LOGGER = LoggerFactory.getLogger(JwtDecoderConfiguration.class);
 
@@ -30,33 +55,126 @@ public class JwtDecoderConfiguration {
     }
 
     @Bean
-    @ConditionalOnMissingBean
+    @ConditionalOnMissingBean(JwtDecoder.class)
     //@ConditionalOnClass(name = "org.springframework.security.oauth2.jwt.JwtDecoder")
     //@Conditional(JwtAndProxyCondition.class)
     @ConditionalOnProperty(prefix = "spring.security.oauth2.resourceserver.jwt", name = "jwk-set-uri")
-    public JwtDecoder jwtDecoder(ProxyConfigurationService proxyConfigurationService,
-                                 @Value("${spring.security.oauth2.resourceserver.jwt.jwk-set-uri}") String jwkSetUri) {
+    public NimbusJwtDecoder jwtDecoder(ProxyConfigurationService proxyConfigurationService,
+                                       HttpComponentsClientHttpRequestFactory proxyClientHttpRequestFactory,
+                                       ObjectProvider<JWKSource<SecurityContext>> proxyJwkSource,
+                                       Environment environment,
+                                       @Value("${spring.security.oauth2.resourceserver.jwt.jwk-set-uri}") String jwkSetUri) {
         LOGGER.info("Creating proxy-enabled jwtDecoder bean");
-        return createProxyEnabledJwtDecoder(jwkSetUri);
+        // The JWK source is built, and the JWK set fetched, when the first token is decoded, not at startup
+        SingletonSupplier<JWKSource<SecurityContext>> jwkSource = SingletonSupplier.of(() -> {
+            JWKSource<SecurityContext> cachingJwkSource = proxyJwkSource.getIfAvailable();
+            if (cachingJwkSource != null) {
+                LOGGER.info("Using caching JWK set source for JwtDecoder");
+                return cachingJwkSource;
+            }
+            return createProxyEnabledJwkSource(jwkSetUri, proxyClientHttpRequestFactory);
+        });
+        List<String> jwsAlgorithms = Binder.get(environment)
+                .bind("spring.security.oauth2.resourceserver.jwt.jws-algorithms", Bindable.listOf(String.class))
+                .orElse(List.of());
+        return createJwtDecoder((selector, context) -> jwkSource.obtain().get(selector, context), jwsAlgorithms);
     }
 
-    private JwtDecoder createProxyEnabledJwtDecoder(String jwkSetUri) {
+    static JWKSource<SecurityContext> createJwkSource(String jwkSetUri, RestOperations restOperations,
+                                                      JwkCacheProperties properties) {
+        // The caching source de-duplicates concurrent fetches: one thread refreshes while the others
+        // wait up to refreshTimeout for its result instead of issuing their own request.
+        return JWKSourceBuilder.<SecurityContext>create(toUrl(jwkSetUri), new RestOperationsResourceRetriever(restOperations))
+                .cache(properties.timeToLive().toMillis(), properties.refreshTimeout().toMillis())
+                .refreshAheadCache(properties.refreshAhead().toMillis(), properties.scheduled())
+                .outageTolerant(properties.outageTolerance().toMillis())
+                .build();
+    }
+
+    /**
+     * Creates the decoder verifying signatures with the configured algorithms, or, if none are configured, with
+     * those of the key types in the JWK set, looked up when the first token is decoded.
+     */
+    static NimbusJwtDecoder createJwtDecoder(JWKSource<SecurityContext> jwkSource, List<String> jwsAlgorithms) {
+        DefaultJWTProcessor<SecurityContext> jwtProcessor = new DefaultJWTProcessor<>();
+        if (jwsAlgorithms.isEmpty()) {
+            jwtProcessor.setJWSKeySelector(new JwkSetAlgorithmsKeySelector(jwkSource));
+        } else {
+            Set<JWSAlgorithm> algorithms = jwsAlgorithms.stream().map(JWSAlgorithm::parse).collect(Collectors.toSet());
+            jwtProcessor.setJWSKeySelector(new JWSVerificationKeySelector<>(algorithms, jwkSource));
+        }
+        // Claims are validated by NimbusJwtDecoder's OAuth2TokenValidator, not by Nimbus
+        jwtProcessor.setJWTClaimsSetVerifier((claims, context) -> {
+        });
+        return new NimbusJwtDecoder(jwtProcessor);
+    }
+
+    private JWKSource<SecurityContext> createProxyEnabledJwkSource(String jwkSetUri,
+                                                                   ClientHttpRequestFactory requestFactory) {
         if (!proxyProperties.enabled() || proxyProperties.host() == null || proxyProperties.host().isEmpty()) {
-            LOGGER.info("Creating default JwtDecoder without proxy");
-            return NimbusJwtDecoder.withJwkSetUri(jwkSetUri)
-                    .restOperations(new RestTemplate())
-                    .build();
+            LOGGER.info("Creating JWK set source without proxy");
+        } else {
+            LOGGER.info("Creating JWK set source with proxy configuration");
         }
-        LOGGER.info("Creating JwtDecoder with proxy configuration");
-        // Create a RestTemplate with proxy settings
-        RestTemplate restTemplate = new RestTemplate();
-        SimpleClientHttpRequestFactory requestFactory = new SimpleClientHttpRequestFactory();
-        requestFactory.setProxy(new Proxy(Proxy.Type.HTTP, new InetSocketAddress(proxyProperties.host(), proxyProperties.port())));
-        restTemplate.setRequestFactory(requestFactory);
-
-        // Create NimbusJwtDecoder with RestTemplate
-        return NimbusJwtDecoder.withJwkSetUri(jwkSetUri)
-                .restOperations(restTemplate)
+        // Fetch the JWK set through the shared, pooled HttpClient so keep-alive connections are reused
+        RestTemplate restTemplate = new RestTemplate(requestFactory);
+        return JWKSourceBuilder.<SecurityContext>create(toUrl(jwkSetUri), new RestOperationsResourceRetriever(restTemplate))
+                .cache(false)
+                .rateLimited(false)
                 .build();
     }
+
+    /**
+     * Key selector accepting the algorithms of the key types found in the JWK set. The JWK set is looked up on
+     * the first selection; a failed lookup is retried on the next one.
+     */
+    private static final class JwkSetAlgorithmsKeySelector implements JWSKeySelector<SecurityContext> {
+
+        private final JWKSource<SecurityContext> jwkSource;
+
+        private volatile JWSKeySelector<SecurityContext> delegate;
+
+        private JwkSetAlgorithmsKeySelector(JWKSource<SecurityContext> jwkSource) {
+            this.jwkSource = jwkSource;
+        }
+
+        @Override
+        public List<? extends Key> selectJWSKeys(JWSHeader header, SecurityContext context) throws KeySourceException {
+            JWSKeySelector<SecurityContext> selector = delegate;
+            if (selector == null) {
+                // Concurrent first selections may both look up the JWK set; they reach the same algorithms
+                selector = JWSAlgorithmFamilyJWSKeySelector.fromJWKSource(jwkSource);
+                delegate = selector;
+            }
+            return selector.selectJWSKeys(header, context);
+        }
+    }
+
+    /**
+     * Caching JWK set source fetching keys through the shared HTTP client. Closed on context shutdown,
+     * which stops the refresh-ahead scheduler.
+     */
+    @Configuration(proxyBeanMethods = false)
+    @ConditionalOnProperty(prefix = "proxy.jwk-cache", name = "enabled", havingValue = "true", matchIfMissing = true)
+    static class JwkCacheConfiguration {
+
+        @Bean
+        @Lazy
+        @ConditionalOnMissingBean
+        @ConditionalOnProperty(prefix = "spring.security.oauth2.resourceserver.jwt", name = "jwk-set-uri")
+        public JWKSource<SecurityContext> proxyJwkSource(JwkCacheProperties jwkCacheProperties,
+                                                         HttpComponentsClientHttpRequestFactory proxyClientHttpRequestFactory,
+                                                         @Value("${spring.security.oauth2.resourceserver.jwt.jwk-set-uri}") String jwkSetUri) {
+            LOGGER.info("Creating caching JWK set source with time-to-live: {}", jwkCacheProperties.timeToLive());
+            return createJwkSource(jwkSetUri, new RestTemplate(proxyClientHttpRequestFactory), jwkCacheProperties);
+        }
+    }
+
+    private static URL toUrl(String jwkSetUri) {
+        try {
+            return URI.create(jwkSetUri).toURL();
+        } catch (MalformedURLException | IllegalArgumentException ex) {
+            throw new IllegalArgumentException("Invalid JWK set URI: " + jwkSetUri, ex);
+        }
+    }
 }
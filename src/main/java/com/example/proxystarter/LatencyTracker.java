@@ -0,0 +1,71 @@
+package com.example.proxystarter;
+
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Lock-free window of recent request latencies with a percentile that is recomputed every
+ * {@value #RECOMPUTE_INTERVAL} samples rather than on every lookup.
+ */
+final class LatencyTracker {
+
+    private static final int WINDOW = 1024;
+
+    private static final int RECOMPUTE_INTERVAL = 64;
+
+    private final AtomicLongArray samples = new AtomicLongArray(WINDOW);
+
+    private final AtomicLong count = new AtomicLong();
+
+    private final double percentile;
+
+    private volatile long threshold = -1;
+
+    private volatile long lastRecorded = System.nanoTime();
+
+    LatencyTracker(double percentile) {
+        this.percentile = percentile;
+    }
+
+    void record(long nanos) {
+        lastRecorded = System.nanoTime();
+        long n = count.getAndIncrement();
+        samples.set((int) (n % WINDOW), nanos);
+        if ((n + 1) % RECOMPUTE_INTERVAL == 0) {
+            recompute(Math.min(n + 1, WINDOW));
+        }
+    }
+
+    /**
+     * Returns the latency at the configured percentile, or {@code -1} if fewer than {@code minSamples}
+     * latencies have been recorded.
+     */
+    long percentileNanos(int minSamples) {
+        long recorded = count.get();
+        if (recorded == 0 || recorded < minSamples) {
+            return -1;
+        }
+        if (threshold < 0) {
+            recompute(Math.min(recorded, WINDOW));
+        }
+        return threshold;
+    }
+
+    /**
+     * Returns whether no latency has been recorded for longer than {@code staleNanos}.
+     */
+    boolean isStale(long now, long staleNanos) {
+        return now - lastRecorded > staleNanos;
+    }
+
+    private void recompute(long size) {
+        long[] window = new long[(int) size];
+        for (int i = 0; i < window.length; i++) {
+            window[i] = samples.get(i);
+        }
+        Arrays.sort(window);
+        int index = (int) Math.ceil(percentile * window.length) - 1;
+        threshold = window[Math.max(0, Math.min(window.length - 1, index))];
+    }
+}
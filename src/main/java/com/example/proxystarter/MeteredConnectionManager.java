@@ -0,0 +1,220 @@
+package com.example.proxystarter;
+
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Tags;
+import io.micrometer.core.instrument.Timer;
+import org.apache.hc.client5.http.HttpRoute;
+import org.apache.hc.client5.http.impl.io.PoolingHttpClientConnectionManager;
+import org.apache.hc.client5.http.io.ConnectionEndpoint;
+import org.apache.hc.client5.http.io.HttpClientConnectionManager;
+import org.apache.hc.client5.http.io.LeaseRequest;
+import org.apache.hc.core5.http.protocol.HttpContext;
+import org.apache.hc.core5.io.CloseMode;
+import org.apache.hc.core5.pool.ConnPoolControl;
+import org.apache.hc.core5.pool.PoolStats;
+import org.apache.hc.core5.util.TimeValue;
+import org.apache.hc.core5.util.Timeout;
+
+import java.io.IOException;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Function;
+import java.util.function.ToIntFunction;
+
+/**
+ * Connection manager timing leases and connects of a pool, and registering gauges for the whole pool. Per-route
+ * gauges, one set per destination, are only registered when enabled, the first time the route is leased.
+ * <p>
+ * The gauges read the pool through a reference shared by every manager of the same proxy, which each new manager
+ * points at its own pool. A reload therefore moves the gauges to the new pool, while the registry keeps the meters
+ * registered for the first.
+ * <p>
+ * Implements {@link ConnPoolControl} so that the client's idle and expired connection evictor keeps working.
+ */
+class MeteredConnectionManager implements HttpClientConnectionManager, ConnPoolControl<HttpRoute> {
+
+    private final PoolingHttpClientConnectionManager delegate;
+
+    private final AtomicReference<PoolingHttpClientConnectionManager> currentPool;
+
+    private final MeterRegistry registry;
+
+    private final Tags tags;
+
+    private final Timer connectTimer;
+
+    private final Timer connectFailureTimer;
+
+    private final Map<String, Timer> leaseTimers = new ConcurrentHashMap<>();
+
+    private final boolean perRouteGauges;
+
+    private final Set<HttpRoute> meteredRoutes = ConcurrentHashMap.newKeySet();
+
+    /**
+     * Creates the manager and points {@code currentPool} at its pool.
+     *
+     * @param delegate       the pool
+     * @param currentPool    the pool the gauges of this proxy read, shared by the managers replacing each other
+     * @param registry       the registry to record to
+     * @param tags           the tags of the proxy
+     * @param perRouteGauges whether to register gauges per destination
+     */
+    MeteredConnectionManager(PoolingHttpClientConnectionManager delegate,
+                             AtomicReference<PoolingHttpClientConnectionManager> currentPool, MeterRegistry registry,
+                             Tags tags, boolean perRouteGauges) {
+        this.delegate = delegate;
+        this.currentPool = currentPool;
+        currentPool.set(delegate);
+        this.registry = registry;
+        this.tags = tags;
+        this.perRouteGauges = perRouteGauges;
+        registerGauges(tags, PoolingHttpClientConnectionManager::getTotalStats);
+        this.connectTimer = Timer.builder(ProxyClientMetrics.CONNECT).tags(tags).tag("outcome", "SUCCESS")
+                .register(registry);
+        this.connectFailureTimer = Timer.builder(ProxyClientMetrics.CONNECT).tags(tags).tag("outcome", "FAILURE")
+                .register(registry);
+    }
+
+    @Override
+    public LeaseRequest lease(String id, HttpRoute route, Timeout requestTimeout, Object state) {
+        if (perRouteGauges && meteredRoutes.add(route)) {
+            registerGauges(tags.and("target", route.getTargetHost().toHostString()), pool -> pool.getStats(route));
+        }
+        LeaseRequest leaseRequest = delegate.lease(id, route, requestTimeout, state);
+        return new LeaseRequest() {
+            @Override
+            public ConnectionEndpoint get(Timeout timeout)
+                    throws InterruptedException, ExecutionException, TimeoutException {
+                long start = System.nanoTime();
+                String outcome = "FAILURE";
+                try {
+                    ConnectionEndpoint endpoint = leaseRequest.get(timeout);
+                    outcome = "SUCCESS";
+                    return endpoint;
+                } catch (TimeoutException ex) {
+                    outcome = "TIMEOUT";
+                    throw ex;
+                } finally {
+                    leaseTimers.computeIfAbsent(outcome, key -> Timer.builder(ProxyClientMetrics.LEASE)
+                                    .tags(tags)
+                                    .tag("outcome", key)
+                                    .register(registry))
+                            .record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+                }
+            }
+
+            @Override
+            public boolean cancel() {
+                return leaseRequest.cancel();
+            }
+        };
+    }
+
+    @Override
+    public void release(ConnectionEndpoint endpoint, Object newState, TimeValue validDuration) {
+        delegate.release(endpoint, newState, validDuration);
+    }
+
+    @Override
+    public void connect(ConnectionEndpoint endpoint, TimeValue timeout, HttpContext context) throws IOException {
+        long start = System.nanoTime();
+        try {
+            delegate.connect(endpoint, timeout, context);
+            connectTimer.record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+        } catch (IOException | RuntimeException ex) {
+            connectFailureTimer.record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+            throw ex;
+        }
+    }
+
+    @Override
+    public void upgrade(ConnectionEndpoint endpoint, HttpContext context) throws IOException {
+        delegate.upgrade(endpoint, context);
+    }
+
+    @Override
+    public void close(CloseMode closeMode) {
+        delegate.close(closeMode);
+    }
+
+    @Override
+    public void close() throws IOException {
+        delegate.close();
+    }
+
+    @Override
+    public void setMaxTotal(int max) {
+        delegate.setMaxTotal(max);
+    }
+
+    @Override
+    public int getMaxTotal() {
+        return delegate.getMaxTotal();
+    }
+
+    @Override
+    public void setDefaultMaxPerRoute(int max) {
+        delegate.setDefaultMaxPerRoute(max);
+    }
+
+    @Override
+    public int getDefaultMaxPerRoute() {
+        return delegate.getDefaultMaxPerRoute();
+    }
+
+    @Override
+    public void setMaxPerRoute(HttpRoute route, int max) {
+        delegate.setMaxPerRoute(route, max);
+    }
+
+    @Override
+    public int getMaxPerRoute(HttpRoute route) {
+        return delegate.getMaxPerRoute(route);
+    }
+
+    @Override
+    public void closeIdle(TimeValue idleTime) {
+        delegate.closeIdle(idleTime);
+    }
+
+    @Override
+    public void closeExpired() {
+        delegate.closeExpired();
+    }
+
+    public Set<HttpRoute> getRoutes() {
+        return delegate.getRoutes();
+    }
+
+    @Override
+    public PoolStats getTotalStats() {
+        return delegate.getTotalStats();
+    }
+
+    @Override
+    public PoolStats getStats(HttpRoute route) {
+        return delegate.getStats(route);
+    }
+
+    private void registerGauges(Tags gaugeTags, Function<PoolingHttpClientConnectionManager, PoolStats> stats) {
+        gauge("proxy.client.pool.leased", gaugeTags, stats, PoolStats::getLeased);
+        gauge("proxy.client.pool.available", gaugeTags, stats, PoolStats::getAvailable);
+        gauge("proxy.client.pool.pending", gaugeTags, stats, PoolStats::getPending);
+        gauge("proxy.client.pool.max", gaugeTags, stats, PoolStats::getMax);
+    }
+
+    private void gauge(String name, Tags gaugeTags, Function<PoolingHttpClientConnectionManager, PoolStats> stats,
+                       ToIntFunction<PoolStats> value) {
+        // The registry holds gauges weakly, but the reference is held by the metrics binding
+        Gauge.builder(name, currentPool, pool -> value.applyAsInt(stats.apply(pool.get())))
+                .tags(gaugeTags)
+                .register(registry);
+    }
+}
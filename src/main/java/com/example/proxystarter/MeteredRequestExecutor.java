@@ -0,0 +1,62 @@
+package com.example.proxystarter;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Tags;
+import io.micrometer.core.instrument.Timer;
+import org.apache.hc.core5.http.ClassicHttpRequest;
+import org.apache.hc.core5.http.ClassicHttpResponse;
+import org.apache.hc.core5.http.HttpException;
+import org.apache.hc.core5.http.HttpStatus;
+import org.apache.hc.core5.http.Method;
+import org.apache.hc.core5.http.impl.io.HttpRequestExecutor;
+import org.apache.hc.core5.http.io.HttpClientConnection;
+import org.apache.hc.core5.http.io.HttpResponseInformationCallback;
+import org.apache.hc.core5.http.protocol.HttpContext;
+
+import java.io.IOException;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Request executor timing {@code CONNECT} exchanges and exchanges the proxy answers with {@code 407}.
+ * <p>
+ * The executor sees every exchange on the wire, including the tunnel set-up and authentication round trips
+ * the client handles internally and never returns to the caller.
+ */
+class MeteredRequestExecutor extends HttpRequestExecutor {
+
+    private final MeterRegistry registry;
+
+    private final Tags tags;
+
+    private final Timer authChallengeTimer;
+
+    private final Map<Integer, Timer> tunnelTimers = new ConcurrentHashMap<>();
+
+    MeteredRequestExecutor(MeterRegistry registry, Tags tags) {
+        this.registry = registry;
+        this.tags = tags;
+        this.authChallengeTimer = Timer.builder(ProxyClientMetrics.AUTH_CHALLENGE).tags(tags).register(registry);
+    }
+
+    @Override
+    public ClassicHttpResponse execute(ClassicHttpRequest request, HttpClientConnection conn,
+                                       HttpResponseInformationCallback informationCallback, HttpContext context)
+            throws IOException, HttpException {
+        long start = System.nanoTime();
+        ClassicHttpResponse response = super.execute(request, conn, informationCallback, context);
+        long duration = System.nanoTime() - start;
+        if (response.getCode() == HttpStatus.SC_PROXY_AUTHENTICATION_REQUIRED) {
+            authChallengeTimer.record(duration, TimeUnit.NANOSECONDS);
+        }
+        if (Method.CONNECT.isSame(request.getMethod())) {
+            tunnelTimers.computeIfAbsent(response.getCode(), status -> Timer.builder(ProxyClientMetrics.TUNNEL)
+                            .tags(tags)
+                            .tag("status", String.valueOf(status))
+                            .register(registry))
+                    .record(duration, TimeUnit.NANOSECONDS);
+        }
+        return response;
+    }
+}
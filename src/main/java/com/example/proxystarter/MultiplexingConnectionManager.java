@@ -0,0 +1,425 @@
+package com.example.proxystarter;
+
+import org.apache.hc.client5.http.EndpointInfo;
+import org.apache.hc.client5.http.HttpRoute;
+import org.apache.hc.client5.http.impl.nio.PoolingAsyncClientConnectionManager;
+import org.apache.hc.client5.http.nio.AsyncClientConnectionManager;
+import org.apache.hc.client5.http.nio.AsyncConnectionEndpoint;
+import org.apache.hc.core5.concurrent.ComplexFuture;
+import org.apache.hc.core5.concurrent.FutureCallback;
+import org.apache.hc.core5.http.HttpVersion;
+import org.apache.hc.core5.http.ProtocolVersion;
+import org.apache.hc.core5.http.nio.AsyncClientExchangeHandler;
+import org.apache.hc.core5.http.nio.AsyncPushConsumer;
+import org.apache.hc.core5.http.nio.HandlerFactory;
+import org.apache.hc.core5.http.protocol.HttpContext;
+import org.apache.hc.core5.io.CloseMode;
+import org.apache.hc.core5.pool.ConnPoolControl;
+import org.apache.hc.core5.pool.PoolStats;
+import org.apache.hc.core5.reactor.ConnectionInitiator;
+import org.apache.hc.core5.util.TimeValue;
+import org.apache.hc.core5.util.Timeout;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Async connection manager leasing an HTTP/2 connection to up to {@code maxConcurrentStreams} requests at once,
+ * where the pooling manager of this HttpClient version leases every connection to one request at a time.
+ * Concurrent requests to a route therefore share one connection, and through a proxy one {@code CONNECT} tunnel,
+ * instead of opening one each.
+ * <p>
+ * A connection leased from the pool for a route becomes the route's shared connection once it has negotiated
+ * HTTP/2 via ALPN; requests for the route wait for that negotiation rather than open connections of their own.
+ * Connections negotiating HTTP/1.1 serve one request at a time, as before. A shared connection goes back to the
+ * pool when its last request releases it, and a full one makes the next request lease another.
+ */
+final class MultiplexingConnectionManager implements AsyncClientConnectionManager, ConnPoolControl<HttpRoute> {
+
+    private final PoolingAsyncClientConnectionManager pool;
+
+    private final int maxConcurrentStreams;
+
+    private final Map<HttpRoute, SharedConnection> connections = new ConcurrentHashMap<>();
+
+    MultiplexingConnectionManager(PoolingAsyncClientConnectionManager pool, int maxConcurrentStreams) {
+        this.pool = pool;
+        this.maxConcurrentStreams = maxConcurrentStreams;
+    }
+
+    @Override
+    public Future<AsyncConnectionEndpoint> lease(String id, HttpRoute route, Object state, Timeout requestTimeout,
+                                                 FutureCallback<AsyncConnectionEndpoint> callback) {
+        ComplexFuture<AsyncConnectionEndpoint> future = new ComplexFuture<>(callback);
+        lease(id, route, state, requestTimeout, future);
+        return future;
+    }
+
+    private void lease(String id, HttpRoute route, Object state, Timeout requestTimeout,
+                       ComplexFuture<AsyncConnectionEndpoint> future) {
+        if (future.isDone()) {
+            return;
+        }
+        SharedConnection shared = connections.get(route);
+        if (shared == null) {
+            // Registered before the pool lease completes, so that requests arriving meanwhile wait for it
+            SharedConnection pending = new SharedConnection(route);
+            shared = connections.putIfAbsent(route, pending);
+            if (shared == null) {
+                leaseFromPool(id, route, state, requestTimeout, future, pending);
+                return;
+            }
+        }
+        if (shared.awaitNegotiation(() -> lease(id, route, state, requestTimeout, future))) {
+            return;
+        }
+        StreamEndpoint stream = shared.openStream();
+        if (stream != null) {
+            complete(future, stream);
+            return;
+        }
+        leaseFromPool(id, route, state, requestTimeout, future, new SharedConnection(route));
+    }
+
+    private void leaseFromPool(String id, HttpRoute route, Object state, Timeout requestTimeout,
+                               ComplexFuture<AsyncConnectionEndpoint> future, SharedConnection connection) {
+        future.setDependency(pool.lease(id, route, state, requestTimeout, new FutureCallback<>() {
+            @Override
+            public void completed(AsyncConnectionEndpoint endpoint) {
+                StreamEndpoint stream = connection.firstStream(endpoint);
+                if (endpoint.isConnected()) {
+                    // Reused from the pool, so its protocol is known already
+                    connection.negotiated();
+                }
+                complete(future, stream);
+            }
+
+            @Override
+            public void failed(Exception ex) {
+                // Requests waiting on the connection lease their own
+                connection.resolve(false);
+                future.failed(ex);
+            }
+
+            @Override
+            public void cancelled() {
+                connection.resolve(false);
+                future.cancel();
+            }
+        }));
+    }
+
+    private static void complete(ComplexFuture<AsyncConnectionEndpoint> future, StreamEndpoint stream) {
+        if (!future.completed(stream)) {
+            // Cancelled while waiting
+            stream.release(null, TimeValue.ZERO_MILLISECONDS);
+        }
+    }
+
+    @Override
+    public void release(AsyncConnectionEndpoint endpoint, Object newState, TimeValue validDuration) {
+        ((StreamEndpoint) endpoint).release(newState, validDuration);
+    }
+
+    @Override
+    public Future<AsyncConnectionEndpoint> connect(AsyncConnectionEndpoint endpoint,
+                                                   ConnectionInitiator connectionInitiator, Timeout connectTimeout,
+                                                   Object attachment, HttpContext context,
+                                                   FutureCallback<AsyncConnectionEndpoint> callback) {
+        StreamEndpoint stream = (StreamEndpoint) endpoint;
+        SharedConnection connection = stream.connection;
+        ComplexFuture<AsyncConnectionEndpoint> future = new ComplexFuture<>(callback);
+        future.setDependency(pool.connect(connection.endpoint, connectionInitiator, connectTimeout, attachment,
+                context, new FutureCallback<>() {
+                    @Override
+                    public void completed(AsyncConnectionEndpoint connected) {
+                        if (!connection.route.isTunnelled()) {
+                            // TLS, and with it ALPN, is negotiated on connect unless the route is tunnelled
+                            connection.negotiated();
+                        }
+                        future.completed(stream);
+                    }
+
+                    @Override
+                    public void failed(Exception ex) {
+                        future.failed(ex);
+                    }
+
+                    @Override
+                    public void cancelled() {
+                        future.cancel();
+                    }
+                }));
+        return future;
+    }
+
+    @Override
+    public void upgrade(AsyncConnectionEndpoint endpoint, Object attachment, HttpContext context) {
+        upgrade(endpoint, attachment, context, null);
+    }
+
+    @Override
+    public void upgrade(AsyncConnectionEndpoint endpoint, Object attachment, HttpContext context,
+                        FutureCallback<AsyncConnectionEndpoint> callback) {
+        StreamEndpoint stream = (StreamEndpoint) endpoint;
+        SharedConnection connection = stream.connection;
+        pool.upgrade(connection.endpoint, attachment, context, new FutureCallback<>() {
+            @Override
+            public void completed(AsyncConnectionEndpoint upgraded) {
+                // The pool switches the connection to HTTP/2 when the destination selects h2 via ALPN
+                connection.negotiated();
+                if (callback != null) {
+                    callback.completed(stream);
+                }
+            }
+
+            @Override
+            public void failed(Exception ex) {
+                if (callback != null) {
+                    callback.failed(ex);
+                }
+            }
+
+            @Override
+            public void cancelled() {
+                if (callback != null) {
+                    callback.cancelled();
+                }
+            }
+        });
+    }
+
+    @Override
+    public void close(CloseMode closeMode) {
+        pool.close(closeMode);
+    }
+
+    @Override
+    public void close() {
+        pool.close();
+    }
+
+    @Override
+    public void setMaxTotal(int max) {
+        pool.setMaxTotal(max);
+    }
+
+    @Override
+    public int getMaxTotal() {
+        return pool.getMaxTotal();
+    }
+
+    @Override
+    public void setDefaultMaxPerRoute(int max) {
+        pool.setDefaultMaxPerRoute(max);
+    }
+
+    @Override
+    public int getDefaultMaxPerRoute() {
+        return pool.getDefaultMaxPerRoute();
+    }
+
+    @Override
+    public void setMaxPerRoute(HttpRoute route, int max) {
+        pool.setMaxPerRoute(route, max);
+    }
+
+    @Override
+    public int getMaxPerRoute(HttpRoute route) {
+        return pool.getMaxPerRoute(route);
+    }
+
+    @Override
+    public void closeIdle(TimeValue idleTime) {
+        pool.closeIdle(idleTime);
+    }
+
+    @Override
+    public void closeExpired() {
+        pool.closeExpired();
+    }
+
+    @Override
+    public Set<HttpRoute> getRoutes() {
+        return pool.getRoutes();
+    }
+
+    @Override
+    public PoolStats getTotalStats() {
+        return pool.getTotalStats();
+    }
+
+    @Override
+    public PoolStats getStats(HttpRoute route) {
+        return pool.getStats(route);
+    }
+
+    private static boolean isHttp2(AsyncConnectionEndpoint endpoint) {
+        EndpointInfo info = endpoint.getInfo();
+        ProtocolVersion protocol = info != null ? info.getProtocol() : null;
+        return protocol != null && protocol.greaterEquals(HttpVersion.HTTP_2);
+    }
+
+    /**
+     * A connection leased from the pool and the requests using it. Until it is leased and its protocol negotiated
+     * it serves the request that leased it, while others for the route wait.
+     */
+    private final class SharedConnection {
+
+        private final HttpRoute route;
+
+        // Set once leased from the pool, before the protocol is resolved
+        private volatile AsyncConnectionEndpoint endpoint;
+
+        // Requests using the connection; once it drops to zero the connection is back in the pool for good
+        private final AtomicInteger streams = new AtomicInteger();
+
+        private final Lock lock = new ReentrantLock();
+
+        private final List<Runnable> waiters = new ArrayList<>();
+
+        private boolean resolved;
+
+        private volatile boolean multiplexed;
+
+        private SharedConnection(HttpRoute route) {
+            this.route = route;
+        }
+
+        StreamEndpoint firstStream(AsyncConnectionEndpoint endpoint) {
+            this.endpoint = endpoint;
+            streams.set(1);
+            return new StreamEndpoint(this);
+        }
+
+        /**
+         * Queues the lease until the protocol is known and returns {@code true}, or returns {@code false} if it
+         * is known already.
+         */
+        boolean awaitNegotiation(Runnable lease) {
+            lock.lock();
+            try {
+                if (resolved) {
+                    return false;
+                }
+                waiters.add(lease);
+                return true;
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        void negotiated() {
+            resolve(endpoint.isConnected() && isHttp2(endpoint));
+        }
+
+        private void resolve(boolean http2) {
+            List<Runnable> leases;
+            lock.lock();
+            try {
+                if (resolved) {
+                    return;
+                }
+                resolved = true;
+                multiplexed = http2;
+                if (http2) {
+                    connections.putIfAbsent(route, this);
+                } else {
+                    connections.remove(route, this);
+                }
+                leases = List.copyOf(waiters);
+                waiters.clear();
+            } finally {
+                lock.unlock();
+            }
+            leases.forEach(Runnable::run);
+        }
+
+        StreamEndpoint openStream() {
+            if (!multiplexed || !endpoint.isConnected()) {
+                return null;
+            }
+            while (true) {
+                int current = streams.get();
+                if (current < 1 || current >= maxConcurrentStreams) {
+                    return null;
+                }
+                if (streams.compareAndSet(current, current + 1)) {
+                    return new StreamEndpoint(this);
+                }
+            }
+        }
+
+        boolean isShared() {
+            return multiplexed && streams.get() > 1;
+        }
+
+        void releaseStream(Object state, TimeValue validDuration) {
+            if (streams.decrementAndGet() > 0) {
+                return;
+            }
+            connections.remove(route, this);
+            // Requests still waiting on a connection that never negotiated lease their own
+            resolve(false);
+            pool.release(endpoint, state, validDuration);
+        }
+    }
+
+    /**
+     * The view of a shared connection leased to one request.
+     */
+    private static final class StreamEndpoint extends AsyncConnectionEndpoint {
+
+        private final SharedConnection connection;
+
+        private final AtomicBoolean released = new AtomicBoolean();
+
+        private StreamEndpoint(SharedConnection connection) {
+            this.connection = connection;
+        }
+
+        @Override
+        public void execute(String id, AsyncClientExchangeHandler exchangeHandler,
+                            HandlerFactory<AsyncPushConsumer> pushHandlerFactory, HttpContext context) {
+            // An HTTP/2 connection runs each exchange on a stream of its own
+            connection.endpoint.execute(id, exchangeHandler, pushHandlerFactory, context);
+        }
+
+        @Override
+        public boolean isConnected() {
+            return !released.get() && connection.endpoint.isConnected();
+        }
+
+        @Override
+        public void setSocketTimeout(Timeout timeout) {
+            connection.endpoint.setSocketTimeout(timeout);
+        }
+
+        @Override
+        public EndpointInfo getInfo() {
+            return connection.endpoint.getInfo();
+        }
+
+        @Override
+        public void close(CloseMode closeMode) {
+            // A failed exchange discards its endpoint, which must not take down the streams of other requests
+            if (!connection.isShared()) {
+                connection.endpoint.close(closeMode);
+            }
+        }
+
+        void release(Object state, TimeValue validDuration) {
+            if (released.compareAndSet(false, true)) {
+                connection.releaseStream(state, validDuration);
+            }
+        }
+    }
+}
@@ -0,0 +1,322 @@
+package com.example.proxystarter;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Decides whether a host bypasses the proxy, using the pipe-separated {@code proxy.non-proxy-hosts} patterns.
+ * <p>
+ * The patterns are compiled once into an exact-host set, a trie of reversed {@code *suffix} patterns, a trie
+ * of {@code prefix*} patterns and a list of CIDR ranges ({@code 10.0.0.0/8}, {@code fd00::/8}), so a lookup
+ * costs one pass over the host name. Decisions are cached per host in a bounded LRU map.
+ */
+public final class NonProxyHostsMatcher {
+
+    private final Set<String> exactHosts = new HashSet<>();
+
+    private final CharTrie suffixes = new CharTrie();
+
+    private final CharTrie prefixes = new CharTrie();
+
+    private final List<CidrRange> cidrRanges = new ArrayList<>();
+
+    private final boolean matchAll;
+
+    private final DecisionCache<Boolean> decisions;
+
+    public NonProxyHostsMatcher(String nonProxyHosts, int cacheSize) {
+        boolean all = false;
+        if (nonProxyHosts != null) {
+            for (String rawPattern : nonProxyHosts.split("\\|")) {
+                String pattern = rawPattern.trim().toLowerCase(Locale.ROOT);
+                if (pattern.isEmpty()) {
+                    continue;
+                }
+                if (pattern.equals("*")) {
+                    all = true;
+                } else if (pattern.indexOf('/') >= 0) {
+                    cidrRanges.add(CidrRange.parse(pattern));
+                } else if (pattern.startsWith("*")) {
+                    suffixes.add(new StringBuilder(pattern.substring(1)).reverse());
+                } else if (pattern.endsWith("*")) {
+                    prefixes.add(pattern.substring(0, pattern.length() - 1));
+                } else {
+                    exactHosts.add(stripBrackets(pattern));
+                }
+            }
+        }
+        this.matchAll = all;
+        this.decisions = new DecisionCache<>(cacheSize);
+    }
+
+    /**
+     * Returns whether requests to the given host should go direct rather than through the proxy.
+     *
+     * @param host the target host name or IP literal
+     * @return {@code true} if the host matches one of the non-proxy patterns
+     */
+    public boolean matches(String host) {
+        if (host == null || host.isEmpty()) {
+            return false;
+        }
+        if (matchAll) {
+            return true;
+        }
+        return decisions.get(host, this::evaluate);
+    }
+
+    /**
+     * Returns whether any non-proxy patterns are configured.
+     *
+     * @return {@code true} if no host can match
+     */
+    public boolean isEmpty() {
+        return !matchAll && exactHosts.isEmpty() && suffixes.isEmpty() && prefixes.isEmpty() && cidrRanges.isEmpty();
+    }
+
+    /**
+     * Evaluates the patterns without consulting or filling the decision cache.
+     */
+    boolean evaluate(String rawHost) {
+        String host = stripBrackets(rawHost.toLowerCase(Locale.ROOT));
+        if (exactHosts.contains(host) || suffixes.matchesReversed(host) || prefixes.matchesForward(host)) {
+            return true;
+        }
+        if (!cidrRanges.isEmpty()) {
+            byte[] address = parseAddressLiteral(host);
+            if (address != null) {
+                for (CidrRange range : cidrRanges) {
+                    if (range.contains(address)) {
+                        return true;
+                    }
+                }
+            }
+        }
+        return false;
+    }
+
+    private static String stripBrackets(String host) {
+        if (host.length() > 1 && host.charAt(0) == '[' && host.charAt(host.length() - 1) == ']') {
+            return host.substring(1, host.length() - 1);
+        }
+        return host;
+    }
+
+    /**
+     * Parses an IPv4 or IPv6 literal without ever triggering a DNS lookup.
+     */
+    static byte[] parseAddressLiteral(String host) {
+        if (host.indexOf(':') >= 0) {
+            int zone = host.indexOf('%');
+            return parseIpv6Literal(zone >= 0 ? host.substring(0, zone) : host);
+        }
+        return parseIpv4Literal(host);
+    }
+
+    /**
+     * Parses an IPv6 literal, with {@code ::} compression and an optional dotted IPv4 tail.
+     */
+    private static byte[] parseIpv6Literal(String literal) {
+        int[] groups = new int[8];
+        int count = 0;
+        int compressAt = -1;
+        int i = 0;
+        int length = literal.length();
+        if (literal.startsWith("::")) {
+            compressAt = 0;
+            i = 2;
+        }
+        while (i < length) {
+            if (count == 8) {
+                return null;
+            }
+            int start = i;
+            int value = 0;
+            int digit;
+            while (i < length && i - start < 4 && (digit = Character.digit(literal.charAt(i), 16)) >= 0) {
+                value = (value << 4) | digit;
+                i++;
+            }
+            if (i < length && literal.charAt(i) == '.') {
+                // Dotted IPv4 tail, as in ::ffff:10.0.0.1
+                byte[] ipv4 = count <= 6 ? parseIpv4Literal(literal.substring(start)) : null;
+                if (ipv4 == null) {
+                    return null;
+                }
+                groups[count++] = ((ipv4[0] & 0xFF) << 8) | (ipv4[1] & 0xFF);
+                groups[count++] = ((ipv4[2] & 0xFF) << 8) | (ipv4[3] & 0xFF);
+                break;
+            }
+            if (i == start) {
+                return null;
+            }
+            groups[count++] = value;
+            if (i == length) {
+                break;
+            }
+            if (literal.charAt(i++) != ':' || i == length) {
+                return null;
+            }
+            if (literal.charAt(i) == ':') {
+                if (compressAt >= 0) {
+                    return null;
+                }
+                compressAt = count;
+                i++;
+            }
+        }
+        if (compressAt < 0 ? count != 8 : count > 7) {
+            return null;
+        }
+        byte[] address = new byte[16];
+        int position = 0;
+        for (int group = 0; group < count; group++) {
+            if (group == compressAt) {
+                position += 8 - count;
+            }
+            address[position * 2] = (byte) (groups[group] >> 8);
+            address[position * 2 + 1] = (byte) groups[group];
+            position++;
+        }
+        // IPv4-mapped addresses match IPv4 ranges, as InetAddress treats them as IPv4
+        for (int b = 0; b < 10; b++) {
+            if (address[b] != 0) {
+                return address;
+            }
+        }
+        return address[10] == (byte) 0xFF && address[11] == (byte) 0xFF
+                ? new byte[]{address[12], address[13], address[14], address[15]}
+                : address;
+    }
+
+    private static byte[] parseIpv4Literal(String host) {
+        byte[] address = new byte[4];
+        int octet = 0;
+        int value = -1;
+        for (int i = 0; i < host.length(); i++) {
+            char c = host.charAt(i);
+            if (c >= '0' && c <= '9') {
+                value = (value < 0 ? 0 : value * 10) + (c - '0');
+                if (value > 255) {
+                    return null;
+                }
+            } else if (c == '.' && value >= 0 && octet < 3) {
+                address[octet++] = (byte) value;
+                value = -1;
+            } else {
+                return null;
+            }
+        }
+        if (octet != 3 || value < 0) {
+            return null;
+        }
+        address[3] = (byte) value;
+        return address;
+    }
+
+    private record CidrRange(byte[] network, int prefixLength) {
+
+        static CidrRange parse(String pattern) {
+            int slash = pattern.indexOf('/');
+            byte[] network = parseAddressLiteral(stripBrackets(pattern.substring(0, slash)));
+            if (network == null) {
+                throw new IllegalArgumentException("Invalid CIDR range in proxy.non-proxy-hosts: " + pattern);
+            }
+            int prefixLength;
+            try {
+                prefixLength = Integer.parseInt(pattern.substring(slash + 1));
+            } catch (NumberFormatException ex) {
+                throw new IllegalArgumentException("Invalid CIDR prefix length in proxy.non-proxy-hosts: " + pattern, ex);
+            }
+            if (prefixLength < 0 || prefixLength > network.length * 8) {
+                throw new IllegalArgumentException("Invalid CIDR prefix length in proxy.non-proxy-hosts: " + pattern);
+            }
+            return new CidrRange(network, prefixLength);
+        }
+
+        boolean contains(byte[] address) {
+            if (address.length != network.length) {
+                return false;
+            }
+            int fullBytes = prefixLength / 8;
+            for (int i = 0; i < fullBytes; i++) {
+                if (address[i] != network[i]) {
+                    return false;
+                }
+            }
+            int remainingBits = prefixLength % 8;
+            if (remainingBits == 0) {
+                return true;
+            }
+            int mask = (0xFF << (8 - remainingBits)) & 0xFF;
+            return (address[fullBytes] & mask) == (network[fullBytes] & mask);
+        }
+    }
+
+    /**
+     * Character trie; a lookup walks the host once and stops at the first pattern that ends.
+     */
+    private static final class CharTrie {
+
+        private final Node root = new Node();
+
+        private boolean empty = true;
+
+        void add(CharSequence pattern) {
+            Node node = root;
+            for (int i = 0; i < pattern.length(); i++) {
+                node = node.children.computeIfAbsent(pattern.charAt(i), c -> new Node());
+            }
+            node.terminal = true;
+            empty = false;
+        }
+
+        boolean isEmpty() {
+            return empty;
+        }
+
+        boolean matchesForward(String host) {
+            if (empty) {
+                return false;
+            }
+            Node node = root;
+            for (int i = 0; i < host.length(); i++) {
+                node = node.children.get(host.charAt(i));
+                if (node == null) {
+                    return false;
+                }
+                if (node.terminal) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        boolean matchesReversed(String host) {
+            if (empty) {
+                return false;
+            }
+            Node node = root;
+            for (int i = host.length() - 1; i >= 0; i--) {
+                node = node.children.get(host.charAt(i));
+                if (node == null) {
+                    return false;
+                }
+                if (node.terminal) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        private static final class Node {
+            private final Map<Character, Node> children = new HashMap<>(4);
+            private boolean terminal;
+        }
+    }
+}
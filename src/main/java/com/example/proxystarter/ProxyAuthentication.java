@@ -0,0 +1,159 @@
+package com.example.proxystarter;
+
+import org.apache.hc.client5.http.async.AsyncExecCallback;
+import org.apache.hc.client5.http.async.AsyncExecChain;
+import org.apache.hc.client5.http.async.AsyncExecChainHandler;
+import org.apache.hc.client5.http.auth.AuthCache;
+import org.apache.hc.client5.http.auth.AuthScope;
+import org.apache.hc.client5.http.auth.Credentials;
+import org.apache.hc.client5.http.auth.CredentialsProvider;
+import org.apache.hc.client5.http.auth.UsernamePasswordCredentials;
+import org.apache.hc.client5.http.classic.ExecChain;
+import org.apache.hc.client5.http.classic.ExecChainHandler;
+import org.apache.hc.client5.http.impl.auth.BasicAuthCache;
+import org.apache.hc.client5.http.impl.auth.BasicCredentialsProvider;
+import org.apache.hc.client5.http.impl.auth.BasicScheme;
+import org.apache.hc.client5.http.protocol.HttpClientContext;
+import org.apache.hc.core5.http.ClassicHttpRequest;
+import org.apache.hc.core5.http.ClassicHttpResponse;
+import org.apache.hc.core5.http.HttpException;
+import org.apache.hc.core5.http.HttpHost;
+import org.apache.hc.core5.http.HttpRequest;
+import org.apache.hc.core5.http.nio.AsyncEntityProducer;
+import org.apache.hc.core5.http.protocol.HttpContext;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Proxy credentials and authentication state shared by every client of a {@link ProxyConfigurationService}.
+ * <p>
+ * A single credentials provider and auth cache serve all connections and clients, so once a proxy has
+ * challenged, later requests answer it up front instead of paying a {@code 407} round trip each. With
+ * {@code proxy.auth.preemptive} the cache is seeded with Basic credentials for every proxy endpoint, so not even
+ * the first request is challenged. Credentials can be replaced at runtime without rebuilding the clients, and
+ * the clients read credentials through this provider, so a reload swaps them for every client at once.
+ */
+class ProxyAuthentication implements CredentialsProvider, ExecChainHandler, AsyncExecChainHandler {
+
+    static final String NAME = "proxy-auth";
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(ProxyAuthentication.class);
+
+    private volatile State state;
+
+    ProxyAuthentication(Map<String, ProxyDefinition> proxies, boolean preemptive) {
+        this.state = new State(proxies, preemptive);
+    }
+
+    /**
+     * Replaces all proxies and their credentials at once, e.g. after the configuration was reloaded. Requests
+     * already past authentication keep the state they started with.
+     *
+     * @param proxies    the new proxies by name
+     * @param preemptive whether Basic credentials are sent before the proxy challenges
+     */
+    void reload(Map<String, ProxyDefinition> proxies, boolean preemptive) {
+        this.state = new State(proxies, preemptive);
+    }
+
+    CredentialsProvider getCredentialsProvider() {
+        return this;
+    }
+
+    @Override
+    public Credentials getCredentials(AuthScope authScope, HttpContext context) {
+        return state.credentialsProvider.getCredentials(authScope, context);
+    }
+
+    /**
+     * Returns the current credentials of a proxy.
+     *
+     * @param proxyName the proxy name
+     * @return the credentials, or {@code null} if the proxy has none
+     */
+    UsernamePasswordCredentials getCredentials(String proxyName) {
+        return state.credentials.get(proxyName);
+    }
+
+    /**
+     * Replaces the credentials of a proxy. Requests started afterwards use the new credentials.
+     *
+     * @param proxyName the proxy name
+     * @param username  the new proxy user
+     * @param password  the new proxy password
+     */
+    void update(String proxyName, String username, String password) {
+        State current = state;
+        ProxyDefinition proxy = current.proxies.get(proxyName);
+        if (proxy == null) {
+            throw new IllegalArgumentException("Unknown proxy: " + proxyName);
+        }
+        LOGGER.info("Updating credentials of proxy {} for user: {}", proxyName, username);
+        current.apply(proxy, new UsernamePasswordCredentials(username, password.toCharArray()));
+    }
+
+    @Override
+    public ClassicHttpResponse execute(ClassicHttpRequest request, ExecChain.Scope scope, ExecChain chain)
+            throws IOException, HttpException {
+        shareAuthCache(scope.clientContext);
+        return chain.proceed(request, scope);
+    }
+
+    @Override
+    public void execute(HttpRequest request, AsyncEntityProducer entityProducer, AsyncExecChain.Scope scope,
+                        AsyncExecChain chain, AsyncExecCallback asyncExecCallback) throws HttpException, IOException {
+        shareAuthCache(scope.clientContext);
+        chain.proceed(request, entityProducer, scope, asyncExecCallback);
+    }
+
+    private void shareAuthCache(HttpClientContext context) {
+        if (context.getAuthCache() == null) {
+            context.setAuthCache(state.authCache);
+        }
+    }
+
+    /**
+     * Credentials and cached auth schemes for one set of proxies.
+     */
+    private static final class State {
+
+        private final Map<String, ProxyDefinition> proxies;
+
+        private final boolean preemptive;
+
+        private final BasicCredentialsProvider credentialsProvider = new BasicCredentialsProvider();
+
+        private final AuthCache authCache = new BasicAuthCache();
+
+        private final Map<String, UsernamePasswordCredentials> credentials = new ConcurrentHashMap<>();
+
+        private State(Map<String, ProxyDefinition> proxies, boolean preemptive) {
+            this.proxies = proxies;
+            this.preemptive = preemptive;
+            for (ProxyDefinition proxy : proxies.values()) {
+                if (proxy.hasCredentials()) {
+                    apply(proxy, new UsernamePasswordCredentials(proxy.username(), proxy.password().toCharArray()));
+                }
+            }
+        }
+
+        private void apply(ProxyDefinition proxy, UsernamePasswordCredentials newCredentials) {
+            credentials.put(proxy.name(), newCredentials);
+            for (HttpHost endpoint : proxy.endpoints()) {
+                credentialsProvider.setCredentials(new AuthScope(endpoint), newCredentials);
+                if (preemptive) {
+                    BasicScheme scheme = new BasicScheme();
+                    scheme.initPreemptive(newCredentials);
+                    authCache.put(endpoint, scheme);
+                } else {
+                    // A cached scheme still holds the old credentials; the next challenge picks up the new ones
+                    authCache.remove(endpoint);
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,38 @@
+package com.example.proxystarter;
+
+import org.apache.hc.client5.http.auth.UsernamePasswordCredentials;
+
+import java.net.Authenticator;
+import java.net.PasswordAuthentication;
+import java.util.function.Supplier;
+
+/**
+ * {@link Authenticator} answering proxy challenges of JDK clients with the credentials of the configured proxy
+ * at the challenging address. Challenges from origin servers are left unanswered, and the proxy is looked up
+ * by address rather than by scanning every proxy. Credentials follow {@code updateCredentials} and reloads.
+ * It only applies to clients it is passed to, unless {@code proxy.system-wide} installs it as the JVM default.
+ */
+public class ProxyAuthenticator extends Authenticator {
+
+    private final Supplier<ProxyRouting> routing;
+
+    private final ProxyAuthentication authentication;
+
+    ProxyAuthenticator(Supplier<ProxyRouting> routing, ProxyAuthentication authentication) {
+        this.routing = routing;
+        this.authentication = authentication;
+    }
+
+    @Override
+    protected PasswordAuthentication getPasswordAuthentication() {
+        if (getRequestorType() != RequestorType.PROXY) {
+            return null;
+        }
+        ProxyDefinition proxy = routing.get().findByAddress(getRequestingHost(), getRequestingPort());
+        UsernamePasswordCredentials credentials = proxy != null ? authentication.getCredentials(proxy.name()) : null;
+        if (credentials == null) {
+            return null;
+        }
+        return new PasswordAuthentication(credentials.getUserName(), credentials.getUserPassword());
+    }
+}
@@ -1,19 +1,40 @@
 package com.example.proxystarter;
 
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.observation.ObservationRegistry;
+import org.apache.hc.client5.http.impl.classic.CloseableHttpClient;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.boot.ApplicationRunner;
+import org.springframework.boot.autoconfigure.AutoConfiguration;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnBean;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnClass;
 import org.springframework.boot.autoconfigure.condition.ConditionalOnMissingBean;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
 import org.springframework.boot.context.properties.EnableConfigurationProperties;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
+import org.springframework.context.annotation.ImportRuntimeHints;
+import org.springframework.context.annotation.Lazy;
+import org.springframework.core.env.ConfigurableEnvironment;
+import org.springframework.http.client.HttpComponentsClientHttpRequestFactory;
 import org.springframework.web.client.RestClient;
 import org.springframework.web.client.RestTemplate;
 
+import java.io.IOException;
+import java.net.http.HttpClient;
+
 /**
- * Auto-configuration for proxy settings.
+ * Auto-configuration for proxy settings. Creating the beans is cheap: the HTTP clients and their connection
+ * pools are built when the first request is sent.
  */
-@Configuration
+@AutoConfiguration(afterName = {
+        "org.springframework.boot.actuate.autoconfigure.metrics.CompositeMeterRegistryAutoConfiguration",
+        "org.springframework.boot.actuate.autoconfigure.observation.ObservationAutoConfiguration"
+})
 @EnableConfigurationProperties(ProxyProperties.class)
+@ImportRuntimeHints(ProxyRuntimeHints.class)
 public class ProxyAutoConfiguration {
 
     private static final Logger LOGGER = LoggerFactory.getLogger(ProxyAutoConfiguration.class);
@@ -26,27 +47,161 @@ public class ProxyAutoConfiguration {
 
     @Bean
     @ConditionalOnMissingBean
-    public ProxyConfigurationService proxyConfigurationService() {
+    public ProxyConfigurationService proxyConfigurationService(ObjectProvider<ProxyBalancingStrategy> balancingStrategy,
+                                                               ObjectProvider<ProxyClientInstrumentation> instrumentation,
+                                                               ObjectProvider<ProxyDiagnostics> diagnostics) {
         LOGGER.info("Initializing ProxyConfigurationService");
-        ProxyConfigurationService service = new ProxyConfigurationService(proxyProperties);
+        ProxyConfigurationService service = new ProxyConfigurationService(proxyProperties,
+                balancingStrategy.getIfAvailable(), instrumentation.getIfAvailable(), diagnostics.getIfAvailable());
         service.configureProxy();
         return service;
     }
 
+    @Bean
+    @ConditionalOnMissingBean
+    @ConditionalOnProperty(prefix = "proxy.reload", name = "enabled", havingValue = "true", matchIfMissing = true)
+    public ProxyConfigurationReloader proxyConfigurationReloader(ProxyConfigurationService proxyConfigurationService,
+                                                                 ConfigurableEnvironment environment) throws IOException {
+        ProxyConfigurationReloader reloader = new ProxyConfigurationReloader(proxyConfigurationService, environment,
+                proxyProperties.reload().watchFile());
+        reloader.start();
+        return reloader;
+    }
+
+    /**
+     * The shared HTTP client, whose connection pools are built on first use. Its lifecycle is owned by
+     * {@link ProxyConfigurationService}, which closes it on context shutdown.
+     */
+    @Bean(destroyMethod = "")
+    @ConditionalOnMissingBean(CloseableHttpClient.class)
+    public CloseableHttpClient proxyHttpClient(ProxyConfigurationService proxyConfigurationService) {
+        LOGGER.info("Creating shared proxy HttpClient bean");
+        return proxyConfigurationService.getCloseableHttpClient();
+    }
+
+    @Bean
+    @ConditionalOnMissingBean(HttpComponentsClientHttpRequestFactory.class)
+    public HttpComponentsClientHttpRequestFactory proxyClientHttpRequestFactory(CloseableHttpClient proxyHttpClient) {
+        return new HttpComponentsClientHttpRequestFactory(proxyHttpClient);
+    }
+
+    /**
+     * JDK HTTP client routed through the proxies, for code using {@code java.net.http} instead of
+     * {@code HttpURLConnection}. Closed on context shutdown.
+     */
+    @Bean
+    @Lazy
+    @ConditionalOnMissingBean(HttpClient.class)
+    public HttpClient proxyJdkHttpClient(ProxyConfigurationService proxyConfigurationService) {
+        return proxyConfigurationService.createJdkHttpClient();
+    }
+
+    @Bean
+    @ConditionalOnMissingBean
+    @ConditionalOnProperty(prefix = "proxy.warmup", name = "enabled", havingValue = "true")
+    public ProxyWarmup proxyWarmup(CloseableHttpClient proxyHttpClient) {
+        ProxyWarmup warmup = new ProxyWarmup(proxyHttpClient, proxyProperties.warmup());
+        warmup.start();
+        return warmup;
+    }
+
+    /**
+     * Waits for the warm-up once the context has started. Runners complete before the readiness state turns to
+     * {@code ACCEPTING_TRAFFIC}, so the application reports ready only after warm-up, while liveness is unaffected.
+     */
+    @Bean
+    @ConditionalOnProperty(prefix = "proxy.warmup", name = "enabled", havingValue = "true")
+    public ApplicationRunner proxyWarmupReadiness(ProxyWarmup proxyWarmup) {
+        return args -> proxyWarmup.awaitCompletion();
+    }
+
+    @Bean
+    @ConditionalOnMissingBean
+    @ConditionalOnProperty(prefix = "proxy.diagnostics", name = "enabled", havingValue = "true")
+    public ProxyDiagnostics proxyDiagnostics(ObjectProvider<ObservationRegistry> observationRegistry) {
+        LOGGER.info("Enabling proxied HTTP client diagnostics with sample rate {}",
+                proxyProperties.diagnostics().sampleRate());
+        return new ProxyDiagnostics(proxyProperties.diagnostics(), observationRegistry.getIfAvailable());
+    }
+
+    @Bean
+    @ConditionalOnMissingBean
+    @ConditionalOnProperty(prefix = "proxy.virtual-threads", name = "enabled", havingValue = "true")
+    public ProxyFanOutExecutor proxyFanOutExecutor() {
+        LOGGER.info("Creating virtual-thread ProxyFanOutExecutor bean");
+        return new ProxyFanOutExecutor(proxyProperties.virtualThreads().maxConcurrency());
+    }
+
     @Bean
     @ConditionalOnMissingBean(RestTemplate.class)
     //@ConditionalOnProperty(prefix = "proxy", name = "enabled", havingValue = "true")
-    public RestTemplate restTemplate(ProxyConfigurationService proxyConfigurationService) {
+    public RestTemplate restTemplate(ProxyConfigurationService proxyConfigurationService,
+                                     HttpComponentsClientHttpRequestFactory proxyClientHttpRequestFactory,
+                                     ObjectProvider<ObservationRegistry> observationRegistry) {
         LOGGER.info("Creating proxy-enabled RestTemplate bean");
-        return proxyConfigurationService.createProxyEnabledRestTemplate();
+        RestTemplate restTemplate = proxyConfigurationService.createProxyEnabledRestTemplate(proxyClientHttpRequestFactory);
+        observationRegistry.ifAvailable(restTemplate::setObservationRegistry);
+        return restTemplate;
     }
 
     @Bean
     @ConditionalOnMissingBean(RestClient.class)
     //@ConditionalOnProperty(prefix = "proxy", name = "enabled", havingValue = "true")
-    public RestClient restClient(ProxyConfigurationService proxyConfigurationService) {
+    public RestClient restClient(ProxyConfigurationService proxyConfigurationService,
+                                 HttpComponentsClientHttpRequestFactory proxyClientHttpRequestFactory,
+                                 ObjectProvider<ObservationRegistry> observationRegistry) {
         LOGGER.info("Creating proxy-enabled RestClient bean");
-        return proxyConfigurationService.createProxyEnabledRestClient();
+        RestClient restClient = proxyConfigurationService.createProxyEnabledRestClient(proxyClientHttpRequestFactory);
+        ObservationRegistry registry = observationRegistry.getIfAvailable();
+        return registry != null ? restClient.mutate().observationRegistry(registry).build() : restClient;
+    }
+
+    /**
+     * Micrometer binding for the blocking clients, only when Micrometer and a registry are present.
+     */
+    @Configuration(proxyBeanMethods = false)
+    @ConditionalOnClass(MeterRegistry.class)
+    @ConditionalOnBean(MeterRegistry.class)
+    @ConditionalOnProperty(prefix = "proxy.metrics", name = "enabled", havingValue = "true", matchIfMissing = true)
+    static class ProxyMetricsConfiguration {
+
+        @Bean
+        @ConditionalOnMissingBean(ProxyClientInstrumentation.class)
+        public ProxyClientMetrics proxyClientMetrics(MeterRegistry meterRegistry, ProxyProperties proxyProperties) {
+            LOGGER.info("Binding proxied HTTP client metrics to MeterRegistry");
+            return new ProxyClientMetrics(meterRegistry, proxyProperties.metrics().perRouteGauges());
+        }
+    }
+
+    /**
+     * Diagnostics endpoint, only when Spring Boot Actuator is present.
+     */
+    @Configuration(proxyBeanMethods = false)
+    @ConditionalOnClass(name = "org.springframework.boot.actuate.endpoint.annotation.Endpoint")
+    @ConditionalOnProperty(prefix = "proxy.diagnostics", name = "enabled", havingValue = "true")
+    static class ProxyDiagnosticsEndpointConfiguration {
+
+        @Bean
+        @ConditionalOnMissingBean
+        public ProxyDiagnosticsEndpoint proxyDiagnosticsEndpoint(ProxyConfigurationService proxyConfigurationService,
+                                                                 ProxyDiagnostics proxyDiagnostics) {
+            return new ProxyDiagnosticsEndpoint(proxyConfigurationService, proxyDiagnostics);
+        }
+    }
+
+    /**
+     * Health indicator for the warm-up, only when Spring Boot Actuator is present.
+     */
+    @Configuration(proxyBeanMethods = false)
+    @ConditionalOnClass(name = "org.springframework.boot.actuate.health.HealthIndicator")
+    @ConditionalOnProperty(prefix = "proxy.warmup", name = "enabled", havingValue = "true")
+    static class ProxyWarmupHealthConfiguration {
+
+        @Bean
+        @ConditionalOnMissingBean(name = "proxyWarmupHealthIndicator")
+        public ProxyWarmupHealthIndicator proxyWarmupHealthIndicator(ProxyWarmup proxyWarmup) {
+            return new ProxyWarmupHealthIndicator(proxyWarmup);
+        }
     }
 
 }
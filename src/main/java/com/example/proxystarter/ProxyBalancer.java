@@ -0,0 +1,130 @@
+package com.example.proxystarter;
+
+import org.apache.hc.client5.http.ConnectTimeoutException;
+import org.apache.hc.core5.http.HttpHost;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.net.ConnectException;
+import java.net.NoRouteToHostException;
+import java.net.UnknownHostException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Spreads the requests for one proxy over its endpoints and keeps failing endpoints out of rotation.
+ * <p>
+ * Each endpoint has a circuit breaker: after {@code failureThreshold} consecutive failures (failed connects to
+ * the proxy, or failed probes by {@link ProxyHealthChecker}) it is opened for {@code openDuration}. Once that
+ * elapses it is half-open and one trial request or probe decides whether it closes again. If every endpoint is
+ * open, the one due back soonest is used rather than failing outright.
+ */
+public class ProxyBalancer {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(ProxyBalancer.class);
+
+    private final String name;
+
+    private final List<ProxyEndpoint> endpoints;
+
+    private final ProxyBalancingStrategy strategy;
+
+    private final int failureThreshold;
+
+    private final long openDurationNanos;
+
+    public ProxyBalancer(String name, List<HttpHost> hosts, ProxyBalancingStrategy strategy,
+                         ProxyProperties.Balancing balancing) {
+        this.name = name;
+        List<ProxyEndpoint> list = new ArrayList<>(hosts.size());
+        for (HttpHost host : hosts) {
+            list.add(new ProxyEndpoint(host));
+        }
+        this.endpoints = List.copyOf(list);
+        this.strategy = strategy;
+        this.failureThreshold = balancing.failureThreshold();
+        this.openDurationNanos = balancing.openDuration().toNanos();
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public List<ProxyEndpoint> getEndpoints() {
+        return endpoints;
+    }
+
+    /**
+     * Selects the endpoint for the next request.
+     *
+     * @return the selected endpoint
+     */
+    public ProxyEndpoint select() {
+        List<ProxyEndpoint> candidates = new ArrayList<>(endpoints.size());
+        for (ProxyEndpoint endpoint : endpoints) {
+            if (endpoint.isClosed()) {
+                candidates.add(endpoint);
+            }
+        }
+        if (!candidates.isEmpty()) {
+            return candidates.size() == 1 ? candidates.get(0) : strategy.select(candidates);
+        }
+        long now = System.nanoTime();
+        ProxyEndpoint soonest = endpoints.get(0);
+        for (ProxyEndpoint endpoint : endpoints) {
+            if (endpoint.tryStartTrial(now)) {
+                return endpoint;
+            }
+            if (endpoint.getOpenUntilNanos() - soonest.getOpenUntilNanos() < 0) {
+                soonest = endpoint;
+            }
+        }
+        return soonest;
+    }
+
+    /**
+     * Finds the endpoint with the given address.
+     *
+     * @param host the proxy address of a route
+     * @return the endpoint, or {@code null} if it does not belong to this proxy
+     */
+    public ProxyEndpoint find(HttpHost host) {
+        for (ProxyEndpoint endpoint : endpoints) {
+            if (endpoint.getHost().equals(host)) {
+                return endpoint;
+            }
+        }
+        return null;
+    }
+
+    void recordSuccess(ProxyEndpoint endpoint, long latencyNanos) {
+        endpoint.recordLatency(latencyNanos);
+        recordHealthy(endpoint);
+    }
+
+    void recordHealthy(ProxyEndpoint endpoint) {
+        if (!endpoint.isClosed()) {
+            LOGGER.info("Proxy endpoint {} of {} is healthy again", endpoint, name);
+        }
+        endpoint.close();
+    }
+
+    void recordFailure(ProxyEndpoint endpoint) {
+        if (endpoint.recordFailure(failureThreshold, openDurationNanos)) {
+            LOGGER.warn("Proxy endpoint {} of {} taken out of rotation", endpoint, name);
+        }
+    }
+
+    /**
+     * Returns whether the exception means the proxy itself could not be reached, as opposed to a failure of
+     * the origin behind it.
+     *
+     * @param ex the exception thrown by a request through the proxy
+     * @return {@code true} for failures to connect to the proxy
+     */
+    static boolean isProxyConnectFailure(IOException ex) {
+        return ex instanceof ConnectException || ex instanceof ConnectTimeoutException
+                || ex instanceof NoRouteToHostException || ex instanceof UnknownHostException;
+    }
+}
@@ -0,0 +1,76 @@
+package com.example.proxystarter;
+
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Chooses one of the healthy endpoints of a proxy for the next request.
+ */
+@FunctionalInterface
+public interface ProxyBalancingStrategy {
+
+    /**
+     * Selects an endpoint.
+     *
+     * @param candidates the endpoints currently in rotation; never empty
+     * @return the selected endpoint
+     */
+    ProxyEndpoint select(List<ProxyEndpoint> candidates);
+
+    /**
+     * Returns a new instance of the given built-in strategy.
+     *
+     * @param strategy the configured strategy
+     * @return the strategy
+     */
+    static ProxyBalancingStrategy of(ProxyProperties.Balancing.Strategy strategy) {
+        return switch (strategy) {
+            case ROUND_ROBIN -> roundRobin();
+            case LEAST_IN_FLIGHT -> leastInFlight();
+            case LATENCY_EWMA -> latencyEwma();
+        };
+    }
+
+    /**
+     * Cycles through the candidates.
+     */
+    static ProxyBalancingStrategy roundRobin() {
+        AtomicInteger next = new AtomicInteger();
+        return candidates -> candidates.get(Math.floorMod(next.getAndIncrement(), candidates.size()));
+    }
+
+    /**
+     * Picks the candidate with the fewest requests in flight.
+     */
+    static ProxyBalancingStrategy leastInFlight() {
+        return candidates -> {
+            ProxyEndpoint best = candidates.get(0);
+            for (int i = 1; i < candidates.size(); i++) {
+                ProxyEndpoint candidate = candidates.get(i);
+                if (candidate.getInFlight() < best.getInFlight()) {
+                    best = candidate;
+                }
+            }
+            return best;
+        };
+    }
+
+    /**
+     * Picks the candidate with the lowest expected wait: latency EWMA weighted by requests in flight.
+     * Endpoints without samples yet are preferred so that every endpoint gets measured.
+     */
+    static ProxyBalancingStrategy latencyEwma() {
+        return candidates -> {
+            ProxyEndpoint best = null;
+            double bestCost = Double.MAX_VALUE;
+            for (ProxyEndpoint candidate : candidates) {
+                double cost = candidate.getLatencyEwmaMillis() * (candidate.getInFlight() + 1);
+                if (cost < bestCost) {
+                    best = candidate;
+                    bestCost = cost;
+                }
+            }
+            return best;
+        };
+    }
+}
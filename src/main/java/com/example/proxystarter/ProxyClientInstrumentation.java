@@ -0,0 +1,65 @@
+package com.example.proxystarter;
+
+import org.apache.hc.client5.http.classic.ExecChainHandler;
+import org.apache.hc.client5.http.impl.io.PoolingHttpClientConnectionManager;
+import org.apache.hc.client5.http.io.HttpClientConnectionManager;
+import org.apache.hc.core5.http.impl.io.HttpRequestExecutor;
+
+/**
+ * Hooks for instrumenting the per-proxy HTTP clients built by {@link ProxyConfigurationService}.
+ * <p>
+ * The factory methods are called once per client while it is built, with the name of the proxy the client routes
+ * through ({@link ProxyRouting#DIRECT} for the direct client); {@link #recordCacheResult} and
+ * {@link #recordLimitRejection} are called per request. When no instrumentation is configured the
+ * clients are built without any of these hooks, so uninstrumented requests pay nothing for them.
+ */
+public interface ProxyClientInstrumentation {
+
+    /**
+     * Wraps the connection pool of a client, e.g. to time leases and connects.
+     *
+     * @param proxy             the proxy name
+     * @param connectionManager the pool
+     * @return the connection manager the client uses; must delegate to {@code connectionManager}
+     */
+    HttpClientConnectionManager instrumentConnectionManager(String proxy, PoolingHttpClientConnectionManager connectionManager);
+
+    /**
+     * Creates the executor that writes requests to, and reads responses from, the connection, including the
+     * {@code CONNECT} requests that set up tunnels.
+     *
+     * @param proxy the proxy name
+     * @return the request executor
+     */
+    HttpRequestExecutor createRequestExecutor(String proxy);
+
+    /**
+     * Creates the outermost exec chain handler of a client, seeing each request once with its final outcome.
+     *
+     * @param proxy the proxy name
+     * @return the handler
+     */
+    ExecChainHandler createExecHandler(String proxy);
+
+    /**
+     * Called after each GET or HEAD that went through the response cache, with the outcome of the lookup:
+     * {@code HIT}, {@code MISS}, {@code VALIDATED} when a stale entry was revalidated with the origin, or
+     * {@code CACHE_MODULE_RESPONSE} when the cache answered without the origin, e.g. {@code 504} for
+     * {@code only-if-cached}.
+     *
+     * @param proxy  the proxy name
+     * @param result the outcome of the lookup
+     */
+    default void recordCacheResult(String proxy, String result) {
+    }
+
+    /**
+     * Called for each request of the {@code RestTemplate} or {@code RestClient} shed by {@code proxy.limits}.
+     *
+     * @param proxy the name of the proxy the request would have used
+     * @param scope the exhausted limit's scope, {@code destination} or {@code proxy}
+     * @param limit the exhausted limit, {@code concurrency} or {@code rate}
+     */
+    default void recordLimitRejection(String proxy, String scope, String limit) {
+    }
+}
@@ -0,0 +1,156 @@
+package com.example.proxystarter;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Tags;
+import io.micrometer.core.instrument.Timer;
+import org.apache.hc.client5.http.classic.ExecChain;
+import org.apache.hc.client5.http.classic.ExecChainHandler;
+import org.apache.hc.client5.http.impl.io.PoolingHttpClientConnectionManager;
+import org.apache.hc.client5.http.io.HttpClientConnectionManager;
+import org.apache.hc.core5.http.ClassicHttpRequest;
+import org.apache.hc.core5.http.ClassicHttpResponse;
+import org.apache.hc.core5.http.HttpException;
+import org.apache.hc.core5.http.impl.io.HttpRequestExecutor;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Micrometer binding for the proxied blocking clients.
+ * <p>
+ * Records, tagged with the {@code proxy} name:
+ * <ul>
+ *     <li>{@code proxy.client.pool.leased}, {@code .available}, {@code .pending} and {@code .max} gauges for the
+ *     proxy's whole pool, and optionally per destination {@code target}</li>
+ *     <li>{@code proxy.client.pool.lease} timer for the wait on a pooled connection</li>
+ *     <li>{@code proxy.client.connect} timer for opening connections to the proxy, or to the destination for
+ *     direct routes</li>
+ *     <li>{@code proxy.client.tunnel} timer for {@code CONNECT} exchanges</li>
+ *     <li>{@code proxy.client.auth.challenge} timer for exchanges answered with {@code 407}</li>
+ *     <li>{@code proxy.client.requests} timer for whole requests, also tagged with the {@code route}
+ *     decision ({@code proxy} or {@code direct}), {@code status} and {@code outcome}</li>
+ *     <li>{@code proxy.client.cache} counter of response cache lookups, also tagged with the {@code result}</li>
+ *     <li>{@code proxy.client.limit.rejected} counter of requests shed by {@code proxy.limits}, also tagged with
+ *     the {@code scope} and {@code limit} that was exhausted</li>
+ * </ul>
+ * Meters are registered once per tag combination and then reused, so recording stays off the registry's
+ * lookup path.
+ */
+public class ProxyClientMetrics implements ProxyClientInstrumentation {
+
+    static final String REQUESTS = "proxy.client.requests";
+
+    static final String LEASE = "proxy.client.pool.lease";
+
+    static final String CONNECT = "proxy.client.connect";
+
+    static final String TUNNEL = "proxy.client.tunnel";
+
+    static final String AUTH_CHALLENGE = "proxy.client.auth.challenge";
+
+    static final String CACHE = "proxy.client.cache";
+
+    static final String LIMIT_REJECTED = "proxy.client.limit.rejected";
+
+    private final MeterRegistry registry;
+
+    private final boolean perRouteGauges;
+
+    // The pool of each proxy the gauges read, replaced when a reload rebuilds the pools
+    private final Map<String, AtomicReference<PoolingHttpClientConnectionManager>> currentPools =
+            new ConcurrentHashMap<>();
+
+    private final Map<List<String>, Counter> cacheCounters = new ConcurrentHashMap<>();
+
+    private final Map<List<String>, Counter> limitCounters = new ConcurrentHashMap<>();
+
+    public ProxyClientMetrics(MeterRegistry registry) {
+        this(registry, false);
+    }
+
+    /**
+     * Creates the binding.
+     *
+     * @param registry       the registry to record to
+     * @param perRouteGauges whether pool gauges are also registered per destination, one set per host the
+     *                       application talks to
+     */
+    public ProxyClientMetrics(MeterRegistry registry, boolean perRouteGauges) {
+        this.registry = registry;
+        this.perRouteGauges = perRouteGauges;
+    }
+
+    @Override
+    public HttpClientConnectionManager instrumentConnectionManager(String proxy,
+                                                                   PoolingHttpClientConnectionManager connectionManager) {
+        return new MeteredConnectionManager(connectionManager,
+                currentPools.computeIfAbsent(proxy, name -> new AtomicReference<>()), registry, Tags.of("proxy", proxy),
+                perRouteGauges);
+    }
+
+    @Override
+    public HttpRequestExecutor createRequestExecutor(String proxy) {
+        return new MeteredRequestExecutor(registry, Tags.of("proxy", proxy));
+    }
+
+    @Override
+    public ExecChainHandler createExecHandler(String proxy) {
+        Tags tags = Tags.of("proxy", proxy, "route", ProxyRouting.DIRECT.equals(proxy) ? "direct" : "proxy");
+        Map<String, Timer> timers = new ConcurrentHashMap<>();
+        return new ExecChainHandler() {
+            @Override
+            public ClassicHttpResponse execute(ClassicHttpRequest request, ExecChain.Scope scope, ExecChain chain)
+                    throws IOException, HttpException {
+                long start = System.nanoTime();
+                String status = "IO_ERROR";
+                try {
+                    ClassicHttpResponse response = chain.proceed(request, scope);
+                    status = String.valueOf(response.getCode());
+                    return response;
+                } finally {
+                    timers.computeIfAbsent(status, key -> Timer.builder(REQUESTS)
+                                    .tags(tags)
+                                    .tag("status", key)
+                                    .tag("outcome", outcome(key))
+                                    .register(registry))
+                            .record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+                }
+            }
+        };
+    }
+
+    @Override
+    public void recordCacheResult(String proxy, String result) {
+        cacheCounters.computeIfAbsent(List.of(proxy, result), key -> Counter.builder(CACHE)
+                        .tag("proxy", proxy)
+                        .tag("result", result)
+                        .register(registry))
+                .increment();
+    }
+
+    @Override
+    public void recordLimitRejection(String proxy, String scope, String limit) {
+        limitCounters.computeIfAbsent(List.of(proxy, scope, limit), key -> Counter.builder(LIMIT_REJECTED)
+                        .tag("proxy", proxy)
+                        .tag("scope", scope)
+                        .tag("limit", limit)
+                        .register(registry))
+                .increment();
+    }
+
+    private static String outcome(String status) {
+        return switch (status.charAt(0)) {
+            case '1' -> "INFORMATIONAL";
+            case '2' -> "SUCCESS";
+            case '3' -> "REDIRECTION";
+            case '4' -> "CLIENT_ERROR";
+            case '5' -> "SERVER_ERROR";
+            default -> "UNKNOWN";
+        };
+    }
+}
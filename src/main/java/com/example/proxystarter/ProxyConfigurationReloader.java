@@ -0,0 +1,141 @@
+package com.example.proxystarter;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.boot.context.properties.bind.Binder;
+import org.springframework.boot.context.properties.bind.PropertySourcesPlaceholdersResolver;
+import org.springframework.boot.context.properties.source.ConfigurationPropertySource;
+import org.springframework.boot.context.properties.source.ConfigurationPropertySources;
+import org.springframework.boot.env.PropertiesPropertySourceLoader;
+import org.springframework.boot.env.PropertySourceLoader;
+import org.springframework.boot.env.YamlPropertySourceLoader;
+import org.springframework.context.ApplicationEvent;
+import org.springframework.context.event.SmartApplicationListener;
+import org.springframework.core.env.ConfigurableEnvironment;
+import org.springframework.core.env.PropertySource;
+import org.springframework.core.io.FileSystemResource;
+
+import java.io.IOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileSystems;
+import java.nio.file.Path;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Re-reads the proxy properties and hands them to {@link ProxyConfigurationService#reload} when they may have
+ * changed: on {@link ProxyRefreshEvent}, on Spring Cloud's {@code EnvironmentChangeEvent}, and whenever the
+ * file set in {@code proxy.reload.watch-file} is modified. Entries of the watched file override the
+ * environment. Unchanged properties are ignored, so repeated or unrelated events cost one binding.
+ */
+public class ProxyConfigurationReloader implements SmartApplicationListener, AutoCloseable {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(ProxyConfigurationReloader.class);
+
+    private static final String ENVIRONMENT_CHANGE_EVENT = "org.springframework.cloud.context.environment.EnvironmentChangeEvent";
+
+    // Editors and config map mounts replace files in several steps; let them settle before reading
+    private static final long SETTLE_MILLIS = 200;
+
+    private final ProxyConfigurationService proxyConfigurationService;
+
+    private final ConfigurableEnvironment environment;
+
+    private final Path watchFile;
+
+    private WatchService watchService;
+
+    public ProxyConfigurationReloader(ProxyConfigurationService proxyConfigurationService,
+                                      ConfigurableEnvironment environment, String watchFile) {
+        this.proxyConfigurationService = proxyConfigurationService;
+        this.environment = environment;
+        this.watchFile = watchFile != null && !watchFile.isEmpty() ? Path.of(watchFile).toAbsolutePath() : null;
+    }
+
+    /**
+     * Starts watching {@code proxy.reload.watch-file}, if set, and applies its current content.
+     */
+    public void start() throws IOException {
+        if (watchFile == null) {
+            return;
+        }
+        LOGGER.info("Watching {} for proxy configuration changes", watchFile);
+        watchService = FileSystems.getDefault().newWatchService();
+        watchFile.getParent().register(watchService, StandardWatchEventKinds.ENTRY_CREATE,
+                StandardWatchEventKinds.ENTRY_MODIFY);
+        reload();
+        Thread.ofPlatform().daemon().name("proxy-config-watcher").start(this::watch);
+    }
+
+    @Override
+    public boolean supportsEventType(Class<? extends ApplicationEvent> eventType) {
+        return ProxyRefreshEvent.class.isAssignableFrom(eventType)
+                || ENVIRONMENT_CHANGE_EVENT.equals(eventType.getName());
+    }
+
+    @Override
+    public void onApplicationEvent(ApplicationEvent event) {
+        reload();
+    }
+
+    /**
+     * Binds the proxy properties from the watched file and the environment and applies them if they changed.
+     *
+     * @return {@code true} if a changed configuration was applied
+     */
+    public boolean reload() {
+        try {
+            return proxyConfigurationService.reload(bind());
+        } catch (RuntimeException | IOException ex) {
+            // Keep serving with the current configuration rather than failing callers of the event
+            LOGGER.error("Failed to reload proxy configuration, keeping the current one", ex);
+            return false;
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (watchService != null) {
+            watchService.close();
+        }
+    }
+
+    private ProxyProperties bind() throws IOException {
+        List<ConfigurationPropertySource> sources = new ArrayList<>();
+        if (watchFile != null && watchFile.toFile().isFile()) {
+            for (PropertySource<?> source : load(watchFile)) {
+                sources.add(ConfigurationPropertySource.from(source));
+            }
+        }
+        ConfigurationPropertySources.get(environment).forEach(sources::add);
+        Binder binder = new Binder(sources, new PropertySourcesPlaceholdersResolver(environment));
+        return binder.bindOrCreate("proxy", ProxyProperties.class);
+    }
+
+    private static List<PropertySource<?>> load(Path file) throws IOException {
+        String name = file.getFileName().toString();
+        PropertySourceLoader loader = name.endsWith(".yml") || name.endsWith(".yaml")
+                ? new YamlPropertySourceLoader()
+                : new PropertiesPropertySourceLoader();
+        return loader.load("proxy-reload: " + file, new FileSystemResource(file));
+    }
+
+    private void watch() {
+        try {
+            while (true) {
+                WatchKey key = watchService.take();
+                Thread.sleep(SETTLE_MILLIS);
+                key.pollEvents();
+                key.reset();
+                reload();
+            }
+        } catch (ClosedWatchServiceException ex) {
+            LOGGER.debug("Stopped watching {}", watchFile);
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
@@ -1,152 +1,842 @@
 package com.example.proxystarter;
 
 
-import org.apache.hc.client5.http.auth.AuthScope;
-import org.apache.hc.client5.http.auth.UsernamePasswordCredentials;
-import org.apache.hc.client5.http.impl.auth.BasicCredentialsProvider;
+import org.apache.hc.client5.http.config.ConnectionConfig;
+import org.apache.hc.client5.http.config.RequestConfig;
+import org.apache.hc.client5.http.config.TlsConfig;
+import org.apache.hc.client5.http.impl.ChainElement;
+import org.apache.hc.client5.http.impl.async.CloseableHttpAsyncClient;
+import org.apache.hc.client5.http.impl.async.HttpAsyncClientBuilder;
+import org.apache.hc.client5.http.impl.async.HttpAsyncClients;
 import org.apache.hc.client5.http.impl.classic.CloseableHttpClient;
+import org.apache.hc.client5.http.impl.classic.HttpClientBuilder;
 import org.apache.hc.client5.http.impl.classic.HttpClients;
-import org.apache.hc.core5.http.HttpHost;
+import org.apache.hc.client5.http.impl.io.PoolingHttpClientConnectionManager;
+import org.apache.hc.client5.http.impl.io.PoolingHttpClientConnectionManagerBuilder;
+import org.apache.hc.client5.http.impl.nio.PoolingAsyncClientConnectionManager;
+import org.apache.hc.client5.http.impl.nio.PoolingAsyncClientConnectionManagerBuilder;
+import org.apache.hc.client5.http.io.HttpClientConnectionManager;
+import org.apache.hc.client5.http.ssl.DefaultClientTlsStrategy;
+import org.apache.hc.client5.http.ssl.TlsSocketStrategy;
+import org.apache.hc.core5.http.impl.io.HttpRequestExecutor;
+import org.apache.hc.core5.http2.HttpVersionPolicy;
+import org.apache.hc.core5.http2.config.H2Config;
+import org.apache.hc.core5.io.CloseMode;
+import org.apache.hc.core5.pool.PoolConcurrencyPolicy;
+import org.apache.hc.core5.util.TimeValue;
+import org.apache.hc.core5.util.Timeout;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.springframework.http.client.ClientHttpRequestFactory;
 import org.springframework.http.client.HttpComponentsClientHttpRequestFactory;
-import org.springframework.http.client.SimpleClientHttpRequestFactory;
+import org.springframework.http.client.InterceptingClientHttpRequestFactory;
+import org.springframework.util.ClassUtils;
+import org.springframework.util.function.SingletonSupplier;
 import org.springframework.web.client.RestClient;
 import org.springframework.web.client.RestTemplate;
 
+import javax.net.ssl.SSLContext;
+import javax.net.ssl.SSLSessionContext;
 import java.net.Authenticator;
-import java.net.InetSocketAddress;
-import java.net.PasswordAuthentication;
-import java.net.Proxy;
+import java.net.ProxySelector;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.security.GeneralSecurityException;
+import java.time.Duration;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
 
 /**
- * Service responsible for configuring system-wide proxy settings.
+ * Service creating the proxied HTTP clients of the starter from {@link ProxyProperties}: the blocking client
+ * behind the {@link RestTemplate} and {@link RestClient}, the async client, and a JDK {@link HttpClient}. JVM-wide
+ * proxy settings are only applied with {@code proxy.system-wide=true}.
+ * <p>
+ * The {@link CloseableHttpClient} is shared by every {@link RestTemplate} and {@link RestClient} this
+ * service creates; its clients and connection pools are only built when the first request is sent. It routes each request by
+ * {@link ProxyRouting} to a per-proxy client and connection pool, or to a direct client. When the
+ * proxy is disabled every request goes direct. The clients are owned by this service and closed
+ * when the service is closed.
  */
 
-public class ProxyConfigurationService {
+public class ProxyConfigurationService implements AutoCloseable {
 
     private static final Logger LOGGER = LoggerFactory.getLogger(ProxyConfigurationService.class);
 
-    private final ProxyProperties proxyProperties;
+    private static final List<String> PROXY_SYSTEM_PROPERTIES = List.of(
+            "http.proxyHost", "http.proxyPort", "https.proxyHost", "https.proxyPort",
+            "http.nonProxyHosts", "https.nonProxyHosts",
+            "http.proxyUser", "http.proxyPassword", "https.proxyUser", "https.proxyPassword"
+    );
+
+    private volatile ProxyProperties proxyProperties;
+
+    private volatile ProxyRouting routing;
+
+    private final ProxyRoutingSelector proxySelector;
+
+    private final ProxyAuthenticator authenticator;
+
+    private final ProxyBalancingStrategy balancingStrategy;
+
+    private final ProxyClientInstrumentation instrumentation;
+
+    private final ProxyDiagnostics diagnostics;
+
+    private final ProxyAuthentication authentication;
+
+    // Shared by every pool and kept across reloads, so cached TLS sessions outlive replaced connections
+    private final SingletonSupplier<SSLContext> sslContext = SingletonSupplier.of(this::createSslContext);
+
+    // Shared by all RestTemplate and RestClient instances, so that their requests count against the same limits
+    private final ProxyLimitInterceptor limitInterceptor;
+
+    // Runs resilience attempts, HTTP/2 request bodies and the JDK clients' tasks; shut down when the service is closed
+    private final ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor();
+
+    // Created with the first client that needs it and, like the TLS context, kept across reloads
+    private final AtomicReference<ProxyResponseCache> responseCache = new AtomicReference<>();
+
+    private volatile ProxyRoutingHttpClient httpClient;
+
+    private volatile CloseableHttpAsyncClient httpAsyncClient;
+
+    private ProxyHealthChecker healthChecker;
+
+    private ProxySelector replacedProxySelector;
+
+    private Authenticator replacedAuthenticator;
+
+    private boolean authenticatorInstalled;
+
+    // Whether configureProxy changed JVM-wide settings, which a reload must then undo
+    private boolean systemWideApplied;
+
+    // A lock rather than synchronized, so that first use from a virtual thread does not pin its carrier
+    private final Lock lock = new ReentrantLock();
 
     public ProxyConfigurationService(ProxyProperties proxyProperties) {
+        this(proxyProperties, null);
+    }
+
+    /**
+     * Creates the service.
+     *
+     * @param proxyProperties   the proxy properties
+     * @param balancingStrategy the strategy for proxies with several endpoints, or {@code null} to use
+     *                          {@code proxy.balancing.strategy}
+     */
+    public ProxyConfigurationService(ProxyProperties proxyProperties, ProxyBalancingStrategy balancingStrategy) {
+        this(proxyProperties, balancingStrategy, null);
+    }
+
+    /**
+     * Creates the service.
+     *
+     * @param proxyProperties   the proxy properties
+     * @param balancingStrategy the strategy for proxies with several endpoints, or {@code null} to use
+     *                          {@code proxy.balancing.strategy}
+     * @param instrumentation   the instrumentation applied to the blocking clients, or {@code null} for none
+     */
+    public ProxyConfigurationService(ProxyProperties proxyProperties, ProxyBalancingStrategy balancingStrategy,
+                                     ProxyClientInstrumentation instrumentation) {
+        this(proxyProperties, balancingStrategy, instrumentation, null);
+    }
+
+    /**
+     * Creates the service.
+     *
+     * @param proxyProperties   the proxy properties
+     * @param balancingStrategy the strategy for proxies with several endpoints, or {@code null} to use
+     *                          {@code proxy.balancing.strategy}
+     * @param instrumentation   the instrumentation applied to the blocking clients, or {@code null} for none
+     * @param diagnostics       the connection-level diagnostics hooked into the blocking clients, or {@code null}
+     *                          for none
+     */
+    public ProxyConfigurationService(ProxyProperties proxyProperties, ProxyBalancingStrategy balancingStrategy,
+                                     ProxyClientInstrumentation instrumentation, ProxyDiagnostics diagnostics) {
         this.proxyProperties = proxyProperties;
+        this.balancingStrategy = balancingStrategy;
+        this.instrumentation = instrumentation;
+        this.diagnostics = diagnostics;
+        this.routing = new ProxyRouting(proxyProperties, balancingStrategy);
+        this.proxySelector = new ProxyRoutingSelector(this::getRouting);
+        this.authentication = new ProxyAuthentication(routing.getProxies(), proxyProperties.auth().preemptive());
+        this.authenticator = new ProxyAuthenticator(this::getRouting, authentication);
+        this.limitInterceptor = new ProxyLimitInterceptor(this::getRouting, () -> this.proxyProperties.limits(),
+                instrumentation);
     }
 
     /**
-     * Initializes the proxy configuration based on properties.
+     * Initializes the proxy configuration based on properties. JVM-wide settings are only changed when
+     * {@code proxy.system-wide} is set; otherwise the proxies apply to the starter's clients and to JDK clients
+     * built with {@link #getProxySelector()} and {@link #getAuthenticator()}.
      */
     public void configureProxy() {
-        if (!proxyProperties.enabled() || proxyProperties.host() == null || proxyProperties.host().isEmpty()) {
+        ProxyProperties proxyProperties = this.proxyProperties;
+        ProxyRouting routing = this.routing;
+        if (routing.getProxies().isEmpty()) {
             LOGGER.info("Proxy configuration is disabled or incomplete. No proxy settings will be applied.");
             return;
         }
+        if (!proxyProperties.systemWide()) {
+            LOGGER.info("Proxy configured for the starter's clients only; JVM-wide proxy settings are left untouched");
+            return;
+        }
+        systemWideApplied = true;
 
-        LOGGER.info("Configuring proxy with host: {} and port: {}", proxyProperties.host(), proxyProperties.port());
+        if (hasRoutingRules()) {
+            // System properties can only describe one proxy, so JDK networking gets the routing selector instead
+            LOGGER.info("Configuring routing proxy selector for proxies: {}", routing.getProxies().values());
+            if (replacedProxySelector == null) {
+                replacedProxySelector = ProxySelector.getDefault();
+            }
+            ProxySelector.setDefault(proxySelector);
+        } else {
+            LOGGER.info("Configuring proxy with host: {} and port: {}", proxyProperties.host(), proxyProperties.port());
 
-        // Set system properties
-        System.setProperty("http.proxyHost", proxyProperties.host());
-        System.setProperty("http.proxyPort", String.valueOf(proxyProperties.port()));
-        System.setProperty("https.proxyHost", proxyProperties.host());
-        System.setProperty("https.proxyPort", String.valueOf(proxyProperties.port()));
+            // Set system properties
+            System.setProperty("http.proxyHost", proxyProperties.host());
+            System.setProperty("http.proxyPort", String.valueOf(proxyProperties.port()));
+            System.setProperty("https.proxyHost", proxyProperties.host());
+            System.setProperty("https.proxyPort", String.valueOf(proxyProperties.port()));
 
-        // Set non-proxy hosts if specified
-        if (proxyProperties.nonProxyHosts() != null && !proxyProperties.nonProxyHosts().isEmpty()) {
-            System.setProperty("http.nonProxyHosts", proxyProperties.nonProxyHosts());
-            System.setProperty("https.nonProxyHosts", proxyProperties.nonProxyHosts());
-        }
+            // Set non-proxy hosts if specified
+            if (proxyProperties.nonProxyHosts() != null && !proxyProperties.nonProxyHosts().isEmpty()) {
+                System.setProperty("http.nonProxyHosts", proxyProperties.nonProxyHosts());
+                System.setProperty("https.nonProxyHosts", proxyProperties.nonProxyHosts());
+            }
 
-        // Configure authentication if credentials are provided
-        if (proxyProperties.username() != null && !proxyProperties.username().isEmpty() &&
-                proxyProperties.password() != null && !proxyProperties.password().isEmpty()) {
+            // Configure authentication if credentials are provided
+            if (proxyProperties.username() != null && !proxyProperties.username().isEmpty() &&
+                    proxyProperties.password() != null && !proxyProperties.password().isEmpty()) {
 
-            LOGGER.info("Configuring proxy authentication for user: {}", proxyProperties.username());
+                LOGGER.info("Configuring proxy authentication for user: {}", proxyProperties.username());
 
-            System.setProperty("http.proxyUser", proxyProperties.username());
-            System.setProperty("http.proxyPassword", proxyProperties.password());
-            System.setProperty("https.proxyUser", proxyProperties.username());
-            System.setProperty("https.proxyPassword", proxyProperties.password());
+                System.setProperty("http.proxyUser", proxyProperties.username());
+                System.setProperty("http.proxyPassword", proxyProperties.password());
+                System.setProperty("https.proxyUser", proxyProperties.username());
+                System.setProperty("https.proxyPassword", proxyProperties.password());
+            }
+        }
 
+        if (routing.getProxies().values().stream().anyMatch(ProxyDefinition::hasCredentials)) {
             // Set authenticator for Java applications
-            Authenticator.setDefault(new Authenticator() {
-                @Override
-                protected PasswordAuthentication getPasswordAuthentication() {
-                    if (getRequestingHost().equalsIgnoreCase(proxyProperties.host()) &&
-                            getRequestingPort() == proxyProperties.port()) {
-                        return new PasswordAuthentication(
-                                proxyProperties.username(),
-                                proxyProperties.password().toCharArray()
-                        );
-                    }
-                    return null;
-                }
-            });
+            if (!authenticatorInstalled) {
+                replacedAuthenticator = Authenticator.getDefault();
+                authenticatorInstalled = true;
+            }
+            Authenticator.setDefault(authenticator);
         }
 
         LOGGER.info("Proxy configuration completed successfully");
     }
 
+    /**
+     * Applies new proxy properties without restarting the application context. Routing rules, credentials and
+     * JVM-wide proxy settings are replaced at once; the blocking client swaps to new per-proxy pools while the
+     * previous pools finish their in-flight requests and are closed after at most the new properties'
+     * {@code proxy.reload.drain-timeout}. Beans holding the shared clients keep working, since the clients
+     * themselves are not replaced.
+     *
+     * @param newProperties the new proxy properties
+     * @return {@code true} if the properties differed from the current ones and were applied
+     */
+    public boolean reload(ProxyProperties newProperties) {
+        lock.lock();
+        try {
+            if (newProperties.equals(this.proxyProperties)) {
+                return false;
+            }
+            LOGGER.info("Reloading proxy configuration");
+            ProxyRouting newRouting = new ProxyRouting(newProperties, balancingStrategy);
+            Duration drainTimeout = newProperties.reload().drainTimeout();
+            this.proxyProperties = newProperties;
+            this.routing = newRouting;
+            authentication.reload(newRouting.getProxies(), newProperties.auth().preemptive());
+
+            ProxyRoutingHttpClient client = this.httpClient;
+            if (client != null) {
+                client.reload(this::createClients, drainTimeout);
+            }
+            if (healthChecker != null) {
+                healthChecker.close();
+                healthChecker = null;
+            }
+            if (client != null || httpAsyncClient != null) {
+                startHealthChecker();
+            }
+
+            resetSystemWideProxy();
+            configureProxy();
+            return true;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Replaces the credentials of a proxy without rebuilding the clients. Requests started afterwards
+     * authenticate with the new credentials; pooled connections are kept.
+     *
+     * @param proxyName the proxy name, {@value ProxyRouting#DEFAULT_PROXY} for {@code proxy.host}
+     * @param username  the new proxy user
+     * @param password  the new proxy password
+     * @throws IllegalArgumentException if no proxy has the given name
+     */
+    public void updateCredentials(String proxyName, String username, String password) {
+        authentication.update(proxyName, username, password);
+    }
+
+    /**
+     * Returns the compiled routing rules shared by all clients of this service.
+     *
+     * @return the proxy routing
+     */
+    public ProxyRouting getRouting() {
+        return routing;
+    }
+
+    /**
+     * Returns a {@link java.net.ProxySelector} applying the same routing rules as the HTTP clients. It follows
+     * reloads, so JDK clients built with it need not be rebuilt.
+     *
+     * @return the routing proxy selector
+     */
+    public ProxyRoutingSelector getProxySelector() {
+        return proxySelector;
+    }
+
+    /**
+     * Returns an {@link Authenticator} answering proxy challenges with the configured proxy credentials. It
+     * follows reloads and credential updates.
+     *
+     * @return the proxy authenticator
+     */
+    public ProxyAuthenticator getAuthenticator() {
+        return authenticator;
+    }
+
+    /**
+     * Creates a JDK {@link HttpClient} using the proxy routing, credentials and TLS context of this service.
+     * The client pools its connections and negotiates HTTP/2, without changing JVM-wide proxy settings.
+     * <p>
+     * The JDK does not send Basic credentials when tunnelling HTTPS through a proxy unless
+     * {@code jdk.http.auth.tunneling.disabledSchemes} is cleared. With virtual threads enabled, the client runs its
+     * tasks on the executor of this service, so it must not outlive the service.
+     *
+     * @return a new {@link HttpClient}
+     */
+    public HttpClient createJdkHttpClient() {
+        LOGGER.info("Creating proxy-enabled JDK HttpClient");
+        HttpClient.Builder builder = HttpClient.newBuilder()
+                .version(HttpClient.Version.HTTP_2)
+                .followRedirects(HttpClient.Redirect.NORMAL)
+                .connectTimeout(proxyProperties.pool().connectTimeout())
+                .proxy(proxySelector)
+                .authenticator(authenticator)
+                .sslContext(getSslContext());
+        if (proxyProperties.virtualThreads().enabled()) {
+            builder.executor(executor);
+        }
+        return builder.build();
+    }
+
+    /**
+     * Returns the TLS context shared by all clients of this service, whose client session cache is sized by
+     * {@code proxy.tls}. Tunnels to a destination resume its cached session instead of a full handshake.
+     *
+     * @return the shared {@link SSLContext}
+     */
+    public SSLContext getSslContext() {
+        return sslContext.obtain();
+    }
+
     /**
      * Creates a RestTemplate configured with the proxy settings.
      *
      * @return a RestTemplate with proxy configuration applied
      */
     public RestTemplate createProxyEnabledRestTemplate() {
-        if (!proxyProperties.enabled() || proxyProperties.host() == null || proxyProperties.host().isEmpty()) {
+        return createProxyEnabledRestTemplate(createRequestFactory());
+    }
+
+    /**
+     * Creates a RestTemplate on top of the given request factory.
+     *
+     * @param requestFactory the request factory, usually backed by the shared HTTP client
+     * @return a RestTemplate with proxy configuration applied
+     */
+    public RestTemplate createProxyEnabledRestTemplate(ClientHttpRequestFactory requestFactory) {
+        if (routing.getProxies().isEmpty()) {
             LOGGER.info("Creating default RestTemplate without proxy");
-            return new RestTemplate();
+        } else {
+            LOGGER.info("Creating RestTemplate with proxy configuration");
         }
-
-        LOGGER.info("Creating RestTemplate with proxy configuration");
-        CloseableHttpClient httpClient = getCloseableHttpClient();
-        HttpComponentsClientHttpRequestFactory factory = new HttpComponentsClientHttpRequestFactory(httpClient);
-        return new RestTemplate(factory);
+        return new RestTemplate(applyInterceptors(requestFactory));
     }
 
 
     public RestClient createProxyEnabledRestClient() {
-        if (!proxyProperties.enabled() || proxyProperties.host() == null || proxyProperties.host().isEmpty()) {
+        return createProxyEnabledRestClient(createRequestFactory());
+    }
+
+    /**
+     * Creates a RestClient on top of the given request factory.
+     *
+     * @param requestFactory the request factory, usually backed by the shared HTTP client
+     * @return a RestClient with proxy configuration applied
+     */
+    public RestClient createProxyEnabledRestClient(ClientHttpRequestFactory requestFactory) {
+        if (routing.getProxies().isEmpty()) {
             LOGGER.info("Creating default RestClient without proxy");
-            return RestClient.builder()
-                    .defaultHeaders(headers -> headers.set("Accept", "application/json"))
-                    .requestFactory(new HttpComponentsClientHttpRequestFactory())
-                    .build();
+        } else {
+            LOGGER.info("Creating RestClient with proxy configuration");
         }
 
-        LOGGER.info("Creating RestClient with proxy configuration");
-
-        CloseableHttpClient httpClient = getCloseableHttpClient();
-        HttpComponentsClientHttpRequestFactory factory = new HttpComponentsClientHttpRequestFactory(httpClient);
-
         return RestClient.builder()
                 .defaultHeaders(headers -> headers.set("Accept", "application/json"))
-                .requestFactory(factory)
+                .requestFactory(applyInterceptors(requestFactory))
                 .build();
     }
 
+    /**
+     * Wraps the request factory in the limit and resilience interceptors that are enabled. They sit beneath the
+     * interceptors of the RestTemplate or RestClient, which therefore run once per request, while every retry and
+     * hedge of the resilience interceptor is a new request through the limits and needs a permit of its own.
+     */
+    private ClientHttpRequestFactory applyInterceptors(ClientHttpRequestFactory requestFactory) {
+        ClientHttpRequestFactory factory = requestFactory;
+        if (proxyProperties.limits().enabled()) {
+            factory = new InterceptingClientHttpRequestFactory(factory, List.of(limitInterceptor));
+        }
+        if (proxyProperties.resilience().enabled()) {
+            // Reads the settings per request, so that reloads apply to existing clients
+            factory = new InterceptingClientHttpRequestFactory(factory, List.of(new ProxyResilienceInterceptor(
+                    this::getRouting, () -> proxyProperties.resilience(), factory, executor)));
+        }
+        return factory;
+    }
 
+    /**
+     * Creates a request factory backed by the shared HTTP client.
+     *
+     * @return a new {@link HttpComponentsClientHttpRequestFactory} over {@link #getCloseableHttpClient()}
+     */
+    public HttpComponentsClientHttpRequestFactory createRequestFactory() {
+        return new HttpComponentsClientHttpRequestFactory(getCloseableHttpClient());
+    }
 
-    private CloseableHttpClient getCloseableHttpClient() {
-        HttpHost proxy = new HttpHost(proxyProperties.host(), proxyProperties.port());
-        CloseableHttpClient httpClient = HttpClients.custom()
-                .setProxy(proxy)
+    /**
+     * Returns the properties currently applied, which change on reload.
+     *
+     * @return the proxy properties
+     */
+    public ProxyProperties getProxyProperties() {
+        return proxyProperties;
+    }
+
+    /**
+     * Returns the connection pools of the shared blocking client by proxy name, {@link ProxyRouting#DIRECT} for
+     * direct traffic. Empty until the client has been built; does not build it.
+     *
+     * @return the connection pools
+     */
+    Map<String, PoolingHttpClientConnectionManager> getConnectionPools() {
+        ProxyRoutingHttpClient client = this.httpClient;
+        if (client == null || !client.isInitialized()) {
+            return Map.of();
+        }
+        Map<String, PoolingHttpClientConnectionManager> pools = new LinkedHashMap<>();
+        client.getProxyClients().forEach((name, routed) -> pools.put(name, routed.connectionManager()));
+        pools.put(ProxyRouting.DIRECT, client.getDirectClient().connectionManager());
+        return pools;
+    }
+
+    /**
+     * Returns the shared proxied HTTP client. Each configured proxy, and direct traffic, gets its own client
+     * and connection pool, which are built when the first request is sent.
+     *
+     * @return the shared {@link CloseableHttpClient}
+     */
+    public CloseableHttpClient getCloseableHttpClient() {
+        ProxyRoutingHttpClient client = this.httpClient;
+        if (client == null) {
+            lock.lock();
+            try {
+                client = this.httpClient;
+                if (client == null) {
+                    client = createCloseableHttpClient();
+                    startHealthChecker();
+                    this.httpClient = client;
+                }
+            } finally {
+                lock.unlock();
+            }
+        }
+        return client;
+    }
+
+    /**
+     * Returns the shared proxied async HTTP client, creating and starting it on first use. The client
+     * negotiates HTTP/2 via ALPN for HTTPS destinations, including through the proxy's CONNECT tunnel,
+     * according to {@code proxy.async.version-policy}.
+     *
+     * @return the shared, started {@link CloseableHttpAsyncClient}
+     */
+    public CloseableHttpAsyncClient getCloseableHttpAsyncClient() {
+        CloseableHttpAsyncClient client = this.httpAsyncClient;
+        if (client == null) {
+            lock.lock();
+            try {
+                client = this.httpAsyncClient;
+                if (client == null) {
+                    client = createCloseableHttpAsyncClient();
+                    client.start();
+                    startHealthChecker();
+                    this.httpAsyncClient = client;
+                }
+            } finally {
+                lock.unlock();
+            }
+        }
+        return client;
+    }
+
+    /**
+     * Closes the shared HTTP clients, their connection pools and the idle connection evictors, and shuts down
+     * the executor of retries, hedges and JDK client tasks.
+     */
+    @Override
+    public void close() {
+        ProxyRoutingHttpClient client;
+        CloseableHttpAsyncClient asyncClient;
+        ProxyHealthChecker checker;
+        lock.lock();
+        try {
+            client = this.httpClient;
+            asyncClient = this.httpAsyncClient;
+            checker = this.healthChecker;
+            this.httpClient = null;
+            this.httpAsyncClient = null;
+            this.healthChecker = null;
+        } finally {
+            lock.unlock();
+        }
+        if (checker != null) {
+            checker.close();
+        }
+        if (client != null) {
+            LOGGER.info("Closing proxied HTTP client");
+            client.close(CloseMode.GRACEFUL);
+        }
+        if (asyncClient != null) {
+            LOGGER.info("Closing proxied async HTTP client");
+            asyncClient.close(CloseMode.GRACEFUL);
+        }
+        ProxyResponseCache cache = responseCache.getAndSet(null);
+        if (cache != null) {
+            cache.close();
+        }
+        executor.shutdown();
+    }
+
+    private ProxyResponseCache getResponseCache() {
+        ProxyResponseCache cache = responseCache.get();
+        if (cache != null) {
+            return cache;
+        }
+        if (!ClassUtils.isPresent("org.apache.hc.client5.http.impl.cache.CachingHttpClientBuilder",
+                getClass().getClassLoader())) {
+            throw new IllegalStateException(
+                    "proxy.cache.enabled requires org.apache.httpcomponents.client5:httpclient5-cache on the classpath");
+        }
+        // Not under the service lock, which client initialization must not take
+        ProxyResponseCache created = new ProxyResponseCache(proxyProperties.cache(), proxyProperties.routeCacheSize(),
+                instrumentation);
+        if (responseCache.compareAndSet(null, created)) {
+            return created;
+        }
+        created.close();
+        return responseCache.get();
+    }
+
+    private ProxyRoutingHttpClient createCloseableHttpClient() {
+        return new ProxyRoutingHttpClient(this::createClients);
+    }
+
+    private ProxyRoutingHttpClient.Clients createClients() {
+        return new ProxyRoutingHttpClient.Clients(routing, createProxyClients(), createRoutedClient(null));
+    }
+
+    private Map<String, ProxyRoutingHttpClient.RoutedClient> createProxyClients() {
+        Map<String, ProxyRoutingHttpClient.RoutedClient> proxyClients = new LinkedHashMap<>();
+        for (ProxyDefinition proxy : routing.getProxies().values()) {
+            proxyClients.put(proxy.name(), createRoutedClient(proxy));
+        }
+        return proxyClients;
+    }
+
+    private ProxyRoutingHttpClient.RoutedClient createRoutedClient(ProxyDefinition proxy) {
+        ProxyProperties.Pool pool = proxyProperties.pool();
+        String name = proxy != null ? proxy.name() : ProxyRouting.DIRECT;
+        PoolingHttpClientConnectionManager connectionManager = proxy != null
+                ? createConnectionManager(name, proxy.maxTotal(), proxy.maxPerRoute())
+                : createConnectionManager(name, pool.maxTotal(), pool.maxPerRoute());
+
+        HttpClientBuilder builder = proxyProperties.cache().enabled()
+                ? getResponseCache().createClientBuilder(name)
+                : HttpClients.custom();
+        builder.setDefaultRequestConfig(createRequestConfig(pool))
+                .evictExpiredConnections()
+                .evictIdleConnections(toTimeValue(pool.evictIdleAfter()));
+        HttpClientConnectionManager clientConnectionManager = connectionManager;
+        HttpRequestExecutor requestExecutor = null;
+        if (instrumentation != null) {
+            clientConnectionManager = instrumentation.instrumentConnectionManager(name, connectionManager);
+            requestExecutor = instrumentation.createRequestExecutor(name);
+        }
+        if (diagnostics != null) {
+            clientConnectionManager = diagnostics.instrumentConnectionManager(clientConnectionManager);
+            requestExecutor = diagnostics.instrumentRequestExecutor(name, requestExecutor);
+        }
+        builder.setConnectionManager(clientConnectionManager);
+        if (requestExecutor != null) {
+            builder.setRequestExecutor(requestExecutor);
+        }
+
+        ProxyBalancer balancer = routing.getBalancers().get(name);
+        CloseableHttpAsyncClient http2Client = null;
+        if (proxy != null) {
+            builder.setRoutePlanner(new ProxyRoutePlanner(routing, proxy));
+            if (proxyProperties.http2().enabled()) {
+                // Right before the connect step, so that redirects, retries, protocol and authentication still run
+                // and multiplexed requests never lease a blocking connection or tunnel
+                http2Client = createHttp2Client(proxy);
+                builder.addExecInterceptorBefore(ChainElement.CONNECT.name(), Http2TunnelExecHandler.NAME,
+                        new Http2TunnelExecHandler(http2Client, executor,
+                                toTimeout(pool.connectionRequestTimeout().plus(pool.connectTimeout())),
+                                toTimeout(pool.socketTimeout())));
+            }
+            // Registered even without credentials, so that credentials set later through updateCredentials apply
+            builder.setDefaultCredentialsProvider(authentication.getCredentialsProvider())
+                    .addExecInterceptorFirst(ProxyAuthentication.NAME, authentication);
+            if (balancer != null) {
+                builder.addExecInterceptorFirst(ProxyHealthExecHandler.NAME, new ProxyHealthExecHandler(balancer))
+                        .addExecInterceptorBefore(ChainElement.MAIN_TRANSPORT.name(),
+                                ProxyHealthExecHandler.TARGET_REACHED_NAME, ProxyHealthExecHandler.TARGET_REACHED);
+            }
+        }
+        if (isWarmupTarget(name)) {
+            builder.addExecInterceptorBefore(ChainElement.MAIN_TRANSPORT.name(), ProxyWarmup.HOLD_CONNECTION_NAME,
+                    ProxyWarmup.HOLD_CONNECTION);
+        }
+        if (instrumentation != null) {
+            // Added last so that it runs first and times the whole request
+            builder.addExecInterceptorFirst("proxy-instrumentation", instrumentation.createExecHandler(name));
+        }
+        if (diagnostics != null) {
+            // Outermost, so that the sampling decision covers the whole request
+            builder.addExecInterceptorFirst(ProxyDiagnostics.NAME, diagnostics.createExecHandler(name));
+        }
+        return new ProxyRoutingHttpClient.RoutedClient(name, builder.build(), connectionManager, balancer, http2Client);
+    }
+
+    /**
+     * Returns whether warm-up is enabled and one of its destinations is routed through the named proxy, or
+     * {@value ProxyRouting#DIRECT}, so that only the clients it warms up check for warm-up requests.
+     */
+    boolean isWarmupTarget(String name) {
+        ProxyProperties.Warmup warmup = proxyProperties.warmup();
+        if (!warmup.enabled() || warmup.destinations() == null) {
+            return false;
+        }
+        for (String destination : warmup.destinations()) {
+            String host;
+            try {
+                host = URI.create(destination).getHost();
+            } catch (IllegalArgumentException ex) {
+                // Reported by the warm-up itself
+                continue;
+            }
+            if (host == null) {
+                continue;
+            }
+            ProxyDefinition proxy = routing.resolve(host);
+            if (name.equals(proxy != null ? proxy.name() : ProxyRouting.DIRECT)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Creates the started async client multiplexing a proxy's HTTPS requests over one HTTP/2 connection per
+     * destination and proxy endpoint, falling back to HTTP/1.1 where ALPN does not select h2.
+     */
+    private CloseableHttpAsyncClient createHttp2Client(ProxyDefinition proxy) {
+        ProxyProperties.Pool pool = proxyProperties.pool();
+        LOGGER.info("Creating HTTP/2 multiplexing client for proxy {} with maxConcurrentStreams: {}",
+                proxy.name(), proxyProperties.http2().maxConcurrentStreams());
+        PoolingAsyncClientConnectionManager connectionManager = PoolingAsyncClientConnectionManagerBuilder.create()
+                .setMaxConnTotal(proxy.maxTotal())
+                .setMaxConnPerRoute(proxy.maxPerRoute())
+                .setDefaultConnectionConfig(createConnectionConfig(pool))
+                .setTlsStrategy(new DefaultClientTlsStrategy(getSslContext()))
+                .setDefaultTlsConfig(TlsConfig.custom()
+                        .setVersionPolicy(HttpVersionPolicy.NEGOTIATE)
+                        .build())
+                .build();
+        CloseableHttpAsyncClient client = HttpAsyncClients.custom()
+                .setConnectionManager(new MultiplexingConnectionManager(connectionManager,
+                        proxyProperties.http2().maxConcurrentStreams()))
+                .setH2Config(createH2Config())
+                .setDefaultRequestConfig(createRequestConfig(pool))
+                .setRoutePlanner(new ProxyRoutePlanner(routing, proxy))
+                .setDefaultCredentialsProvider(authentication.getCredentialsProvider())
+                .addExecInterceptorFirst(ProxyAuthentication.NAME, authentication)
+                .evictExpiredConnections()
+                .evictIdleConnections(toTimeValue(pool.evictIdleAfter()))
                 .build();
+        client.start();
+        return client;
+    }
+
+    private CloseableHttpAsyncClient createCloseableHttpAsyncClient() {
+        ProxyProperties.Pool pool = proxyProperties.pool();
+        LOGGER.info("Creating pooled async HTTP client with version policy: {}", proxyProperties.async().versionPolicy());
+
+        PoolingAsyncClientConnectionManager connectionManager = PoolingAsyncClientConnectionManagerBuilder.create()
+                .setMaxConnTotal(pool.maxTotal())
+                .setMaxConnPerRoute(pool.maxPerRoute())
+                .setDefaultConnectionConfig(createConnectionConfig(pool))
+                .setTlsStrategy(new DefaultClientTlsStrategy(getSslContext()))
+                .setDefaultTlsConfig(TlsConfig.custom()
+                        .setVersionPolicy(proxyProperties.async().versionPolicy())
+                        .build())
+                .build();
+
+        HttpAsyncClientBuilder builder = HttpAsyncClients.custom()
+                .setConnectionManager(connectionManager)
+                .setH2Config(createH2Config())
+                .setDefaultRequestConfig(createRequestConfig(pool))
+                .setRoutePlanner(new ProxyRoutePlanner(this::getRouting))
+                .evictExpiredConnections()
+                .evictIdleConnections(toTimeValue(pool.evictIdleAfter()));
+
+        builder.setDefaultCredentialsProvider(authentication.getCredentialsProvider())
+                .addExecInterceptorFirst(ProxyAuthentication.NAME, authentication);
+        return builder.build();
+    }
 
-        // Configure authentication if credentials are provided
-        if (proxyProperties.username() != null && !proxyProperties.username().isEmpty() &&
-                proxyProperties.password() != null && !proxyProperties.password().isEmpty()) {
-
-            BasicCredentialsProvider credentialsProvider = new BasicCredentialsProvider();
-            credentialsProvider.setCredentials(
-                    new AuthScope(proxyProperties.host(), proxyProperties.port()),
-                    new UsernamePasswordCredentials(proxyProperties.username(), proxyProperties.password().toCharArray())
-            );
-            httpClient = HttpClients.custom()
-                    .setProxy(proxy)
-                    .setDefaultCredentialsProvider(credentialsProvider)
+    private void startHealthChecker() {
+        if (healthChecker == null && !routing.getBalancers().isEmpty()) {
+            healthChecker = new ProxyHealthChecker(routing.getBalancers().values(), proxyProperties.balancing());
+            healthChecker.start();
+        }
+    }
+
+    private void resetSystemWideProxy() {
+        if (!systemWideApplied) {
+            return;
+        }
+        systemWideApplied = false;
+        for (String property : PROXY_SYSTEM_PROPERTIES) {
+            System.clearProperty(property);
+        }
+        if (replacedProxySelector != null) {
+            ProxySelector.setDefault(replacedProxySelector);
+            replacedProxySelector = null;
+        }
+        if (authenticatorInstalled) {
+            Authenticator.setDefault(replacedAuthenticator);
+            replacedAuthenticator = null;
+            authenticatorInstalled = false;
+        }
+    }
+
+    private boolean hasRoutingRules() {
+        return (proxyProperties.proxies() != null && !proxyProperties.proxies().isEmpty())
+                || (proxyProperties.routes() != null && !proxyProperties.routes().isEmpty());
+    }
+
+    private PoolingHttpClientConnectionManager createConnectionManager(String name, int maxTotal, int maxPerRoute) {
+        ProxyProperties.VirtualThreads virtualThreads = proxyProperties.virtualThreads();
+        TlsSocketStrategy tlsStrategy = new DefaultClientTlsStrategy(getSslContext());
+        PoolingHttpClientConnectionManagerBuilder builder = PoolingHttpClientConnectionManagerBuilder.create()
+                .setDefaultConnectionConfig(createConnectionConfig(proxyProperties.pool()));
+        if (diagnostics != null) {
+            builder.setTlsSocketStrategy(diagnostics.instrumentTlsStrategy(tlsStrategy))
+                    .setDnsResolver(diagnostics.createDnsResolver());
+        } else {
+            builder.setTlsSocketStrategy(tlsStrategy);
+        }
+
+        if (virtualThreads.enabled()) {
+            // The lax pool leases per route without a global lock, so thousands of callers do not
+            // serialize on one pool lock; it enforces the per-route limit only.
+            LOGGER.info("Creating {} connection pool for virtual threads with maxPerRoute: {}", name, virtualThreads.maxPerRoute());
+            return builder
+                    .setPoolConcurrencyPolicy(PoolConcurrencyPolicy.LAX)
+                    .setMaxConnPerRoute(virtualThreads.maxPerRoute())
                     .build();
         }
-        return httpClient;
+        LOGGER.info("Creating {} connection pool with maxTotal: {} and maxPerRoute: {}", name, maxTotal, maxPerRoute);
+        return builder
+                .setPoolConcurrencyPolicy(PoolConcurrencyPolicy.STRICT)
+                .setMaxConnTotal(maxTotal)
+                .setMaxConnPerRoute(maxPerRoute)
+                .build();
+    }
+
+    private static ConnectionConfig createConnectionConfig(ProxyProperties.Pool pool) {
+        return ConnectionConfig.custom()
+                .setConnectTimeout(toTimeout(pool.connectTimeout()))
+                .setSocketTimeout(toTimeout(pool.socketTimeout()))
+                .setValidateAfterInactivity(toTimeValue(pool.validateAfterInactivity()))
+                .setTimeToLive(toTimeValue(pool.timeToLive()))
+                .build();
+    }
+
+    private SSLContext createSslContext() {
+        ProxyProperties.Tls tls = proxyProperties.tls();
+        LOGGER.info("Creating shared SSLContext with session cache size: {} and timeout: {}",
+                tls.sessionCacheSize(), tls.sessionTimeout());
+        try {
+            SSLContext context = SSLContext.getInstance("TLS");
+            context.init(null, null, null);
+            SSLSessionContext sessions = context.getClientSessionContext();
+            sessions.setSessionCacheSize(tls.sessionCacheSize());
+            sessions.setSessionTimeout((int) tls.sessionTimeout().toSeconds());
+            return context;
+        } catch (GeneralSecurityException ex) {
+            throw new IllegalStateException("Failed to create SSLContext for the proxied clients", ex);
+        }
+    }
+
+    private H2Config createH2Config() {
+        return H2Config.custom()
+                .setMaxConcurrentStreams(proxyProperties.http2().maxConcurrentStreams())
+                .build();
+    }
+
+    private static RequestConfig createRequestConfig(ProxyProperties.Pool pool) {
+        return RequestConfig.custom()
+                .setConnectionRequestTimeout(toTimeout(pool.connectionRequestTimeout()))
+                .build();
+    }
+
+    private static Timeout toTimeout(Duration duration) {
+        return Timeout.ofMilliseconds(duration.toMillis());
+    }
+
+    private static TimeValue toTimeValue(Duration duration) {
+        return TimeValue.ofMilliseconds(duration.toMillis());
     }
 
 }
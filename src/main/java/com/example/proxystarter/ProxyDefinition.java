@@ -0,0 +1,42 @@
+package com.example.proxystarter;
+
+import org.apache.hc.core5.http.HttpHost;
+
+import java.util.List;
+
+/**
+ * A resolved proxy: the top-level {@code proxy.host} (named {@value ProxyRouting#DEFAULT_PROXY}) or one of the
+ * named {@code proxy.proxies}.
+ *
+ * @param name        the proxy name used by routing rules
+ * @param endpoints   the proxy addresses, the primary address first
+ * @param username    the proxy user, or {@code null}
+ * @param password    the proxy password, or {@code null}
+ * @param maxTotal    maximum number of connections in this proxy's pool
+ * @param maxPerRoute maximum number of connections per route in this proxy's pool
+ */
+public record ProxyDefinition(
+    String name,
+    List<HttpHost> endpoints,
+    String username,
+    String password,
+    int maxTotal,
+    int maxPerRoute
+) {
+
+    /**
+     * Returns the primary proxy address.
+     */
+    public HttpHost proxyHost() {
+        return endpoints.get(0);
+    }
+
+    public boolean hasCredentials() {
+        return username != null && !username.isEmpty() && password != null && !password.isEmpty();
+    }
+
+    @Override
+    public String toString() {
+        return name + endpoints.stream().map(HttpHost::toHostString).toList();
+    }
+}
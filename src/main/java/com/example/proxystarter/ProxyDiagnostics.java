@@ -0,0 +1,307 @@
+package com.example.proxystarter;
+
+import io.micrometer.observation.Observation;
+import io.micrometer.observation.ObservationRegistry;
+import org.apache.hc.client5.http.DnsResolver;
+import org.apache.hc.client5.http.SystemDefaultDnsResolver;
+import org.apache.hc.client5.http.classic.ExecChain;
+import org.apache.hc.client5.http.classic.ExecChainHandler;
+import org.apache.hc.client5.http.io.HttpClientConnectionManager;
+import org.apache.hc.client5.http.ssl.TlsSocketStrategy;
+import org.apache.hc.core5.http.ClassicHttpRequest;
+import org.apache.hc.core5.http.ClassicHttpResponse;
+import org.apache.hc.core5.http.HttpException;
+import org.apache.hc.core5.http.HttpStatus;
+import org.apache.hc.core5.http.Method;
+import org.apache.hc.core5.http.impl.io.HttpRequestExecutor;
+import org.apache.hc.core5.http.io.HttpClientConnection;
+import org.apache.hc.core5.http.io.HttpResponseInformationCallback;
+import org.apache.hc.core5.http.protocol.HttpContext;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Connection-level diagnostics for the blocking clients, enabled with {@code proxy.diagnostics.enabled}.
+ * <p>
+ * A fraction {@code proxy.diagnostics.sample-rate} of requests is sampled. For those, hooks in the DNS resolver,
+ * the connection pool, the TLS strategy and the request executor record the time spent in DNS, the TCP connect,
+ * the {@code CONNECT} exchange, proxy authentication, the TLS handshake and the wait for the origin; each phase
+ * becomes a span when an {@link ObservationRegistry} is present, and the timings are kept for the
+ * {@link ProxyDiagnosticsEndpoint}. Requests that are not sampled cost a comparison in the outermost handler and
+ * an attribute lookup per hook.
+ * <p>
+ * Independently of sampling, {@code CONNECT} exchanges slower than {@code proxy.diagnostics.slow-tunnel-threshold}
+ * are kept. Both histories hold the last {@code proxy.diagnostics.history} entries.
+ */
+public class ProxyDiagnostics {
+
+    static final String NAME = "proxy-diagnostics";
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(ProxyDiagnostics.class);
+
+    private final double sampleRate;
+
+    private final long slowTunnelNanos;
+
+    private final ObservationRegistry observationRegistry;
+
+    private final History<SlowTunnel> slowTunnels;
+
+    private final History<RequestTiming> sampledRequests;
+
+    /**
+     * A {@code CONNECT} exchange slower than the threshold.
+     *
+     * @param at       when the exchange started
+     * @param proxy    the proxy name
+     * @param target   the tunnelled {@code host:port}
+     * @param status   the proxy's response status
+     * @param millis   how long the exchange took
+     */
+    public record SlowTunnel(Instant at, String proxy, String target, int status, double millis) {
+    }
+
+    /**
+     * The timings of a sampled request.
+     *
+     * @param at          when the request started
+     * @param proxy       the proxy name, {@code DIRECT} for direct routes
+     * @param method      the request method
+     * @param target      the destination {@code host:port}
+     * @param status      the response status, or {@code -1} if the request failed
+     * @param totalMillis how long the request took until its response headers arrived
+     * @param phases      time per phase in milliseconds, for the phases the request went through
+     */
+    public record RequestTiming(Instant at, String proxy, String method, String target, int status,
+                                double totalMillis, Map<String, Double> phases) {
+    }
+
+    public ProxyDiagnostics(ProxyProperties.Diagnostics properties, ObservationRegistry observationRegistry) {
+        this.sampleRate = properties.sampleRate();
+        this.slowTunnelNanos = properties.slowTunnelThreshold().toNanos();
+        this.observationRegistry = observationRegistry != null && !observationRegistry.isNoop() ? observationRegistry : null;
+        this.slowTunnels = new History<>(properties.history());
+        this.sampledRequests = new History<>(properties.history());
+    }
+
+    /**
+     * Returns the most recent slow {@code CONNECT} exchanges, newest first.
+     */
+    public List<SlowTunnel> getSlowTunnels() {
+        return slowTunnels.snapshot();
+    }
+
+    /**
+     * Returns the timings of the most recent sampled requests, newest first.
+     */
+    public List<RequestTiming> getSampledRequests() {
+        return sampledRequests.snapshot();
+    }
+
+    /**
+     * Creates the outermost exec chain handler of a client, deciding whether a request is sampled.
+     */
+    ExecChainHandler createExecHandler(String proxy) {
+        return (request, scope, chain) -> {
+            if (!sample()) {
+                return chain.proceed(request, scope);
+            }
+            return executeSampled(proxy, request, scope, chain);
+        };
+    }
+
+    /**
+     * Wraps the connection pool of a client to time TCP connects of sampled requests.
+     */
+    HttpClientConnectionManager instrumentConnectionManager(HttpClientConnectionManager delegate) {
+        return new DiagnosticConnectionManager(delegate);
+    }
+
+    /**
+     * Wraps the request executor of a client, or the default one if {@code delegate} is {@code null}.
+     */
+    HttpRequestExecutor instrumentRequestExecutor(String proxy, HttpRequestExecutor delegate) {
+        return new DiagnosticRequestExecutor(proxy, delegate != null ? delegate : new HttpRequestExecutor());
+    }
+
+    TlsSocketStrategy instrumentTlsStrategy(TlsSocketStrategy delegate) {
+        return (socket, target, port, attachment, context) -> {
+            RequestTimeline timeline = RequestTimeline.from(context);
+            if (timeline == null) {
+                return delegate.upgrade(socket, target, port, attachment, context);
+            }
+            long start = System.nanoTime();
+            Observation span = timeline.startSpan(RequestTimeline.Phase.TLS);
+            Throwable error = null;
+            try {
+                return delegate.upgrade(socket, target, port, attachment, context);
+            } catch (IOException | RuntimeException ex) {
+                error = ex;
+                throw ex;
+            } finally {
+                timeline.end(RequestTimeline.Phase.TLS, start, span, error);
+            }
+        };
+    }
+
+    DnsResolver createDnsResolver() {
+        return new DnsResolver() {
+            @Override
+            public InetAddress[] resolve(String host) throws UnknownHostException {
+                RequestTimeline timeline = RequestTimeline.current();
+                if (timeline == null) {
+                    return SystemDefaultDnsResolver.INSTANCE.resolve(host);
+                }
+                long start = System.nanoTime();
+                Observation span = timeline.startSpan(RequestTimeline.Phase.DNS);
+                Throwable error = null;
+                try {
+                    return SystemDefaultDnsResolver.INSTANCE.resolve(host);
+                } catch (UnknownHostException | RuntimeException ex) {
+                    error = ex;
+                    throw ex;
+                } finally {
+                    timeline.end(RequestTimeline.Phase.DNS, start, span, error);
+                }
+            }
+
+            @Override
+            public String resolveCanonicalHostname(String host) throws UnknownHostException {
+                return SystemDefaultDnsResolver.INSTANCE.resolveCanonicalHostname(host);
+            }
+        };
+    }
+
+    private boolean sample() {
+        return sampleRate > 0 && (sampleRate >= 1 || ThreadLocalRandom.current().nextDouble() < sampleRate);
+    }
+
+    private ClassicHttpResponse executeSampled(String proxy, ClassicHttpRequest request, ExecChain.Scope scope,
+                                               ExecChain chain) throws IOException, HttpException {
+        String target = scope.route.getTargetHost().toHostString();
+        Observation observation = observationRegistry == null ? null
+                : Observation.createNotStarted("proxy.client.exchange", observationRegistry)
+                        .lowCardinalityKeyValue("proxy", proxy)
+                        .highCardinalityKeyValue("target", target)
+                        .start();
+        RequestTimeline timeline = new RequestTimeline(observationRegistry, observation);
+        timeline.attach(scope.clientContext);
+        int status = -1;
+        Throwable error = null;
+        try {
+            ClassicHttpResponse response = chain.proceed(request, scope);
+            status = response.getCode();
+            return response;
+        } catch (IOException | HttpException | RuntimeException ex) {
+            error = ex;
+            throw ex;
+        } finally {
+            timeline.detach(scope.clientContext);
+            RequestTiming timing = new RequestTiming(timeline.getStart(), proxy, request.getMethod(), target, status,
+                    timeline.elapsedNanos() / 1_000_000.0, timeline.phaseMillis());
+            sampledRequests.add(timing);
+            LOGGER.debug("Sampled {}", timing);
+            if (observation != null) {
+                if (error != null) {
+                    observation.error(error);
+                }
+                observation.lowCardinalityKeyValue("status", String.valueOf(status)).stop();
+            }
+        }
+    }
+
+    /**
+     * Request executor timing the exchanges of sampled requests, and every {@code CONNECT} exchange for the
+     * slow tunnel history.
+     */
+    private final class DiagnosticRequestExecutor extends HttpRequestExecutor {
+
+        private final String proxy;
+
+        private final HttpRequestExecutor delegate;
+
+        private DiagnosticRequestExecutor(String proxy, HttpRequestExecutor delegate) {
+            this.proxy = proxy;
+            this.delegate = delegate;
+        }
+
+        @Override
+        public ClassicHttpResponse execute(ClassicHttpRequest request, HttpClientConnection conn,
+                                           HttpResponseInformationCallback informationCallback, HttpContext context)
+                throws IOException, HttpException {
+            RequestTimeline timeline = RequestTimeline.from(context);
+            boolean tunnel = Method.CONNECT.isSame(request.getMethod());
+            if (timeline == null && !tunnel) {
+                return delegate.execute(request, conn, informationCallback, context);
+            }
+
+            Instant at = tunnel ? Instant.now() : null;
+            long start = System.nanoTime();
+            Observation span = timeline != null ? timeline.startSpan(tunnel ? RequestTimeline.Phase.TUNNEL
+                    : RequestTimeline.Phase.ORIGIN) : null;
+            ClassicHttpResponse response = null;
+            Throwable error = null;
+            try {
+                response = delegate.execute(request, conn, informationCallback, context);
+                return response;
+            } catch (IOException | HttpException | RuntimeException ex) {
+                error = ex;
+                throw ex;
+            } finally {
+                long duration = System.nanoTime() - start;
+                if (timeline != null) {
+                    RequestTimeline.Phase phase = response != null
+                            && response.getCode() == HttpStatus.SC_PROXY_AUTHENTICATION_REQUIRED
+                            ? RequestTimeline.Phase.AUTH
+                            : tunnel ? RequestTimeline.Phase.TUNNEL : RequestTimeline.Phase.ORIGIN;
+                    timeline.end(phase, start, span, error);
+                }
+                if (tunnel && duration >= slowTunnelNanos) {
+                    slowTunnels.add(new SlowTunnel(at, proxy, request.getRequestUri(),
+                            response != null ? response.getCode() : -1, duration / 1_000_000.0));
+                }
+            }
+        }
+    }
+
+    /**
+     * Lock-free ring of the most recent entries.
+     */
+    private static final class History<T> {
+
+        private final AtomicReferenceArray<T> entries;
+
+        private final AtomicLong next = new AtomicLong();
+
+        private History(int size) {
+            this.entries = new AtomicReferenceArray<>(Math.max(1, size));
+        }
+
+        void add(T entry) {
+            entries.set((int) (next.getAndIncrement() % entries.length()), entry);
+        }
+
+        List<T> snapshot() {
+            long last = next.get();
+            List<T> snapshot = new ArrayList<>(entries.length());
+            for (long i = last - 1; i >= 0 && i >= last - entries.length(); i--) {
+                T entry = entries.get((int) (i % entries.length()));
+                if (entry != null) {
+                    snapshot.add(entry);
+                }
+            }
+            return snapshot;
+        }
+    }
+}
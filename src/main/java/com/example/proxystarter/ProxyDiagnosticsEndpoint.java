@@ -0,0 +1,102 @@
+package com.example.proxystarter;
+
+import org.apache.hc.client5.http.HttpRoute;
+import org.apache.hc.client5.http.impl.io.PoolingHttpClientConnectionManager;
+import org.apache.hc.core5.http.HttpHost;
+import org.apache.hc.core5.pool.PoolStats;
+import org.springframework.boot.actuate.endpoint.annotation.Endpoint;
+import org.springframework.boot.actuate.endpoint.annotation.ReadOperation;
+
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Actuator endpoint {@code proxy} showing the live state of the blocking client's connection pools per proxy
+ * and route, the recent slow {@code CONNECT} tunnels and sampled request timings from {@link ProxyDiagnostics},
+ * and the effective proxy configuration. Credentials are never shown, only whether a proxy has them.
+ */
+@Endpoint(id = "proxy")
+public class ProxyDiagnosticsEndpoint {
+
+    private final ProxyConfigurationService proxyConfigurationService;
+
+    private final ProxyDiagnostics diagnostics;
+
+    /**
+     * Usage of a connection pool or of one of its routes.
+     */
+    public record PoolState(int leased, int available, int pending, int max) {
+
+        static PoolState of(PoolStats stats) {
+            return new PoolState(stats.getLeased(), stats.getAvailable(), stats.getPending(), stats.getMax());
+        }
+    }
+
+    /**
+     * A connection pool and its routes, keyed by destination {@code host:port}.
+     */
+    public record Pool(PoolState total, Map<String, PoolState> routes) {
+    }
+
+    /**
+     * A proxy without its credentials.
+     */
+    public record ProxySummary(List<String> endpoints, boolean authenticated, int maxTotal, int maxPerRoute) {
+    }
+
+    public ProxyDiagnosticsEndpoint(ProxyConfigurationService proxyConfigurationService, ProxyDiagnostics diagnostics) {
+        this.proxyConfigurationService = proxyConfigurationService;
+        this.diagnostics = diagnostics;
+    }
+
+    @ReadOperation
+    public Map<String, Object> diagnostics() {
+        Map<String, Object> report = new LinkedHashMap<>();
+        report.put("pools", pools());
+        report.put("slowTunnels", diagnostics.getSlowTunnels());
+        report.put("sampledRequests", diagnostics.getSampledRequests());
+        report.put("configuration", configuration());
+        return report;
+    }
+
+    private Map<String, Pool> pools() {
+        Map<String, Pool> pools = new LinkedHashMap<>();
+        proxyConfigurationService.getConnectionPools().forEach((name, pool) -> pools.put(name, pool(pool)));
+        return pools;
+    }
+
+    private static Pool pool(PoolingHttpClientConnectionManager pool) {
+        Map<String, PoolState> routes = new LinkedHashMap<>();
+        for (HttpRoute route : pool.getRoutes()) {
+            routes.put(route.getTargetHost().toHostString(), PoolState.of(pool.getStats(route)));
+        }
+        return new Pool(PoolState.of(pool.getTotalStats()), routes);
+    }
+
+    private Map<String, Object> configuration() {
+        ProxyProperties properties = proxyConfigurationService.getProxyProperties();
+        Map<String, ProxySummary> proxies = new LinkedHashMap<>();
+        proxyConfigurationService.getRouting().getProxies().forEach((name, proxy) -> proxies.put(name,
+                new ProxySummary(proxy.endpoints().stream().map(HttpHost::toHostString).toList(),
+                        proxy.hasCredentials(), proxy.maxTotal(), proxy.maxPerRoute())));
+
+        Map<String, Object> configuration = new LinkedHashMap<>();
+        configuration.put("enabled", properties.enabled());
+        configuration.put("systemWide", properties.systemWide());
+        configuration.put("nonProxyHosts", properties.nonProxyHosts());
+        configuration.put("proxies", proxies);
+        configuration.put("routes", properties.routes() != null ? properties.routes() : List.of());
+        configuration.put("auth", properties.auth());
+        configuration.put("balancing", properties.balancing());
+        configuration.put("pool", properties.pool());
+        configuration.put("http2", properties.http2());
+        configuration.put("tls", properties.tls());
+        configuration.put("virtualThreads", properties.virtualThreads());
+        configuration.put("resilience", properties.resilience());
+        configuration.put("cache", properties.cache());
+        configuration.put("limits", properties.limits());
+        configuration.put("diagnostics", properties.diagnostics());
+        return configuration;
+    }
+}
@@ -0,0 +1,120 @@
+package com.example.proxystarter;
+
+import org.apache.hc.core5.http.HttpHost;
+
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * One address of a proxy, with the load and circuit breaker state used by {@link ProxyBalancer}.
+ */
+public final class ProxyEndpoint {
+
+    /**
+     * Circuit breaker state of an endpoint.
+     */
+    public enum State {
+        /** Healthy and in rotation. */
+        CLOSED,
+        /** Taken out of rotation after failures. */
+        OPEN,
+        /** Open period elapsed; the next request or probe decides whether it returns to rotation. */
+        HALF_OPEN
+    }
+
+    private static final double EWMA_WEIGHT = 0.3;
+
+    private final HttpHost host;
+
+    private final AtomicInteger inFlight = new AtomicInteger();
+
+    private final AtomicInteger consecutiveFailures = new AtomicInteger();
+
+    private final AtomicBoolean trialInFlight = new AtomicBoolean();
+
+    private volatile boolean open;
+
+    private volatile long openUntilNanos;
+
+    private volatile double latencyEwmaMillis;
+
+    ProxyEndpoint(HttpHost host) {
+        this.host = host;
+    }
+
+    public HttpHost getHost() {
+        return host;
+    }
+
+    public int getInFlight() {
+        return inFlight.get();
+    }
+
+    public double getLatencyEwmaMillis() {
+        return latencyEwmaMillis;
+    }
+
+    public State getState() {
+        if (!open) {
+            return State.CLOSED;
+        }
+        return System.nanoTime() - openUntilNanos >= 0 ? State.HALF_OPEN : State.OPEN;
+    }
+
+    void acquire() {
+        inFlight.incrementAndGet();
+    }
+
+    void release() {
+        inFlight.decrementAndGet();
+    }
+
+    boolean isClosed() {
+        return !open;
+    }
+
+    boolean tryStartTrial(long nowNanos) {
+        return open && nowNanos - openUntilNanos >= 0 && trialInFlight.compareAndSet(false, true);
+    }
+
+    void endTrial() {
+        trialInFlight.set(false);
+    }
+
+    long getOpenUntilNanos() {
+        return openUntilNanos;
+    }
+
+    void recordLatency(long latencyNanos) {
+        double millis = latencyNanos / 1_000_000.0;
+        double current = latencyEwmaMillis;
+        // Racy read-modify-write: a lost update only skews a smoothed estimate
+        latencyEwmaMillis = current == 0 ? millis : current + EWMA_WEIGHT * (millis - current);
+    }
+
+    void close() {
+        consecutiveFailures.set(0);
+        open = false;
+        trialInFlight.set(false);
+    }
+
+    /**
+     * Records a failure and returns whether the endpoint was opened by it.
+     */
+    boolean recordFailure(int failureThreshold, long openDurationNanos) {
+        int failures = consecutiveFailures.incrementAndGet();
+        if (open || failures >= failureThreshold) {
+            boolean opened = !open;
+            openUntilNanos = System.nanoTime() + openDurationNanos;
+            open = true;
+            trialInFlight.set(false);
+            return opened;
+        }
+        return false;
+    }
+
+    @Override
+    public String toString() {
+        return host.toHostString();
+    }
+}
@@ -0,0 +1,90 @@
+package com.example.proxystarter;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+
+/**
+ * Runs parallel fan-out calls through the proxied clients, one virtual thread per task.
+ * <p>
+ * The number of tasks in flight is bounded by {@code proxy.virtual-threads.max-concurrency}, so a large
+ * fan-out queues here instead of piling up on connection leases and timing out in the pool.
+ */
+public class ProxyFanOutExecutor implements AutoCloseable {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(ProxyFanOutExecutor.class);
+
+    private final ExecutorService executor;
+
+    private final Semaphore permits;
+
+    public ProxyFanOutExecutor(int maxConcurrency) {
+        this(Executors.newVirtualThreadPerTaskExecutor(), maxConcurrency);
+    }
+
+    public ProxyFanOutExecutor(ExecutorService executor, int maxConcurrency) {
+        this.executor = executor;
+        this.permits = new Semaphore(maxConcurrency);
+    }
+
+    /**
+     * Submits a single task.
+     *
+     * @param task the task, typically a call through the proxied RestTemplate or RestClient
+     * @return a future completed with the task's result
+     */
+    public <T> CompletableFuture<T> submit(Callable<T> task) {
+        return CompletableFuture.supplyAsync(() -> {
+            try {
+                permits.acquire();
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+                throw new CompletionException(ex);
+            }
+            try {
+                return task.call();
+            } catch (RuntimeException ex) {
+                throw ex;
+            } catch (Exception ex) {
+                throw new CompletionException(ex);
+            } finally {
+                permits.release();
+            }
+        }, executor);
+    }
+
+    /**
+     * Runs all tasks in parallel and waits for them to complete.
+     *
+     * @param tasks the tasks
+     * @return the results, in the order of the given tasks
+     * @throws CompletionException if any task failed
+     */
+    public <T> List<T> invokeAll(Collection<? extends Callable<T>> tasks) {
+        List<CompletableFuture<T>> futures = new ArrayList<>(tasks.size());
+        for (Callable<T> task : tasks) {
+            futures.add(submit(task));
+        }
+        CompletableFuture.allOf(futures.toArray(CompletableFuture[]::new)).join();
+        List<T> results = new ArrayList<>(futures.size());
+        for (CompletableFuture<T> future : futures) {
+            results.add(future.join());
+        }
+        return results;
+    }
+
+    @Override
+    public void close() {
+        LOGGER.info("Shutting down proxy fan-out executor");
+        executor.shutdown();
+    }
+}
@@ -0,0 +1,89 @@
+package com.example.proxystarter;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.Collection;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Actively probes every proxy endpoint on a background thread and reports the outcome to its
+ * {@link ProxyBalancer}, so dead proxies leave rotation before requests hit them and recovered ones return.
+ * <p>
+ * With {@code proxy.balancing.probe-target} set, a probe sends {@code CONNECT} for that target and any HTTP
+ * status line counts as healthy, since even a refusal proves the proxy is answering. Without it, a probe is
+ * a TCP connect to the proxy.
+ */
+class ProxyHealthChecker implements AutoCloseable {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(ProxyHealthChecker.class);
+
+    private final Collection<ProxyBalancer> balancers;
+
+    private final ProxyProperties.Balancing balancing;
+
+    private final ScheduledExecutorService scheduler;
+
+    ProxyHealthChecker(Collection<ProxyBalancer> balancers, ProxyProperties.Balancing balancing) {
+        this.balancers = balancers;
+        this.balancing = balancing;
+        this.scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "proxy-health-checker");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    void start() {
+        long interval = balancing.probeInterval().toMillis();
+        LOGGER.info("Starting proxy health checks every {} ms", interval);
+        scheduler.scheduleWithFixedDelay(this::probeAll, interval, interval, TimeUnit.MILLISECONDS);
+    }
+
+    void probeAll() {
+        for (ProxyBalancer balancer : balancers) {
+            for (ProxyEndpoint endpoint : balancer.getEndpoints()) {
+                if (probe(endpoint)) {
+                    balancer.recordHealthy(endpoint);
+                } else {
+                    balancer.recordFailure(endpoint);
+                }
+            }
+        }
+    }
+
+    private boolean probe(ProxyEndpoint endpoint) {
+        int timeout = (int) balancing.probeTimeout().toMillis();
+        try (Socket socket = new Socket()) {
+            socket.connect(new InetSocketAddress(endpoint.getHost().getHostName(), endpoint.getHost().getPort()), timeout);
+            String target = balancing.probeTarget();
+            if (target == null || target.isEmpty()) {
+                return true;
+            }
+            socket.setSoTimeout(timeout);
+            OutputStream out = socket.getOutputStream();
+            out.write(("CONNECT " + target + " HTTP/1.1\r\nHost: " + target + "\r\n\r\n").getBytes(StandardCharsets.US_ASCII));
+            out.flush();
+            BufferedReader reader = new BufferedReader(new InputStreamReader(socket.getInputStream(), StandardCharsets.US_ASCII));
+            String statusLine = reader.readLine();
+            return statusLine != null && statusLine.startsWith("HTTP/");
+        } catch (IOException ex) {
+            LOGGER.debug("Probe of proxy endpoint {} failed: {}", endpoint, ex.getMessage());
+            return false;
+        }
+    }
+
+    @Override
+    public void close() {
+        scheduler.shutdownNow();
+    }
+}
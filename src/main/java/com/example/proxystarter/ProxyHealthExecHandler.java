@@ -0,0 +1,78 @@
+package com.example.proxystarter;
+
+import org.apache.hc.client5.http.classic.ExecChain;
+import org.apache.hc.client5.http.classic.ExecChainHandler;
+import org.apache.hc.core5.http.ClassicHttpRequest;
+import org.apache.hc.core5.http.ClassicHttpResponse;
+import org.apache.hc.core5.http.HttpException;
+import org.apache.hc.core5.http.HttpHost;
+import org.apache.hc.core5.http.HttpStatus;
+
+import java.io.IOException;
+
+/**
+ * Exec chain handler feeding request outcomes through a proxy back into its {@link ProxyBalancer}: requests in
+ * flight, latency, and failures of the proxy itself for passive health detection. Those are failures to connect to
+ * the proxy, and the proxy answering a tunnel request with {@code 502} or {@code 407} instead of establishing it.
+ * The latter are told from origin responses by {@link #TARGET_REACHED}, registered right before the transport.
+ */
+class ProxyHealthExecHandler implements ExecChainHandler {
+
+    static final String NAME = "proxy-health";
+
+    static final String TARGET_REACHED_NAME = "proxy-health-target-reached";
+
+    static final String TARGET_REACHED_ATTRIBUTE = ProxyHealthExecHandler.class.getName() + ".targetReached";
+
+    /**
+     * Marks requests that got past the connect step, so through an established tunnel.
+     */
+    static final ExecChainHandler TARGET_REACHED = (request, scope, chain) -> {
+        scope.clientContext.setAttribute(TARGET_REACHED_ATTRIBUTE, Boolean.TRUE);
+        return chain.proceed(request, scope);
+    };
+
+    private final ProxyBalancer balancer;
+
+    ProxyHealthExecHandler(ProxyBalancer balancer) {
+        this.balancer = balancer;
+    }
+
+    @Override
+    public ClassicHttpResponse execute(ClassicHttpRequest request, ExecChain.Scope scope, ExecChain chain)
+            throws IOException, HttpException {
+        HttpHost proxyHost = scope.route.getProxyHost();
+        ProxyEndpoint endpoint = proxyHost != null ? balancer.find(proxyHost) : null;
+        if (endpoint == null) {
+            return chain.proceed(request, scope);
+        }
+        endpoint.acquire();
+        scope.clientContext.removeAttribute(TARGET_REACHED_ATTRIBUTE);
+        long start = System.nanoTime();
+        try {
+            ClassicHttpResponse response = chain.proceed(request, scope);
+            if (isTunnelRefused(scope, response)) {
+                balancer.recordFailure(endpoint);
+            } else {
+                balancer.recordSuccess(endpoint, System.nanoTime() - start);
+            }
+            return response;
+        } catch (IOException ex) {
+            if (ProxyBalancer.isProxyConnectFailure(ex)) {
+                balancer.recordFailure(endpoint);
+            }
+            throw ex;
+        } finally {
+            endpoint.release();
+            // Outcomes recorded above already end a half-open trial; any other exception must not leave it pending
+            endpoint.endTrial();
+        }
+    }
+
+    private static boolean isTunnelRefused(ExecChain.Scope scope, ClassicHttpResponse response) {
+        int code = response.getCode();
+        return scope.route.isTunnelled()
+                && (code == HttpStatus.SC_BAD_GATEWAY || code == HttpStatus.SC_PROXY_AUTHENTICATION_REQUIRED)
+                && scope.clientContext.getAttribute(TARGET_REACHED_ATTRIBUTE) == null;
+    }
+}
@@ -0,0 +1,39 @@
+package com.example.proxystarter;
+
+import java.io.IOException;
+
+/**
+ * Thrown by the proxied {@code RestTemplate} and {@code RestClient} when a request is shed by
+ * {@code proxy.limits} because a concurrency or rate limit stayed exhausted for the queue timeout. Such requests
+ * were never sent. Spring wraps it in a {@code ResourceAccessException}.
+ */
+public class ProxyLimitExceededException extends IOException {
+
+    private final String scope;
+
+    private final String limit;
+
+    public ProxyLimitExceededException(String message, String scope, String limit) {
+        super(message);
+        this.scope = scope;
+        this.limit = limit;
+    }
+
+    /**
+     * Returns what was limited, {@code destination} or {@code proxy}.
+     *
+     * @return the scope of the exhausted limit
+     */
+    public String getScope() {
+        return scope;
+    }
+
+    /**
+     * Returns which limit was exhausted, {@code concurrency} or {@code rate}.
+     *
+     * @return the kind of the exhausted limit
+     */
+    public String getLimit() {
+        return limit;
+    }
+}
@@ -0,0 +1,335 @@
+package com.example.proxystarter;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpRequest;
+import org.springframework.http.HttpStatusCode;
+import org.springframework.http.client.ClientHttpRequestExecution;
+import org.springframework.http.client.ClientHttpRequestInterceptor;
+import org.springframework.http.client.ClientHttpResponse;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Supplier;
+
+/**
+ * Interceptor admitting requests against per-destination and per-proxy limits from {@code proxy.limits}:
+ * a bound on requests in flight and a token-bucket rate. A request waits up to {@code proxy.limits.queue-timeout}
+ * for a permit and is otherwise shed with {@link ProxyLimitExceededException}, so one busy destination cannot
+ * take the whole connection quota of a proxy.
+ * <p>
+ * A concurrency permit is held until the response is closed. Concurrency permits are taken before rate tokens,
+ * so that a shed request spends no tokens. Limiters are kept per destination host and proxy in
+ * concurrent maps; admission is a compare-and-set on the fast path and only queues once a limit is exhausted.
+ * Hosts without a limit keep no limiter, and idle destination limiters are dropped once many hosts are limited.
+ * The limiters are rebuilt when a reload changes the settings.
+ */
+class ProxyLimitInterceptor implements ClientHttpRequestInterceptor {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(ProxyLimitInterceptor.class);
+
+    static final String DESTINATION = "destination";
+
+    static final String PROXY = "proxy";
+
+    private final Supplier<ProxyRouting> routing;
+
+    private final Supplier<ProxyProperties.Limits> settings;
+
+    private final ProxyClientInstrumentation instrumentation;
+
+    private volatile Limiters limiters;
+
+    ProxyLimitInterceptor(Supplier<ProxyRouting> routing, Supplier<ProxyProperties.Limits> settings,
+                          ProxyClientInstrumentation instrumentation) {
+        this.routing = routing;
+        this.settings = settings;
+        this.instrumentation = instrumentation;
+    }
+
+    @Override
+    public ClientHttpResponse intercept(HttpRequest request, byte[] body, ClientHttpRequestExecution execution)
+            throws IOException {
+        ProxyProperties.Limits limits = settings.get();
+        if (!limits.enabled()) {
+            return execution.execute(request, body);
+        }
+        Limiters current = limiters;
+        if (current == null || current.limits != limits) {
+            // Requests admitted before a reload release to the limiters they were admitted by
+            current = new Limiters(limits);
+            limiters = current;
+        }
+
+        String host = request.getURI().getHost();
+        if (host == null) {
+            // Without a host the client rejects the request anyway
+            return execution.execute(request, body);
+        }
+        host = host.toLowerCase(Locale.ROOT);
+        ProxyDefinition proxy = routing.get().resolve(host);
+        String proxyName = proxy != null ? proxy.name() : ProxyRouting.DIRECT;
+        long deadline = System.nanoTime() + limits.queueTimeout().toNanos();
+
+        Limiter destinationLimiter = current.forDestination(host);
+        Limiter proxyLimiter = proxy != null ? current.forProxy(proxyName) : null;
+        // Concurrency first: a request shed there has not spent rate tokens, and one shed by a rate returns its
+        // permits and any token it reserved
+        acquireConcurrency(destinationLimiter, DESTINATION, host, proxyName, deadline);
+        try {
+            acquireConcurrency(proxyLimiter, PROXY, host, proxyName, deadline);
+        } catch (IOException ex) {
+            destinationLimiter.release();
+            throw ex;
+        }
+
+        Permits permits = new Permits(destinationLimiter, proxyLimiter);
+        try {
+            acquireRate(destinationLimiter, proxyLimiter, host, proxyName, deadline);
+            return new LimitedResponse(execution.execute(request, body), permits);
+        } catch (IOException | RuntimeException ex) {
+            permits.release();
+            throw ex;
+        }
+    }
+
+    private void acquireRate(Limiter destinationLimiter, Limiter proxyLimiter, String host, String proxy,
+                             long deadline) throws IOException {
+        long destinationWait = reserve(destinationLimiter, deadline);
+        if (destinationWait < 0) {
+            throw shed(DESTINATION, "rate", host, proxy);
+        }
+        long proxyWait = reserve(proxyLimiter, deadline);
+        if (proxyWait < 0) {
+            refund(destinationLimiter);
+            throw shed(PROXY, "rate", host, proxy);
+        }
+        long wait = Math.max(destinationWait, proxyWait);
+        if (wait > 0) {
+            try {
+                TimeUnit.NANOSECONDS.sleep(wait);
+            } catch (InterruptedException ex) {
+                refund(destinationLimiter);
+                refund(proxyLimiter);
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Interrupted waiting for a rate permit for " + host);
+            }
+        }
+    }
+
+    private static long reserve(Limiter limiter, long deadline) {
+        if (limiter == null || limiter.rate == null) {
+            return 0;
+        }
+        return limiter.rate.reserve(Math.max(0, deadline - System.nanoTime()));
+    }
+
+    private static void refund(Limiter limiter) {
+        if (limiter != null && limiter.rate != null) {
+            limiter.rate.refund();
+        }
+    }
+
+    private void acquireConcurrency(Limiter limiter, String scope, String host, String proxy, long deadline)
+            throws IOException {
+        if (limiter == null || limiter.concurrency == null) {
+            return;
+        }
+        boolean acquired;
+        try {
+            acquired = limiter.concurrency.tryAcquire()
+                    || limiter.concurrency.tryAcquire(Math.max(0, deadline - System.nanoTime()), TimeUnit.NANOSECONDS);
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted waiting for a concurrency permit for " + host);
+        }
+        if (!acquired) {
+            throw shed(scope, "concurrency", host, proxy);
+        }
+    }
+
+    private ProxyLimitExceededException shed(String scope, String limit, String host, String proxy) {
+        LOGGER.debug("Shedding request to {} through {}: {} {} limit exhausted", host, proxy, scope, limit);
+        if (instrumentation != null) {
+            instrumentation.recordLimitRejection(proxy, scope, limit);
+        }
+        return new ProxyLimitExceededException(
+                "Request to " + host + " shed: " + scope + " " + limit + " limit exhausted", scope, limit);
+    }
+
+    /**
+     * The concurrency and rate limiter of one destination or proxy; either may be absent.
+     */
+    private record Limiter(Semaphore concurrency, int maxConcurrent, TokenBucket rate) {
+
+        static Limiter of(int maxConcurrent, double rate, int burst) {
+            if (maxConcurrent <= 0 && rate <= 0) {
+                return null;
+            }
+            return new Limiter(maxConcurrent > 0 ? new Semaphore(maxConcurrent) : null, maxConcurrent,
+                    rate > 0 ? new TokenBucket(rate, burst > 0 ? burst : (int) Math.ceil(rate)) : null);
+        }
+
+        /**
+         * Returns whether no request holds a permit and the full burst is available, so that a new limiter
+         * would admit exactly what this one does.
+         */
+        boolean isIdle() {
+            return (concurrency == null || concurrency.availablePermits() >= maxConcurrent)
+                    && (rate == null || rate.isFull());
+        }
+
+        void release() {
+            if (concurrency != null) {
+                concurrency.release();
+            }
+        }
+    }
+
+    /**
+     * The limiters built from one version of the settings.
+     */
+    private static final class Limiters {
+
+        // Returned for destinations and proxies without any limit; only proxies, a bounded set, keep it in their map
+        private static final Limiter NONE = new Limiter(null, 0, null);
+
+        // Destination limiters kept before idle ones are dropped, so that requests to ever new hosts do not grow
+        // the map without bound
+        private static final int MAX_DESTINATIONS = 1024;
+
+        private final ProxyProperties.Limits limits;
+
+        private final List<Rule> rules;
+
+        private final Map<String, Limiter> destinations = new ConcurrentHashMap<>();
+
+        private final Map<String, Limiter> proxies = new ConcurrentHashMap<>();
+
+        private Limiters(ProxyProperties.Limits limits) {
+            this.limits = limits;
+            this.rules = limits.destinations() == null ? List.of() : limits.destinations().stream()
+                    .map(destination -> new Rule(new NonProxyHostsMatcher(destination.hosts(), 0), destination))
+                    .toList();
+        }
+
+        Limiter forDestination(String host) {
+            Limiter limiter = destinations.get(host);
+            if (limiter != null) {
+                return limiter;
+            }
+            limiter = createDestinationLimiter(host);
+            if (limiter == NONE) {
+                return NONE;
+            }
+            if (destinations.size() >= MAX_DESTINATIONS) {
+                destinations.values().removeIf(Limiter::isIdle);
+            }
+            Limiter existing = destinations.putIfAbsent(host, limiter);
+            return existing != null ? existing : limiter;
+        }
+
+        Limiter forProxy(String proxy) {
+            return proxies.computeIfAbsent(proxy, name -> {
+                ProxyProperties.Limit limit = limits.perProxy();
+                Limiter limiter = Limiter.of(limit.maxConcurrent(), limit.rate(), limit.burst());
+                return limiter != null ? limiter : NONE;
+            });
+        }
+
+        private Limiter createDestinationLimiter(String host) {
+            Limiter limiter = null;
+            for (Rule rule : rules) {
+                if (rule.hosts.matches(host)) {
+                    ProxyProperties.DestinationLimit limit = rule.limit;
+                    limiter = Limiter.of(limit.maxConcurrent(), limit.rate(), limit.burst());
+                    break;
+                }
+            }
+            if (limiter == null) {
+                ProxyProperties.Limit limit = limits.perDestination();
+                limiter = Limiter.of(limit.maxConcurrent(), limit.rate(), limit.burst());
+            }
+            return limiter != null ? limiter : NONE;
+        }
+
+        private record Rule(NonProxyHostsMatcher hosts, ProxyProperties.DestinationLimit limit) {
+        }
+    }
+
+    private static final class Permits {
+
+        private final Limiter destination;
+
+        private final Limiter proxy;
+
+        private final AtomicBoolean released = new AtomicBoolean();
+
+        private Permits(Limiter destination, Limiter proxy) {
+            this.destination = destination;
+            this.proxy = proxy;
+        }
+
+        void release() {
+            if (released.compareAndSet(false, true)) {
+                destination.release();
+                if (proxy != null) {
+                    proxy.release();
+                }
+            }
+        }
+    }
+
+    /**
+     * Response returning the concurrency permits of its request when closed.
+     */
+    private static final class LimitedResponse implements ClientHttpResponse {
+
+        private final ClientHttpResponse delegate;
+
+        private final Permits permits;
+
+        private LimitedResponse(ClientHttpResponse delegate, Permits permits) {
+            this.delegate = delegate;
+            this.permits = permits;
+        }
+
+        @Override
+        public HttpStatusCode getStatusCode() throws IOException {
+            return delegate.getStatusCode();
+        }
+
+        @Override
+        public String getStatusText() throws IOException {
+            return delegate.getStatusText();
+        }
+
+        @Override
+        public HttpHeaders getHeaders() {
+            return delegate.getHeaders();
+        }
+
+        @Override
+        public InputStream getBody() throws IOException {
+            return delegate.getBody();
+        }
+
+        @Override
+        public void close() {
+            try {
+                delegate.close();
+            } finally {
+                permits.release();
+            }
+        }
+    }
+}
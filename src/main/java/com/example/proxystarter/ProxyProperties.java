@@ -1,9 +1,23 @@
 package com.example.proxystarter;
 
+import org.apache.hc.core5.http2.HttpVersionPolicy;
 import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.boot.context.properties.bind.DefaultValue;
+import org.springframework.util.unit.DataSize;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.Map;
 
 /**
  * Properties for proxy configuration.
+ * <p>
+ * {@code nonProxyHosts} takes pipe-separated host names, {@code *.suffix} and {@code prefix*} wildcards and
+ * CIDR ranges; {@code routeCacheSize} bounds the per-host cache of routing decisions. Additional proxies are
+ * declared under {@code proxies} and selected per destination by {@code routes}. {@code endpoints} lists
+ * further {@code host:port} addresses of the top-level proxy to balance and fail over across. {@code systemWide}
+ * applies the proxies to all JDK networking in the process through system properties, the default
+ * {@code ProxySelector} and the default {@code Authenticator}; otherwise only the starter's clients use them.
  */
 @ConfigurationProperties(prefix = "proxy")
 public record ProxyProperties(
@@ -12,6 +26,370 @@ public record ProxyProperties(
     int port,
     String username,
     String password,
-    String nonProxyHosts
+    String nonProxyHosts,
+    boolean systemWide,
+    @DefaultValue("4096") int routeCacheSize,
+    List<String> endpoints,
+    Map<String, NamedProxy> proxies,
+    List<Route> routes,
+    @DefaultValue Auth auth,
+    @DefaultValue Balancing balancing,
+    @DefaultValue Pool pool,
+    @DefaultValue Async async,
+    @DefaultValue Http2 http2,
+    @DefaultValue Tls tls,
+    @DefaultValue VirtualThreads virtualThreads,
+    @DefaultValue Metrics metrics,
+    @DefaultValue Reload reload,
+    @DefaultValue Warmup warmup,
+    @DefaultValue Resilience resilience,
+    @DefaultValue Cache cache,
+    @DefaultValue Limits limits,
+    @DefaultValue Diagnostics diagnostics
 ) {
+
+    /**
+     * An additional, named proxy with its own connection pool.
+     *
+     * @param host        proxy host address
+     * @param port        proxy port
+     * @param username    proxy user (optional)
+     * @param password    proxy password (optional)
+     * @param maxTotal    maximum number of connections in this proxy's pool; defaults to {@code pool.max-total}
+     * @param maxPerRoute maximum number of connections per route in this proxy's pool; defaults to
+     *                    {@code pool.max-per-route}
+     * @param endpoints   further {@code host:port} addresses of this proxy to balance and fail over across
+     */
+    public record NamedProxy(
+        String host,
+        int port,
+        String username,
+        String password,
+        Integer maxTotal,
+        Integer maxPerRoute,
+        List<String> endpoints
+    ) {
+    }
+
+    /**
+     * Load balancing and health checking across the endpoints of a proxy.
+     *
+     * @param strategy         how requests are spread over healthy endpoints
+     * @param failureThreshold consecutive failures after which an endpoint is taken out of rotation
+     * @param openDuration     how long a failed endpoint stays out of rotation before it is tried again
+     * @param probeInterval    interval between active health probes of every endpoint
+     * @param probeTimeout     connect and read timeout of a health probe
+     * @param probeTarget      {@code host:port} to send a {@code CONNECT} probe for; a plain TCP connect when unset
+     */
+    public record Balancing(
+        @DefaultValue("ROUND_ROBIN") Strategy strategy,
+        @DefaultValue("3") int failureThreshold,
+        @DefaultValue("30s") Duration openDuration,
+        @DefaultValue("10s") Duration probeInterval,
+        @DefaultValue("2s") Duration probeTimeout,
+        String probeTarget
+    ) {
+
+        /**
+         * Built-in balancing strategies.
+         */
+        public enum Strategy {
+            ROUND_ROBIN,
+            LEAST_IN_FLIGHT,
+            LATENCY_EWMA
+        }
+    }
+
+    /**
+     * A routing rule. Rules are evaluated in order and the first whose host patterns match wins.
+     *
+     * @param hosts pipe-separated destination host patterns, in the same syntax as {@code non-proxy-hosts}
+     * @param proxy name of the proxy to use, {@code default} for the top-level proxy, or {@code DIRECT}
+     */
+    public record Route(
+        String hosts,
+        String proxy
+    ) {
+    }
+
+    /**
+     * Connection pool settings for the shared proxied HTTP client.
+     *
+     * @param maxTotal                 maximum number of pooled connections across all routes
+     * @param maxPerRoute              maximum number of pooled connections per route
+     * @param connectTimeout           timeout for establishing a connection
+     * @param socketTimeout            timeout for waiting on data once connected
+     * @param connectionRequestTimeout timeout for leasing a connection from the pool
+     * @param validateAfterInactivity  idle period after which a pooled connection is re-validated before reuse
+     * @param timeToLive               maximum lifetime of a pooled connection
+     * @param evictIdleAfter           idle period after which the background evictor closes a connection
+     */
+    public record Pool(
+        @DefaultValue("200") int maxTotal,
+        @DefaultValue("50") int maxPerRoute,
+        @DefaultValue("5s") Duration connectTimeout,
+        @DefaultValue("30s") Duration socketTimeout,
+        @DefaultValue("5s") Duration connectionRequestTimeout,
+        @DefaultValue("2s") Duration validateAfterInactivity,
+        @DefaultValue("5m") Duration timeToLive,
+        @DefaultValue("30s") Duration evictIdleAfter
+    ) {
+    }
+
+    /**
+     * Proxy authentication settings.
+     *
+     * @param preemptive whether Basic credentials are sent with the first request to each proxy, instead of
+     *                   after the proxy has challenged with {@code 407}
+     */
+    public record Auth(
+        boolean preemptive
+    ) {
+    }
+
+    /**
+     * Settings for the shared async HTTP client backing the proxied WebClient.
+     *
+     * @param versionPolicy HTTP protocol version policy; {@code NEGOTIATE} uses HTTP/2 via ALPN where the
+     *                      destination supports it and HTTP/1.1 otherwise
+     */
+    public record Async(
+        @DefaultValue("NEGOTIATE") HttpVersionPolicy versionPolicy
+    ) {
+    }
+
+    /**
+     * Settings for multiplexing requests of the blocking client over HTTP/2.
+     *
+     * @param enabled              whether requests through a proxy to HTTPS destinations that negotiate HTTP/2 via
+     *                             ALPN are multiplexed over one CONNECT tunnel per destination; other destinations
+     *                             keep using pooled HTTP/1.1 tunnels
+     * @param maxConcurrentStreams maximum number of requests in flight on one destination's HTTP/2 connection;
+     *                             further requests open another HTTP/2 connection
+     */
+    public record Http2(
+        boolean enabled,
+        @DefaultValue("100") int maxConcurrentStreams
+    ) {
+    }
+
+    /**
+     * Settings for the TLS context shared by all clients. Sessions are cached per destination, so new tunnels to a
+     * destination resume a session with an abbreviated handshake instead of a full one.
+     *
+     * @param sessionCacheSize maximum number of cached TLS sessions, {@code 0} for no limit
+     * @param sessionTimeout   how long a cached session may be resumed
+     */
+    public record Tls(
+        @DefaultValue("20480") int sessionCacheSize,
+        @DefaultValue("24h") Duration sessionTimeout
+    ) {
+    }
+
+    /**
+     * Settings for using the blocking client from virtual threads.
+     *
+     * @param enabled        whether the pool is tuned for many concurrent virtual-thread callers and a
+     *                       virtual-thread fan-out executor is provided
+     * @param maxPerRoute    maximum number of pooled connections per route; replaces {@code pool.max-per-route}
+     *                       and the total limit, which the virtual-thread pool does not enforce
+     * @param maxConcurrency maximum number of fan-out tasks in flight at once
+     */
+    public record VirtualThreads(
+        boolean enabled,
+        @DefaultValue("500") int maxPerRoute,
+        @DefaultValue("500") int maxConcurrency
+    ) {
+    }
+
+    /**
+     * Settings for the Micrometer binding of the blocking client, applied when a {@code MeterRegistry} bean exists.
+     *
+     * @param enabled        whether pool gauges and timers for lease wait, connect, CONNECT tunnels, proxy
+     *                       authentication challenges and requests are recorded
+     * @param perRouteGauges whether pool gauges are also recorded per destination, adding a time series per host
+     */
+    public record Metrics(
+        @DefaultValue("true") boolean enabled,
+        boolean perRouteGauges
+    ) {
+    }
+
+    /**
+     * Settings for reloading the proxy configuration at runtime.
+     *
+     * @param enabled      whether the configuration is re-read on {@code ProxyRefreshEvent} and Spring Cloud
+     *                     environment change events
+     * @param watchFile    optional properties or YAML file whose {@code proxy.*} entries are applied whenever it
+     *                     changes, overriding the environment
+     * @param drainTimeout how long replaced connection pools may finish in-flight requests before being closed
+     */
+    public record Reload(
+        @DefaultValue("true") boolean enabled,
+        String watchFile,
+        @DefaultValue("30s") Duration drainTimeout
+    ) {
+    }
+
+    /**
+     * Settings for opening connections to hot destinations at startup, so that the first requests after a deploy
+     * do not pay for new tunnels and TLS handshakes.
+     *
+     * @param enabled      whether the pool is warmed up at startup
+     * @param destinations URLs of the destinations to open connections to, e.g. the JWK set URI
+     * @param connections  number of connections opened to each destination
+     * @param timeout      how long each warm-up request may take
+     */
+    public record Warmup(
+        boolean enabled,
+        List<String> destinations,
+        @DefaultValue("4") int connections,
+        @DefaultValue("10s") Duration timeout
+    ) {
+    }
+
+    /**
+     * Settings for retrying, bounding and hedging requests of the {@code RestTemplate} and {@code RestClient}.
+     *
+     * @param enabled  whether requests are retried, bounded by {@code deadline} and hedged
+     * @param deadline optional time a request may take across all attempts until the response headers arrive
+     * @param retry    retry settings
+     * @param hedging  hedging settings
+     */
+    public record Resilience(
+        boolean enabled,
+        Duration deadline,
+        @DefaultValue Retry retry,
+        @DefaultValue Hedging hedging
+    ) {
+    }
+
+    /**
+     * Settings for retrying idempotent requests. Failures of the proxy (connect failures, refused tunnels and
+     * {@code proxyStatuses}) are retried separately from failures of the origin, as another attempt may reach a
+     * healthy proxy endpoint.
+     *
+     * @param proxyRetries   maximum number of retries after proxy failures
+     * @param originRetries  maximum number of retries after origin failures
+     * @param proxyStatuses  statuses returned by a proxy that count as proxy failures
+     * @param originStatuses statuses that count as origin failures
+     * @param backoff        delay before the first retry, doubled for every further retry
+     * @param maxBackoff     upper bound of the delay between retries
+     */
+    public record Retry(
+        @DefaultValue("2") int proxyRetries,
+        @DefaultValue("0") int originRetries,
+        @DefaultValue({"407", "502"}) List<Integer> proxyStatuses,
+        @DefaultValue({"503", "504"}) List<Integer> originStatuses,
+        @DefaultValue("100ms") Duration backoff,
+        @DefaultValue("2s") Duration maxBackoff
+    ) {
+    }
+
+    /**
+     * Settings for hedging GET requests: a request still waiting once the destination's latency percentile has
+     * passed is sent again, and the first response is used.
+     *
+     * @param enabled    whether GET requests are hedged
+     * @param percentile latency percentile of the destination after which the request is sent again
+     * @param minDelay   minimum delay before the request is sent again
+     * @param minSamples number of latencies recorded for a destination before its requests are hedged
+     */
+    public record Hedging(
+        boolean enabled,
+        @DefaultValue("0.95") double percentile,
+        @DefaultValue("20ms") Duration minDelay,
+        @DefaultValue("20") int minSamples
+    ) {
+    }
+
+    /**
+     * Settings for the HTTP response cache of the blocking clients, which requires
+     * {@code org.apache.httpcomponents.client5:httpclient5-cache}. Settings other than {@code enabled} apply when
+     * the cache is first created and are kept across reloads.
+     *
+     * @param enabled       whether responses are cached and revalidated following their {@code Cache-Control},
+     *                      {@code ETag} and {@code Last-Modified} headers
+     * @param hosts         pipe-separated destination host patterns to cache, in the same syntax as
+     *                      {@code non-proxy-hosts}; all destinations when empty
+     * @param maxEntries    maximum number of cached responses, the least recently used being evicted first
+     * @param maxObjectSize maximum size of a cached response body; larger responses are not cached
+     * @param directory     optional directory to keep cached bodies in instead of the heap
+     * @param shared        whether the cache behaves as a shared cache, not storing responses marked
+     *                      {@code private} or answering requests with {@code Authorization}
+     */
+    public record Cache(
+        boolean enabled,
+        String hosts,
+        @DefaultValue("1000") int maxEntries,
+        @DefaultValue("1MB") DataSize maxObjectSize,
+        String directory,
+        @DefaultValue("true") boolean shared
+    ) {
+    }
+
+    /**
+     * Settings for admission control of the {@code RestTemplate} and {@code RestClient}. Requests wait for a
+     * permit up to {@code queueTimeout} and are otherwise shed.
+     *
+     * @param enabled        whether requests are limited
+     * @param queueTimeout   how long a request may wait for a permit, {@code 0} to shed at once
+     * @param perDestination limits for each destination host without a matching {@code destinations} rule
+     * @param perProxy       limits for each proxy, across all destinations routed through it
+     * @param destinations   limits for destinations matching host patterns; the first matching rule wins
+     */
+    public record Limits(
+        boolean enabled,
+        @DefaultValue("0s") Duration queueTimeout,
+        @DefaultValue Limit perDestination,
+        @DefaultValue Limit perProxy,
+        List<DestinationLimit> destinations
+    ) {
+    }
+
+    /**
+     * A concurrency and rate limit; {@code 0} disables either.
+     *
+     * @param maxConcurrent maximum number of requests in flight, until their responses are closed
+     * @param rate          maximum sustained requests per second
+     * @param burst         number of requests admitted at once above the rate, one second's worth by default
+     */
+    public record Limit(
+        int maxConcurrent,
+        double rate,
+        int burst
+    ) {
+    }
+
+    /**
+     * Limits for the destinations matching host patterns, each destination host being limited separately.
+     *
+     * @param hosts         pipe-separated destination host patterns, in the same syntax as {@code non-proxy-hosts}
+     * @param maxConcurrent maximum number of requests in flight per destination, {@code 0} for no limit
+     * @param rate          maximum sustained requests per second per destination, {@code 0} for no limit
+     * @param burst         number of requests admitted at once above the rate, one second's worth by default
+     */
+    public record DestinationLimit(
+        String hosts,
+        int maxConcurrent,
+        double rate,
+        int burst
+    ) {
+    }
+
+    /**
+     * Settings for connection-level diagnostics of the blocking clients and the {@code proxy} actuator endpoint.
+     *
+     * @param enabled             whether the diagnostics hooks are installed and the endpoint is provided
+     * @param sampleRate          fraction of requests whose phases are timed and traced, from {@code 0} to {@code 1}
+     * @param slowTunnelThreshold duration above which a {@code CONNECT} exchange is kept as a slow tunnel
+     * @param history             number of slow tunnels and sampled requests kept
+     */
+    public record Diagnostics(
+        boolean enabled,
+        @DefaultValue("0.01") double sampleRate,
+        @DefaultValue("1s") Duration slowTunnelThreshold,
+        @DefaultValue("50") int history
+    ) {
+    }
 }
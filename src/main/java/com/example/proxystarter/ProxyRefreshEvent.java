@@ -0,0 +1,16 @@
+package com.example.proxystarter;
+
+import org.springframework.context.ApplicationEvent;
+
+/**
+ * Event requesting that the proxy configuration be re-read from the environment and applied if it changed.
+ * <p>
+ * Publish it after updating the {@code proxy.*} properties of the environment, e.g. from a secrets rotation
+ * hook. Spring Cloud's environment change events have the same effect.
+ */
+public class ProxyRefreshEvent extends ApplicationEvent {
+
+    public ProxyRefreshEvent(Object source) {
+        super(source);
+    }
+}
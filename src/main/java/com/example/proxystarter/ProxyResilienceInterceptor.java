@@ -0,0 +1,341 @@
+package com.example.proxystarter;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.http.HttpMethod;
+import org.springframework.http.HttpRequest;
+import org.springframework.http.client.ClientHttpRequest;
+import org.springframework.http.client.ClientHttpRequestExecution;
+import org.springframework.http.client.ClientHttpRequestFactory;
+import org.springframework.http.client.ClientHttpRequestInterceptor;
+import org.springframework.http.client.ClientHttpResponse;
+import org.springframework.util.StreamUtils;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.net.SocketTimeoutException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+/**
+ * Interceptor bounding the time a request may take and retrying idempotent requests, telling failures of the
+ * proxy apart from failures of the origin:
+ * <ul>
+ * <li>{@code proxy.resilience.deadline} bounds all attempts of a request, backoff included, until the response
+ * headers arrive. Attempts are then run on virtual threads and abandoned when the deadline passes.</li>
+ * <li>Proxy failures are connect failures to the proxy and the statuses in
+ * {@code proxy.resilience.retry.proxy-statuses}, which by default include the {@code 502} and {@code 407} a
+ * proxy refuses a {@code CONNECT} tunnel with. They are retried up to {@code proxy-retries} times, since
+ * another attempt may reach a healthy proxy endpoint.</li>
+ * <li>Origin failures are other I/O errors and the statuses in {@code origin-statuses}, retried up to
+ * {@code origin-retries} times.</li>
+ * <li>With {@code proxy.resilience.hedging.enabled}, a GET still waiting after the destination's latency
+ * percentile is sent a second time, and the first response wins.</li>
+ * </ul>
+ * Non-idempotent requests are never retried or hedged.
+ * <p>
+ * Every attempt is a new request from the factory beneath the interceptor, carrying the headers, attributes and
+ * body of the original, so that the interceptors of that factory, such as the limits, run once per attempt. The
+ * interceptor therefore does not proceed with its {@link ClientHttpRequestExecution} and must be the last of
+ * its chain.
+ */
+class ProxyResilienceInterceptor implements ClientHttpRequestInterceptor {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(ProxyResilienceInterceptor.class);
+
+    private static final Set<HttpMethod> IDEMPOTENT_METHODS = Set.of(HttpMethod.GET, HttpMethod.HEAD,
+            HttpMethod.OPTIONS, HttpMethod.PUT, HttpMethod.DELETE, HttpMethod.TRACE);
+
+    private enum Failure {
+        PROXY, ORIGIN
+    }
+
+    // Latency trackers kept before stale ones are dropped; past that, new destinations are not hedged
+    private static final int MAX_DESTINATIONS = 1024;
+
+    private static final long STALE_NANOS = TimeUnit.MINUTES.toNanos(1);
+
+    private final Supplier<ProxyRouting> routing;
+
+    private final Supplier<ProxyProperties.Resilience> settings;
+
+    private final ClientHttpRequestFactory requestFactory;
+
+    private final ExecutorService executor;
+
+    private final Map<String, LatencyTracker> latencies = new ConcurrentHashMap<>();
+
+    /**
+     * Creates the interceptor.
+     *
+     * @param routing        the current routing
+     * @param settings       the current resilience settings
+     * @param requestFactory the factory creating the request of each attempt
+     * @param executor       the executor running attempts that are waited on, owned by the caller
+     */
+    ProxyResilienceInterceptor(Supplier<ProxyRouting> routing, Supplier<ProxyProperties.Resilience> settings,
+                               ClientHttpRequestFactory requestFactory, ExecutorService executor) {
+        this.routing = routing;
+        this.settings = settings;
+        this.requestFactory = requestFactory;
+        this.executor = executor;
+    }
+
+    @Override
+    public ClientHttpResponse intercept(HttpRequest request, byte[] body, ClientHttpRequestExecution execution)
+            throws IOException {
+        ProxyProperties.Resilience resilience = settings.get();
+        if (!resilience.enabled()) {
+            return attempt(request, body);
+        }
+        ProxyProperties.Retry retry = resilience.retry();
+        long deadline = resilience.deadline() != null ? System.nanoTime() + resilience.deadline().toNanos() : 0;
+        boolean idempotent = IDEMPOTENT_METHODS.contains(request.getMethod());
+        boolean proxied = routing.get().resolve(request.getURI().getHost()) != null;
+
+        int proxyFailures = 0;
+        int originFailures = 0;
+        for (int attempt = 1; ; attempt++) {
+            ClientHttpResponse response = null;
+            IOException exception = null;
+            Failure failure;
+            try {
+                response = execute(request, body, resilience, deadline, idempotent);
+                failure = classify(response.getStatusCode().value(), proxied, retry);
+                if (failure == null) {
+                    return response;
+                }
+            } catch (DeadlineExceededException ex) {
+                throw ex;
+            } catch (IOException ex) {
+                exception = ex;
+                failure = proxied && isProxyFailure(ex) ? Failure.PROXY : Failure.ORIGIN;
+            }
+
+            boolean retryable = idempotent && (failure == Failure.PROXY
+                    ? ++proxyFailures <= retry.proxyRetries()
+                    : ++originFailures <= retry.originRetries());
+            long backoff = backoffNanos(retry, attempt);
+            if (retryable && deadline != 0 && System.nanoTime() + backoff - deadline >= 0) {
+                retryable = false;
+            }
+            if (!retryable) {
+                if (exception != null) {
+                    throw exception;
+                }
+                return response;
+            }
+            LOGGER.debug("Retrying {} {} after {} failure: {}", request.getMethod(), request.getURI(), failure,
+                    exception != null ? exception.toString() : response.getStatusCode());
+            if (response != null) {
+                response.close();
+            }
+            sleep(backoff);
+        }
+    }
+
+    private ClientHttpResponse execute(HttpRequest request, byte[] body, ProxyProperties.Resilience resilience,
+                                       long deadline, boolean idempotent) throws IOException {
+        ProxyProperties.Hedging hedging = resilience.hedging();
+        LatencyTracker tracker = hedging.enabled() && idempotent && request.getMethod() == HttpMethod.GET
+                ? tracker(request.getURI().getHost(), hedging)
+                : null;
+        if (deadline == 0 && tracker == null) {
+            // Nothing to wait on, so the request runs on the caller's thread
+            return attempt(request, body);
+        }
+
+        ExecutorCompletionService<ClientHttpResponse> completion = new ExecutorCompletionService<>(executor);
+        List<Attempt> attempts = new ArrayList<>(2);
+        attempts.add(submit(completion, () -> attempt(request, body), tracker));
+        long hedgeDelay = tracker != null ? tracker.percentileNanos(hedging.minSamples()) : -1;
+        if (hedgeDelay >= 0) {
+            hedgeDelay = Math.max(hedgeDelay, hedging.minDelay().toNanos());
+        }
+        long hedgeAt = hedgeDelay >= 0 ? System.nanoTime() + hedgeDelay : 0;
+        try {
+            int outstanding = 1;
+            while (true) {
+                long now = System.nanoTime();
+                long wait = Long.MAX_VALUE;
+                if (deadline != 0) {
+                    wait = deadline - now;
+                }
+                if (hedgeAt != 0) {
+                    wait = Math.min(wait, hedgeAt - now);
+                }
+                Future<ClientHttpResponse> done = wait == Long.MAX_VALUE
+                        ? completion.take()
+                        : completion.poll(Math.max(0, wait), TimeUnit.NANOSECONDS);
+                if (done != null) {
+                    outstanding--;
+                    try {
+                        ClientHttpResponse response = done.get();
+                        attempts.removeIf(attempt -> attempt.future == done);
+                        return response;
+                    } catch (ExecutionException ex) {
+                        IOException failure = unwrap(ex);
+                        if (outstanding == 0) {
+                            // Failures go back to the retry policy rather than being hedged
+                            throw failure;
+                        }
+                    }
+                }
+                if (hedgeAt != 0 && System.nanoTime() - hedgeAt >= 0) {
+                    LOGGER.debug("Hedging {} {}", request.getMethod(), request.getURI());
+                    attempts.add(submit(completion, () -> attempt(request, body), tracker));
+                    outstanding++;
+                    hedgeAt = 0;
+                } else if (deadline != 0 && System.nanoTime() - deadline >= 0) {
+                    throw new DeadlineExceededException("Deadline of " + resilience.deadline() + " exceeded for "
+                            + request.getMethod() + " " + request.getURI());
+                }
+            }
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted waiting for " + request.getURI());
+        } finally {
+            // Attempts still running lost the race or ran out of time
+            attempts.forEach(Attempt::abandon);
+        }
+    }
+
+    private ClientHttpResponse attempt(HttpRequest request, byte[] body) throws IOException {
+        ClientHttpRequest attempt = requestFactory.createRequest(request.getURI(), request.getMethod());
+        request.getHeaders().forEach((name, values) -> attempt.getHeaders().addAll(name, values));
+        attempt.getAttributes().putAll(request.getAttributes());
+        if (body.length > 0) {
+            StreamUtils.copy(body, attempt.getBody());
+        }
+        return attempt.execute();
+    }
+
+    private LatencyTracker tracker(String host, ProxyProperties.Hedging hedging) {
+        if (host == null) {
+            return null;
+        }
+        LatencyTracker tracker = latencies.get(host);
+        if (tracker != null) {
+            return tracker;
+        }
+        if (latencies.size() >= MAX_DESTINATIONS) {
+            long now = System.nanoTime();
+            latencies.values().removeIf(existing -> existing.isStale(now, STALE_NANOS));
+            if (latencies.size() >= MAX_DESTINATIONS) {
+                return null;
+            }
+        }
+        return latencies.computeIfAbsent(host, key -> new LatencyTracker(hedging.percentile()));
+    }
+
+    private Attempt submit(ExecutorCompletionService<ClientHttpResponse> completion, Callable<ClientHttpResponse> call,
+                           LatencyTracker tracker) {
+        Attempt attempt = new Attempt(call, tracker);
+        attempt.future = completion.submit(attempt);
+        return attempt;
+    }
+
+    private static Failure classify(int status, boolean proxied, ProxyProperties.Retry retry) {
+        if (proxied && retry.proxyStatuses().contains(status)) {
+            return Failure.PROXY;
+        }
+        if (retry.originStatuses().contains(status)) {
+            return Failure.ORIGIN;
+        }
+        return null;
+    }
+
+    private static boolean isProxyFailure(IOException ex) {
+        // On a proxied route the client only ever connects to the proxy; a refused tunnel arrives as a status
+        return ProxyBalancer.isProxyConnectFailure(ex);
+    }
+
+    private static long backoffNanos(ProxyProperties.Retry retry, int attempt) {
+        long base = retry.backoff().toNanos() << Math.min(attempt - 1, 20);
+        long capped = Math.min(base, retry.maxBackoff().toNanos());
+        // Equal jitter keeps retries of many callers from arriving in lockstep
+        return capped / 2 + ThreadLocalRandom.current().nextLong(capped / 2 + 1);
+    }
+
+    private static void sleep(long nanos) throws InterruptedIOException {
+        try {
+            TimeUnit.NANOSECONDS.sleep(nanos);
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted during retry backoff");
+        }
+    }
+
+    private static IOException unwrap(ExecutionException ex) {
+        Throwable cause = ex.getCause();
+        if (cause instanceof IOException io) {
+            return io;
+        }
+        if (cause instanceof RuntimeException runtime) {
+            throw runtime;
+        }
+        throw new IllegalStateException(cause);
+    }
+
+    /**
+     * One execution of the request, recording its latency and closing its response if it completes after the
+     * caller moved on.
+     */
+    private static final class Attempt implements Callable<ClientHttpResponse> {
+
+        private final Callable<ClientHttpResponse> call;
+
+        private final LatencyTracker tracker;
+
+        private volatile boolean abandoned;
+
+        private Future<ClientHttpResponse> future;
+
+        private Attempt(Callable<ClientHttpResponse> call, LatencyTracker tracker) {
+            this.call = call;
+            this.tracker = tracker;
+        }
+
+        @Override
+        public ClientHttpResponse call() throws Exception {
+            long start = System.nanoTime();
+            ClientHttpResponse response = call.call();
+            if (tracker != null) {
+                tracker.record(System.nanoTime() - start);
+            }
+            if (abandoned) {
+                response.close();
+            }
+            return response;
+        }
+
+        private void abandon() {
+            abandoned = true;
+            // Interrupting a virtual thread blocked on a socket closes the socket
+            if (!future.cancel(true) && future.state() == Future.State.SUCCESS) {
+                future.resultNow().close();
+            }
+        }
+    }
+
+    /**
+     * Thrown when a request's deadline passes before a response arrives. Not retried.
+     */
+    static class DeadlineExceededException extends SocketTimeoutException {
+
+        DeadlineExceededException(String message) {
+            super(message);
+        }
+    }
+}
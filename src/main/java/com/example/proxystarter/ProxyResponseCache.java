@@ -0,0 +1,159 @@
+package com.example.proxystarter;
+
+import org.apache.hc.client5.http.cache.CacheResponseStatus;
+import org.apache.hc.client5.http.cache.HttpCacheContext;
+import org.apache.hc.client5.http.cache.HttpCacheStorage;
+import org.apache.hc.client5.http.cache.ResourceFactory;
+import org.apache.hc.client5.http.classic.ExecChain;
+import org.apache.hc.client5.http.classic.ExecChainHandler;
+import org.apache.hc.client5.http.impl.ChainElement;
+import org.apache.hc.client5.http.impl.cache.BasicHttpCacheStorage;
+import org.apache.hc.client5.http.impl.cache.CacheConfig;
+import org.apache.hc.client5.http.impl.cache.CachingHttpClientBuilder;
+import org.apache.hc.client5.http.impl.cache.FileResourceFactory;
+import org.apache.hc.client5.http.impl.cache.HeapResourceFactory;
+import org.apache.hc.client5.http.impl.cache.ManagedHttpCacheStorage;
+import org.apache.hc.client5.http.impl.classic.HttpClientBuilder;
+import org.apache.hc.core5.http.ClassicHttpRequest;
+import org.apache.hc.core5.http.ClassicHttpResponse;
+import org.apache.hc.core5.http.HttpException;
+import org.apache.hc.core5.http.Method;
+import org.apache.hc.core5.http.config.NamedElementChain;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.io.IOException;
+
+/**
+ * HTTP cache in front of the blocking clients, backed by {@code httpclient5-cache}.
+ * <p>
+ * Responses are stored and revalidated following {@code Cache-Control}, {@code ETag} and {@code Last-Modified},
+ * so a fresh entry is answered without a round trip through the proxy and a stale one costs a conditional
+ * request answered with {@code 304}. The storage is shared by the clients of all proxies and survives reloads.
+ * It holds at most {@code proxy.cache.max-entries} entries of at most {@code max-object-size} each, evicting
+ * the least recently used; with {@code proxy.cache.directory} the bodies are kept in files instead of the heap.
+ * Requests to destinations not matching {@code proxy.cache.hosts} bypass the cache.
+ */
+final class ProxyResponseCache implements AutoCloseable {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(ProxyResponseCache.class);
+
+    private final CacheConfig config;
+
+    private final HttpCacheStorage storage;
+
+    private final ResourceFactory resourceFactory;
+
+    private final NonProxyHostsMatcher hosts;
+
+    private final ProxyClientInstrumentation instrumentation;
+
+    ProxyResponseCache(ProxyProperties.Cache cache, int routeCacheSize, ProxyClientInstrumentation instrumentation) {
+        this.config = CacheConfig.custom()
+                .setMaxCacheEntries(cache.maxEntries())
+                .setMaxObjectSize(cache.maxObjectSize().toBytes())
+                .setSharedCache(cache.shared())
+                .build();
+        if (cache.directory() != null && !cache.directory().isEmpty()) {
+            File directory = new File(cache.directory());
+            if (!directory.isDirectory() && !directory.mkdirs()) {
+                throw new IllegalStateException("Cannot create proxy cache directory " + directory);
+            }
+            LOGGER.info("Caching proxied responses in {}", directory.getAbsolutePath());
+            // Deletes the files of evicted entries once no response reads them any more
+            this.storage = new ManagedHttpCacheStorage(config);
+            this.resourceFactory = new FileResourceFactory(directory);
+        } else {
+            this.storage = new BasicHttpCacheStorage(config);
+            this.resourceFactory = HeapResourceFactory.INSTANCE;
+        }
+        this.hosts = cache.hosts() != null && !cache.hosts().isEmpty()
+                ? new NonProxyHostsMatcher(cache.hosts(), routeCacheSize)
+                : null;
+        this.instrumentation = instrumentation;
+    }
+
+    /**
+     * Creates a builder for a client whose requests go through this cache.
+     *
+     * @param proxy the name of the proxy the client routes through
+     * @return the client builder
+     */
+    HttpClientBuilder createClientBuilder(String proxy) {
+        return new Builder(proxy)
+                .setCacheConfig(config)
+                .setHttpCacheStorage(storage)
+                .setResourceFactory(resourceFactory);
+    }
+
+    @Override
+    public void close() {
+        if (storage instanceof ManagedHttpCacheStorage managed) {
+            managed.shutdown();
+        }
+    }
+
+    private static String result(Object status) {
+        if (!(status instanceof CacheResponseStatus cacheStatus)) {
+            return "UNKNOWN";
+        }
+        return switch (cacheStatus) {
+            case CACHE_HIT -> "HIT";
+            case CACHE_MISS -> "MISS";
+            case VALIDATED -> "VALIDATED";
+            default -> cacheStatus.name();
+        };
+    }
+
+    /**
+     * Builder replacing the caching element of the exec chain by one that only caches the configured hosts and
+     * reports the outcome of each lookup.
+     */
+    private final class Builder extends CachingHttpClientBuilder {
+
+        private final String proxy;
+
+        private Builder(String proxy) {
+            this.proxy = proxy;
+        }
+
+        @Override
+        protected void customizeExecChain(NamedElementChain<ExecChainHandler> execChainDefinition) {
+            super.customizeExecChain(execChainDefinition);
+            NamedElementChain<ExecChainHandler>.Node caching = execChainDefinition.find(ChainElement.CACHING.name());
+            if (caching == null) {
+                return;
+            }
+            execChainDefinition.replace(ChainElement.CACHING.name(), new HostCacheHandler(caching.getValue(), proxy));
+        }
+    }
+
+    private final class HostCacheHandler implements ExecChainHandler {
+
+        private final ExecChainHandler delegate;
+
+        private final String proxy;
+
+        private HostCacheHandler(ExecChainHandler delegate, String proxy) {
+            this.delegate = delegate;
+            this.proxy = proxy;
+        }
+
+        @Override
+        public ClassicHttpResponse execute(ClassicHttpRequest request, ExecChain.Scope scope, ExecChain chain)
+                throws IOException, HttpException {
+            if (hosts != null && !hosts.matches(scope.route.getTargetHost().getHostName())) {
+                return chain.proceed(request, scope);
+            }
+            // Unsafe methods still go through the cache, which invalidates the entries they change
+            ClassicHttpResponse response = delegate.execute(request, scope, chain);
+            if (instrumentation != null
+                    && (Method.GET.isSame(request.getMethod()) || Method.HEAD.isSame(request.getMethod()))) {
+                instrumentation.recordCacheResult(proxy,
+                        result(scope.clientContext.getAttribute(HttpCacheContext.CACHE_RESPONSE_STATUS)));
+            }
+            return response;
+        }
+    }
+}
@@ -0,0 +1,61 @@
+package com.example.proxystarter;
+
+import org.apache.hc.client5.http.impl.routing.DefaultRoutePlanner;
+import org.apache.hc.core5.http.HttpHost;
+import org.apache.hc.core5.http.protocol.HttpContext;
+
+import java.util.function.Supplier;
+
+/**
+ * Route planner choosing the proxy for each target from {@link ProxyRouting}. Targets matching
+ * {@code proxy.non-proxy-hosts} or a {@code DIRECT} rule go direct and skip the proxy hop. For proxies with
+ * several endpoints, the endpoint is picked by the proxy's {@link ProxyBalancer}, unless the context already
+ * names it in {@link #PROXY_HOST_ATTRIBUTE}.
+ */
+class ProxyRoutePlanner extends DefaultRoutePlanner {
+
+    /**
+     * Context attribute holding a proxy endpoint already chosen for the request.
+     */
+    static final String PROXY_HOST_ATTRIBUTE = "proxy.endpoint";
+
+    private final Supplier<ProxyRouting> routing;
+
+    private final ProxyDefinition proxy;
+
+    /**
+     * Creates a planner resolving the proxy per target.
+     */
+    ProxyRoutePlanner(ProxyRouting routing) {
+        this(() -> routing);
+    }
+
+    /**
+     * Creates a planner resolving the proxy per target from the current routing, which may be replaced at runtime.
+     */
+    ProxyRoutePlanner(Supplier<ProxyRouting> routing) {
+        super(null);
+        this.routing = routing;
+        this.proxy = null;
+    }
+
+    /**
+     * Creates a planner for a client dedicated to one proxy, which only picks among that proxy's endpoints.
+     */
+    ProxyRoutePlanner(ProxyRouting routing, ProxyDefinition proxy) {
+        super(null);
+        this.routing = () -> routing;
+        this.proxy = proxy;
+    }
+
+    @Override
+    protected HttpHost determineProxy(HttpHost target, HttpContext context) {
+        if (context != null && context.getAttribute(PROXY_HOST_ATTRIBUTE) instanceof HttpHost chosen) {
+            return chosen;
+        }
+        if (proxy != null) {
+            return routing.get().selectEndpoint(proxy);
+        }
+        return routing.get().resolveProxyHost(target.getHostName());
+    }
+}
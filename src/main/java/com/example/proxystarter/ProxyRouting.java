@@ -0,0 +1,203 @@
+package com.example.proxystarter;
+
+import org.apache.hc.core5.http.HttpHost;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Compiled routing rules deciding which proxy, if any, a destination host goes through.
+ * <p>
+ * Hosts matching {@code proxy.non-proxy-hosts} go direct. Otherwise the first {@code proxy.routes} rule whose
+ * host patterns match decides, naming a proxy or {@value #DIRECT}. Hosts matching no rule use the top-level
+ * proxy, or go direct when there is none. Decisions are cached per host in a bounded LRU map.
+ */
+public final class ProxyRouting {
+
+    public static final String DIRECT = "DIRECT";
+
+    public static final String DEFAULT_PROXY = "default";
+
+    private final Map<String, ProxyDefinition> proxies;
+
+    private final Map<String, ProxyBalancer> balancers;
+
+    private final Map<HttpHost, ProxyDefinition> proxiesByEndpoint;
+
+    private final NonProxyHostsMatcher nonProxyHosts;
+
+    private final List<Rule> rules;
+
+    private final String fallback;
+
+    private final DecisionCache<String> decisions;
+
+    public ProxyRouting(ProxyProperties proxyProperties) {
+        this(proxyProperties, null);
+    }
+
+    /**
+     * Creates the routing.
+     *
+     * @param proxyProperties  the proxy properties
+     * @param balancingStrategy the strategy for proxies with several endpoints, or {@code null} to use
+     *                          {@code proxy.balancing.strategy}
+     */
+    public ProxyRouting(ProxyProperties proxyProperties, ProxyBalancingStrategy balancingStrategy) {
+        ProxyProperties.Pool pool = proxyProperties.pool();
+        Map<String, ProxyDefinition> definitions = new LinkedHashMap<>();
+        if (proxyProperties.enabled()) {
+            if (proxyProperties.host() != null && !proxyProperties.host().isEmpty()) {
+                definitions.put(DEFAULT_PROXY, new ProxyDefinition(DEFAULT_PROXY,
+                        endpoints(proxyProperties.host(), proxyProperties.port(), proxyProperties.endpoints()),
+                        proxyProperties.username(), proxyProperties.password(),
+                        pool.maxTotal(), pool.maxPerRoute()));
+            }
+            if (proxyProperties.proxies() != null) {
+                proxyProperties.proxies().forEach((name, proxy) -> {
+                    if (DEFAULT_PROXY.equals(name) || DIRECT.equalsIgnoreCase(name)) {
+                        throw new IllegalStateException("Proxy name '" + name + "' is reserved");
+                    }
+                    definitions.put(name, new ProxyDefinition(name, endpoints(proxy.host(), proxy.port(), proxy.endpoints()),
+                            proxy.username(), proxy.password(),
+                            proxy.maxTotal() != null ? proxy.maxTotal() : pool.maxTotal(),
+                            proxy.maxPerRoute() != null ? proxy.maxPerRoute() : pool.maxPerRoute()));
+                });
+            }
+        }
+        this.proxies = Collections.unmodifiableMap(definitions);
+        Map<HttpHost, ProxyDefinition> byEndpoint = new HashMap<>();
+        for (ProxyDefinition proxy : definitions.values()) {
+            for (HttpHost endpoint : proxy.endpoints()) {
+                byEndpoint.putIfAbsent(endpoint, proxy);
+            }
+        }
+        this.proxiesByEndpoint = Map.copyOf(byEndpoint);
+
+        Map<String, ProxyBalancer> balancersByName = new LinkedHashMap<>();
+        for (ProxyDefinition proxy : definitions.values()) {
+            if (proxy.endpoints().size() > 1) {
+                ProxyBalancingStrategy strategy = balancingStrategy != null
+                        ? balancingStrategy : ProxyBalancingStrategy.of(proxyProperties.balancing().strategy());
+                balancersByName.put(proxy.name(), new ProxyBalancer(proxy.name(), proxy.endpoints(), strategy,
+                        proxyProperties.balancing()));
+            }
+        }
+        this.balancers = Collections.unmodifiableMap(balancersByName);
+        // Only evaluated behind the routing decisions, which cache the outcome already
+        this.nonProxyHosts = new NonProxyHostsMatcher(proxyProperties.nonProxyHosts(), 0);
+
+        List<Rule> compiled = new ArrayList<>();
+        if (proxyProperties.enabled() && proxyProperties.routes() != null) {
+            for (ProxyProperties.Route route : proxyProperties.routes()) {
+                String target = route.proxy() == null || DIRECT.equalsIgnoreCase(route.proxy()) ? DIRECT : route.proxy();
+                if (!DIRECT.equals(target) && !definitions.containsKey(target)) {
+                    throw new IllegalStateException("Route for '" + route.hosts() + "' refers to unknown proxy '" + target + "'");
+                }
+                compiled.add(new Rule(new NonProxyHostsMatcher(route.hosts(), 0), target));
+            }
+        }
+        this.rules = List.copyOf(compiled);
+        this.fallback = definitions.containsKey(DEFAULT_PROXY) ? DEFAULT_PROXY : DIRECT;
+        this.decisions = new DecisionCache<>(proxyProperties.routeCacheSize());
+    }
+
+    /**
+     * Resolves the proxy for a destination host.
+     *
+     * @param host the destination host name or IP literal, or {@code null} if unknown
+     * @return the proxy to use, or {@code null} to connect directly
+     */
+    public ProxyDefinition resolve(String host) {
+        if (proxies.isEmpty()) {
+            return null;
+        }
+        if (host == null) {
+            return proxies.get(fallback);
+        }
+        return proxies.get(decisions.get(host, this::evaluate));
+    }
+
+    /**
+     * Resolves the proxy address for a destination host, balancing across the proxy's endpoints.
+     *
+     * @param host the destination host name or IP literal
+     * @return the proxy address, or {@code null} to connect directly
+     */
+    public HttpHost resolveProxyHost(String host) {
+        ProxyDefinition proxy = resolve(host);
+        return proxy != null ? selectEndpoint(proxy) : null;
+    }
+
+    /**
+     * Selects the address to use for the next request through the given proxy.
+     *
+     * @param proxy the proxy
+     * @return the primary address, or the endpoint chosen by the proxy's balancer if it has several
+     */
+    public HttpHost selectEndpoint(ProxyDefinition proxy) {
+        ProxyBalancer balancer = balancers.get(proxy.name());
+        return balancer != null ? balancer.select().getHost() : proxy.proxyHost();
+    }
+
+    /**
+     * Returns the balancers of proxies with several endpoints, by proxy name.
+     */
+    public Map<String, ProxyBalancer> getBalancers() {
+        return balancers;
+    }
+
+    /**
+     * Returns all configured proxies by name, the top-level proxy first.
+     */
+    public Map<String, ProxyDefinition> getProxies() {
+        return proxies;
+    }
+
+    /**
+     * Returns the configured proxy with the given address.
+     *
+     * @param host the proxy host name
+     * @param port the proxy port
+     * @return the proxy, or {@code null} if no configured proxy has this address
+     */
+    public ProxyDefinition findByAddress(String host, int port) {
+        // HttpHost compares host names case-insensitively
+        return host != null ? proxiesByEndpoint.get(new HttpHost(host, port)) : null;
+    }
+
+    private String evaluate(String host) {
+        if (nonProxyHosts.evaluate(host)) {
+            return DIRECT;
+        }
+        for (Rule rule : rules) {
+            if (rule.hosts().evaluate(host)) {
+                return rule.proxy();
+            }
+        }
+        return fallback;
+    }
+
+    private static List<HttpHost> endpoints(String host, int port, List<String> additional) {
+        List<HttpHost> endpoints = new ArrayList<>();
+        endpoints.add(new HttpHost(host, port));
+        if (additional != null) {
+            for (String endpoint : additional) {
+                int colon = endpoint.lastIndexOf(':');
+                if (colon <= 0) {
+                    throw new IllegalStateException("Proxy endpoint '" + endpoint + "' must be host:port");
+                }
+                endpoints.add(new HttpHost(endpoint.substring(0, colon).trim(),
+                        Integer.parseInt(endpoint.substring(colon + 1).trim())));
+            }
+        }
+        return List.copyOf(endpoints);
+    }
+
+    private record Rule(NonProxyHostsMatcher hosts, String proxy) {
+    }
+}
@@ -0,0 +1,296 @@
+package com.example.proxystarter;
+
+import org.apache.hc.client5.http.impl.async.CloseableHttpAsyncClient;
+import org.apache.hc.client5.http.impl.classic.CloseableHttpClient;
+import org.apache.hc.client5.http.impl.classic.CloseableHttpResponse;
+import org.apache.hc.client5.http.impl.io.PoolingHttpClientConnectionManager;
+import org.apache.hc.core5.http.ClassicHttpRequest;
+import org.apache.hc.core5.http.HttpHost;
+import org.apache.hc.core5.http.protocol.HttpContext;
+import org.apache.hc.core5.io.CloseMode;
+import org.apache.hc.core5.net.URIAuthority;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.time.Duration;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Supplier;
+
+/**
+ * HTTP client dispatching each request to the client of the proxy chosen by {@link ProxyRouting}, or to the
+ * direct client. Every proxy has its own client and connection pool, so heavy traffic through one proxy cannot
+ * exhaust the connections available to another. The clients may be supplied lazily, in which case they and
+ * their pools are built on the first request. The routing and clients can be replaced at runtime with
+ * {@link #reload}.
+ */
+public class ProxyRoutingHttpClient extends CloseableHttpClient {
+
+    /**
+     * A client and the connection pool it leases from.
+     *
+     * @param name              the proxy name, or {@value ProxyRouting#DIRECT}
+     * @param client            the client
+     * @param connectionManager the client's connection pool
+     * @param balancer          the balancer over the proxy's endpoints, or {@code null} for a single endpoint
+     * @param http2Client       the client multiplexing HTTPS requests over HTTP/2, or {@code null} if disabled
+     */
+    public record RoutedClient(String name, CloseableHttpClient client, PoolingHttpClientConnectionManager connectionManager,
+                               ProxyBalancer balancer, CloseableHttpAsyncClient http2Client) {
+
+        public RoutedClient(String name, CloseableHttpClient client, PoolingHttpClientConnectionManager connectionManager,
+                            ProxyBalancer balancer) {
+            this(name, client, connectionManager, balancer, null);
+        }
+
+        /**
+         * Returns how many other endpoints a request may fail over to when the proxy cannot be reached.
+         */
+        int failoverAttempts() {
+            return balancer != null ? balancer.getEndpoints().size() - 1 : 0;
+        }
+    }
+
+    /**
+     * The routing and the clients built for it.
+     *
+     * @param routing      the routing
+     * @param proxyClients the per-proxy clients by proxy name
+     * @param directClient the client for destinations that bypass the proxies
+     */
+    public record Clients(ProxyRouting routing, Map<String, RoutedClient> proxyClients, RoutedClient directClient) {
+    }
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(ProxyRoutingHttpClient.class);
+
+    private static final long DRAIN_POLL_MILLIS = 100;
+
+    private volatile Generation current;
+
+    // Builds the first generation; null once it has been built
+    private Supplier<Clients> initializer;
+
+    private final Lock lock = new ReentrantLock();
+
+    private final Set<Generation> draining = ConcurrentHashMap.newKeySet();
+
+    public ProxyRoutingHttpClient(ProxyRouting routing, Map<String, RoutedClient> proxyClients, RoutedClient directClient) {
+        this.current = new Generation(new Clients(routing, proxyClients, directClient));
+    }
+
+    /**
+     * Creates a client whose routing and clients are obtained from the given supplier on first use.
+     *
+     * @param clients supplies the routing and clients
+     */
+    public ProxyRoutingHttpClient(Supplier<Clients> clients) {
+        this.initializer = clients;
+    }
+
+    /**
+     * Returns whether the clients and their connection pools have been built.
+     */
+    public boolean isInitialized() {
+        return current != null;
+    }
+
+    /**
+     * Returns the client used for the given destination host.
+     *
+     * @param host the destination host, or {@code null} if unknown
+     * @return the routed client
+     */
+    public RoutedClient route(String host) {
+        return current().route(host);
+    }
+
+    /**
+     * Returns the per-proxy clients by proxy name.
+     */
+    public Map<String, RoutedClient> getProxyClients() {
+        return current().proxyClients;
+    }
+
+    /**
+     * Returns the client used for destinations that bypass the proxies.
+     */
+    public RoutedClient getDirectClient() {
+        return current().directClient;
+    }
+
+    /**
+     * Atomically replaces the routing and clients. Requests started afterwards use the new clients; the previous
+     * clients finish their in-flight requests and are closed once none of their connections is leased any more,
+     * or after {@code drainTimeout}. If no request has been sent yet, the new clients are only built on first use.
+     *
+     * @param clients      supplies the new routing and clients
+     * @param drainTimeout how long to wait for in-flight requests on the previous clients
+     */
+    public void reload(Supplier<Clients> clients, Duration drainTimeout) {
+        Generation previous;
+        lock.lock();
+        try {
+            previous = current;
+            if (previous == null) {
+                initializer = clients;
+                return;
+            }
+            current = new Generation(clients.get());
+        } finally {
+            lock.unlock();
+        }
+        previous.retired = true;
+        draining.add(previous);
+        long deadline = System.nanoTime() + drainTimeout.toNanos();
+        Thread.ofPlatform().daemon().name("proxy-pool-drain").start(() -> drain(previous, deadline));
+    }
+
+    @Override
+    @SuppressWarnings("deprecation")
+    protected CloseableHttpResponse doExecute(HttpHost target, ClassicHttpRequest request, HttpContext context) throws IOException {
+        Generation generation = acquire();
+        try {
+            RoutedClient routedClient = generation.route(targetHost(target, request));
+            for (int attempt = 0; ; attempt++) {
+                try {
+                    return routedClient.client().execute(target, request, context);
+                } catch (IOException ex) {
+                    // The request never left when the proxy could not be reached, so another endpoint can take it
+                    if (attempt >= routedClient.failoverAttempts() || !ProxyBalancer.isProxyConnectFailure(ex)) {
+                        throw ex;
+                    }
+                    LOGGER.debug("Proxy {} unreachable, failing over: {}", routedClient.name(), ex.getMessage());
+                }
+            }
+        } finally {
+            generation.inFlight.decrementAndGet();
+        }
+    }
+
+    @Override
+    public void close(CloseMode closeMode) {
+        for (Generation generation : draining) {
+            generation.close(closeMode);
+        }
+        Generation generation = current;
+        if (generation != null) {
+            generation.close(closeMode);
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        close(CloseMode.GRACEFUL);
+    }
+
+    private Generation current() {
+        Generation generation = current;
+        if (generation == null) {
+            lock.lock();
+            try {
+                generation = current;
+                if (generation == null) {
+                    generation = new Generation(initializer.get());
+                    initializer = null;
+                    current = generation;
+                }
+            } finally {
+                lock.unlock();
+            }
+        }
+        return generation;
+    }
+
+    private Generation acquire() {
+        while (true) {
+            Generation generation = current();
+            generation.inFlight.incrementAndGet();
+            // A generation retired between reading and counting may already be draining; use the new one
+            if (!generation.retired) {
+                return generation;
+            }
+            generation.inFlight.decrementAndGet();
+        }
+    }
+
+    private void drain(Generation generation, long deadlineNanos) {
+        try {
+            while (!generation.isIdle()) {
+                if (System.nanoTime() - deadlineNanos >= 0) {
+                    LOGGER.warn("Proxy clients still busy after drain timeout, closing them");
+                    break;
+                }
+                Thread.sleep(DRAIN_POLL_MILLIS);
+            }
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        }
+        LOGGER.info("Closing proxy clients replaced by reload");
+        generation.close(CloseMode.GRACEFUL);
+        draining.remove(generation);
+    }
+
+    private static String targetHost(HttpHost target, ClassicHttpRequest request) {
+        if (target != null) {
+            return target.getHostName();
+        }
+        // Spring's request factory passes no target; the host comes from the request URI
+        URIAuthority authority = request.getAuthority();
+        return authority != null ? authority.getHostName() : null;
+    }
+
+    /**
+     * One set of routing rules and the clients built for it.
+     */
+    private static final class Generation {
+
+        private final ProxyRouting routing;
+
+        private final Map<String, RoutedClient> proxyClients;
+
+        private final RoutedClient directClient;
+
+        private final AtomicInteger inFlight = new AtomicInteger();
+
+        private volatile boolean retired;
+
+        private Generation(Clients clients) {
+            this.routing = clients.routing();
+            this.proxyClients = Map.copyOf(clients.proxyClients());
+            this.directClient = clients.directClient();
+        }
+
+        private RoutedClient route(String host) {
+            ProxyDefinition proxy = routing.resolve(host);
+            return proxy != null ? proxyClients.get(proxy.name()) : directClient;
+        }
+
+        private boolean isIdle() {
+            // Leased connections cover response bodies still being read after doExecute returned
+            if (inFlight.get() > 0 || directClient.connectionManager().getTotalStats().getLeased() > 0) {
+                return false;
+            }
+            for (RoutedClient routedClient : proxyClients.values()) {
+                if (routedClient.connectionManager().getTotalStats().getLeased() > 0) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        private void close(CloseMode closeMode) {
+            for (RoutedClient routedClient : proxyClients.values()) {
+                routedClient.client().close(closeMode);
+                if (routedClient.http2Client() != null) {
+                    routedClient.http2Client().close(closeMode);
+                }
+            }
+            directClient.client().close(closeMode);
+        }
+    }
+}
@@ -0,0 +1,63 @@
+package com.example.proxystarter;
+
+import org.apache.hc.core5.http.HttpHost;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.Proxy;
+import java.net.ProxySelector;
+import java.net.SocketAddress;
+import java.net.URI;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Supplier;
+
+/**
+ * {@link ProxySelector} applying the same {@link ProxyRouting} rules as the starter's HTTP clients, for JDK
+ * networking such as {@code HttpURLConnection} and {@code java.net.http.HttpClient}. Decisions come from the
+ * routing's per-host cache, and the selected {@link Proxy} lists are cached per endpoint, so selecting does not
+ * allocate. It only applies to clients it is passed to, unless {@code proxy.system-wide} installs it as the
+ * JVM default.
+ */
+public class ProxyRoutingSelector extends ProxySelector {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(ProxyRoutingSelector.class);
+
+    private static final List<Proxy> DIRECT = List.of(Proxy.NO_PROXY);
+
+    private final Supplier<ProxyRouting> routing;
+
+    private final Map<HttpHost, List<Proxy>> proxiesByAddress = new ConcurrentHashMap<>();
+
+    public ProxyRoutingSelector(ProxyRouting routing) {
+        this(() -> routing);
+    }
+
+    /**
+     * Creates a selector following the current routing, which may be replaced at runtime.
+     */
+    public ProxyRoutingSelector(Supplier<ProxyRouting> routing) {
+        this.routing = routing;
+    }
+
+    @Override
+    public List<Proxy> select(URI uri) {
+        if (uri == null) {
+            throw new IllegalArgumentException("URI must not be null");
+        }
+        HttpHost proxy = routing.get().resolveProxyHost(uri.getHost());
+        if (proxy == null) {
+            return DIRECT;
+        }
+        return proxiesByAddress.computeIfAbsent(proxy, endpoint -> List.of(new Proxy(Proxy.Type.HTTP,
+                InetSocketAddress.createUnresolved(endpoint.getHostName(), endpoint.getPort()))));
+    }
+
+    @Override
+    public void connectFailed(URI uri, SocketAddress address, IOException ex) {
+        LOGGER.warn("Connection to proxy {} for {} failed: {}", address, uri, ex.getMessage());
+    }
+}
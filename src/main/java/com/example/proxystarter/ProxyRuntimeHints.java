@@ -0,0 +1,28 @@
+package com.example.proxystarter;
+
+import org.springframework.aot.hint.BindingReflectionHintsRegistrar;
+import org.springframework.aot.hint.RuntimeHints;
+import org.springframework.aot.hint.RuntimeHintsRegistrar;
+import org.springframework.boot.context.properties.bind.BindableRuntimeHintsRegistrar;
+
+/**
+ * Native-image hints for the starter. {@link ProxyConfigurationReloader} binds {@link ProxyProperties} at runtime,
+ * outside the configuration properties AOT processing, and HttpClient loads its public suffix list and version
+ * information as classpath resources. The diagnostics endpoint returns records that are serialized to JSON
+ * behind a {@code Map} return type.
+ */
+class ProxyRuntimeHints implements RuntimeHintsRegistrar {
+
+    @Override
+    public void registerHints(RuntimeHints hints, ClassLoader classLoader) {
+        BindableRuntimeHintsRegistrar.forTypes(ProxyProperties.class, JwkCacheProperties.class)
+                .registerHints(hints, classLoader);
+        hints.resources()
+                .registerPattern("mozilla/public-suffix-list.txt")
+                .registerPattern("org/apache/hc/client5/version.properties")
+                .registerPattern("org/apache/hc/core5/version.properties");
+        new BindingReflectionHintsRegistrar().registerReflectionHints(hints.reflection(),
+                ProxyDiagnostics.SlowTunnel.class, ProxyDiagnostics.RequestTiming.class,
+                ProxyDiagnosticsEndpoint.Pool.class, ProxyDiagnosticsEndpoint.ProxySummary.class);
+    }
+}
@@ -0,0 +1,221 @@
+package com.example.proxystarter;
+
+import org.apache.hc.client5.http.HttpRoute;
+import org.apache.hc.client5.http.classic.ExecChainHandler;
+import org.apache.hc.client5.http.classic.methods.HttpHead;
+import org.apache.hc.client5.http.config.RequestConfig;
+import org.apache.hc.client5.http.impl.classic.CloseableHttpClient;
+import org.apache.hc.client5.http.impl.io.PoolingHttpClientConnectionManager;
+import org.apache.hc.client5.http.protocol.HttpClientContext;
+import org.apache.hc.core5.http.HttpHost;
+import org.apache.hc.core5.util.Timeout;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.InterruptedIOException;
+import java.net.URI;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Opens pooled connections to hot destinations at startup, so that the first requests after a deploy reuse
+ * established tunnels and TLS sessions instead of all opening their own. For each destination in
+ * {@code proxy.warmup.destinations}, {@code proxy.warmup.connections} concurrent {@code HEAD} requests are sent,
+ * each held on its connection by {@link #HOLD_CONNECTION} until all have one; their responses are discarded, only
+ * the connections they leave in the pool matter. Warm-up runs in the background while the context starts; the
+ * auto-configuration's runner then waits for it, so the readiness state only turns to {@code ACCEPTING_TRAFFIC}
+ * once it has finished. {@link ProxyWarmupHealthIndicator} reports the outcome.
+ */
+public class ProxyWarmup implements AutoCloseable {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(ProxyWarmup.class);
+
+    static final String HOLD_CONNECTION_NAME = "proxy-warmup-hold";
+
+    private static final String HOLD_ATTRIBUTE = ProxyWarmup.class.getName() + ".hold";
+
+    /**
+     * Exec chain handler, registered right before the transport when warm-up is enabled, keeping each warm-up
+     * request on its connected endpoint until every request to the destination has one. Requests completing one
+     * after another would otherwise all reuse the first connection, as bodiless {@code HEAD} responses give their
+     * connection back before the response handler runs.
+     */
+    static final ExecChainHandler HOLD_CONNECTION = (request, scope, chain) -> {
+        if (scope.clientContext.getAttribute(HOLD_ATTRIBUTE) instanceof Hold hold) {
+            hold.connected.countDown();
+            try {
+                hold.connected.await(hold.timeoutMillis, TimeUnit.MILLISECONDS);
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Interrupted holding a warm-up connection");
+            }
+        }
+        return chain.proceed(request, scope);
+    };
+
+    private final CloseableHttpClient httpClient;
+
+    private final ProxyProperties.Warmup properties;
+
+    private final CountDownLatch completed = new CountDownLatch(1);
+
+    private volatile Map<String, String> results = Map.of();
+
+    private Thread thread;
+
+    public ProxyWarmup(CloseableHttpClient httpClient, ProxyProperties.Warmup properties) {
+        this.httpClient = httpClient;
+        this.properties = properties;
+    }
+
+    /**
+     * Starts warming up the configured destinations in the background.
+     */
+    public void start() {
+        thread = Thread.ofVirtual().name("proxy-warmup").start(this::warmUp);
+    }
+
+    /**
+     * Returns whether warm-up has finished, successfully or not.
+     */
+    public boolean isComplete() {
+        return completed.getCount() == 0;
+    }
+
+    /**
+     * Waits for warm-up to finish, or returns at once if it was never started. Warm-up requests are bounded by
+     * {@code proxy.warmup.timeout}, so this does not wait much longer than that.
+     *
+     * @throws InterruptedException if interrupted while waiting
+     */
+    public void awaitCompletion() throws InterruptedException {
+        if (thread != null) {
+            completed.await();
+        }
+    }
+
+    /**
+     * Waits for warm-up to finish.
+     *
+     * @param timeout how long to wait
+     * @return {@code true} if warm-up finished within the timeout
+     * @throws InterruptedException if interrupted while waiting
+     */
+    public boolean awaitCompletion(Duration timeout) throws InterruptedException {
+        return completed.await(timeout.toMillis(), TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Returns the outcome per destination: how many connections are pooled for it, and why the others could not
+     * be opened.
+     */
+    public Map<String, String> getResults() {
+        return results;
+    }
+
+    @Override
+    public void close() {
+        if (thread != null) {
+            thread.interrupt();
+        }
+    }
+
+    private void warmUp() {
+        List<String> destinations = properties.destinations() != null ? properties.destinations() : List.of();
+        LOGGER.info("Warming up {} connections to each of {}", properties.connections(), destinations);
+        long start = System.nanoTime();
+        Map<String, String> outcome = new LinkedHashMap<>();
+        try (ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor()) {
+            Map<String, List<Future<?>>> requests = new LinkedHashMap<>();
+            for (String destination : destinations) {
+                Hold hold = new Hold(new CountDownLatch(properties.connections()), properties.timeout().toMillis());
+                List<Future<?>> futures = new ArrayList<>();
+                for (int i = 0; i < properties.connections(); i++) {
+                    futures.add(executor.submit(() -> {
+                        HttpClientContext context = HttpClientContext.create();
+                        context.setAttribute(HOLD_ATTRIBUTE, hold);
+                        try {
+                            return httpClient.execute(createRequest(destination), context, response -> null);
+                        } finally {
+                            // Held requests only get here once all have counted down; requests that failed or
+                            // never reached the transport must not keep the others waiting
+                            hold.connected.countDown();
+                        }
+                    }));
+                }
+                requests.put(destination, futures);
+            }
+            for (Map.Entry<String, List<Future<?>>> entry : requests.entrySet()) {
+                outcome.put(entry.getKey(), await(entry.getKey(), entry.getValue()));
+            }
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            LOGGER.debug("Proxy warm-up interrupted");
+        } finally {
+            results = Collections.unmodifiableMap(outcome);
+            completed.countDown();
+        }
+        LOGGER.info("Proxy warm-up completed in {} ms: {}", TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start), outcome);
+    }
+
+    private HttpHead createRequest(String destination) {
+        HttpHead request = new HttpHead(destination);
+        request.setConfig(RequestConfig.custom()
+                .setResponseTimeout(Timeout.ofMilliseconds(properties.timeout().toMillis()))
+                .build());
+        return request;
+    }
+
+    private String await(String destination, List<Future<?>> futures) throws InterruptedException {
+        int succeeded = 0;
+        String failure = null;
+        for (Future<?> future : futures) {
+            try {
+                future.get();
+                succeeded++;
+            } catch (ExecutionException ex) {
+                failure = ex.getCause().toString();
+            }
+        }
+        int pooled = countPooledConnections(destination, succeeded);
+        if (failure != null) {
+            LOGGER.warn("Warm-up of {} opened {} of {} connections: {}", destination, pooled, futures.size(), failure);
+            return pooled + "/" + futures.size() + " connections, " + failure;
+        }
+        return pooled + "/" + futures.size() + " connections";
+    }
+
+    /**
+     * Counts the idle connections the destination's pool holds for it. Clients other than the starter's routing
+     * client do not expose their pool, so for them the successful requests are counted instead.
+     */
+    private int countPooledConnections(String destination, int succeeded) {
+        URI uri = URI.create(destination);
+        if (!(httpClient instanceof ProxyRoutingHttpClient routingClient) || uri.getHost() == null) {
+            return succeeded;
+        }
+        PoolingHttpClientConnectionManager pool = routingClient.route(uri.getHost()).connectionManager();
+        int pooled = 0;
+        for (HttpRoute route : pool.getRoutes()) {
+            HttpHost target = route.getTargetHost();
+            if (target.getHostName().equalsIgnoreCase(uri.getHost())
+                    && target.getSchemeName().equalsIgnoreCase(uri.getScheme())) {
+                pooled += pool.getStats(route).getAvailable();
+            }
+        }
+        return pooled;
+    }
+
+    private record Hold(CountDownLatch connected, long timeoutMillis) {
+    }
+}
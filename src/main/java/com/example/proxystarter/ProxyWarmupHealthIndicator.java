@@ -0,0 +1,26 @@
+package com.example.proxystarter;
+
+import org.springframework.boot.actuate.health.Health;
+import org.springframework.boot.actuate.health.HealthIndicator;
+
+/**
+ * Reports the progress of {@link ProxyWarmup} and, once it has finished, the outcome per destination. It is always
+ * {@code UP}: warm-up only delays readiness, which the readiness state already follows, and must not take the
+ * application out of service in the overall health.
+ */
+public class ProxyWarmupHealthIndicator implements HealthIndicator {
+
+    private final ProxyWarmup proxyWarmup;
+
+    public ProxyWarmupHealthIndicator(ProxyWarmup proxyWarmup) {
+        this.proxyWarmup = proxyWarmup;
+    }
+
+    @Override
+    public Health health() {
+        if (!proxyWarmup.isComplete()) {
+            return Health.up().withDetail("warmup", "in progress").build();
+        }
+        return Health.up().withDetails(proxyWarmup.getResults()).build();
+    }
+}
@@ -0,0 +1,74 @@
+package com.example.proxystarter;
+
+import org.apache.hc.client5.http.impl.async.CloseableHttpAsyncClient;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.AutoConfiguration;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnClass;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnMissingBean;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.boot.context.properties.EnableConfigurationProperties;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.context.annotation.Lazy;
+import org.springframework.http.client.reactive.HttpComponentsClientHttpConnector;
+import org.springframework.security.oauth2.jwt.NimbusReactiveJwtDecoder;
+import org.springframework.security.oauth2.jwt.ReactiveJwtDecoder;
+import org.springframework.web.reactive.function.client.WebClient;
+
+/**
+ * Auto-configuration for the non-blocking, proxy-enabled clients. Active when Spring WebFlux and the
+ * HttpComponents reactive bridge are on the classpath. The beans are lazy, so the async client and its I/O
+ * threads are only started when something uses them.
+ */
+@AutoConfiguration(after = ProxyAutoConfiguration.class,
+        beforeName = "org.springframework.boot.autoconfigure.security.oauth2.resource.reactive.ReactiveOAuth2ResourceServerAutoConfiguration")
+@ConditionalOnClass(name = {
+        "org.springframework.web.reactive.function.client.WebClient",
+        "org.apache.hc.core5.reactive.ReactiveResponseConsumer"
+})
+@EnableConfigurationProperties(ProxyProperties.class)
+public class ReactiveProxyAutoConfiguration {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(ReactiveProxyAutoConfiguration.class);
+
+    /**
+     * The shared async HTTP client. Its lifecycle is owned by {@link ProxyConfigurationService}, which
+     * closes it on context shutdown.
+     */
+    @Bean(destroyMethod = "")
+    @Lazy
+    @ConditionalOnMissingBean(CloseableHttpAsyncClient.class)
+    public CloseableHttpAsyncClient proxyHttpAsyncClient(ProxyConfigurationService proxyConfigurationService) {
+        LOGGER.info("Creating shared proxy async HttpClient bean");
+        return proxyConfigurationService.getCloseableHttpAsyncClient();
+    }
+
+    @Bean
+    @Lazy
+    @ConditionalOnMissingBean(WebClient.class)
+    public WebClient webClient(CloseableHttpAsyncClient proxyHttpAsyncClient) {
+        LOGGER.info("Creating proxy-enabled WebClient bean");
+        return WebClient.builder()
+                .clientConnector(new HttpComponentsClientHttpConnector(proxyHttpAsyncClient))
+                .build();
+    }
+
+    @Configuration(proxyBeanMethods = false)
+    @ConditionalOnClass(ReactiveJwtDecoder.class)
+    static class ReactiveJwtDecoderConfiguration {
+
+        @Bean
+        @Lazy
+        @ConditionalOnMissingBean
+        @ConditionalOnProperty(prefix = "spring.security.oauth2.resourceserver.jwt", name = "jwk-set-uri")
+        public ReactiveJwtDecoder reactiveJwtDecoder(WebClient webClient,
+                                                     @Value("${spring.security.oauth2.resourceserver.jwt.jwk-set-uri}") String jwkSetUri) {
+            LOGGER.info("Creating proxy-enabled ReactiveJwtDecoder bean");
+            return NimbusReactiveJwtDecoder.withJwkSetUri(jwkSetUri)
+                    .webClient(webClient)
+                    .build();
+        }
+    }
+}
@@ -0,0 +1,133 @@
+package com.example.proxystarter;
+
+import io.micrometer.observation.Observation;
+import io.micrometer.observation.ObservationRegistry;
+import org.apache.hc.core5.http.protocol.HttpContext;
+
+import java.time.Instant;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Time spent by one sampled request in each phase of its exchange, filled in by the {@link ProxyDiagnostics}
+ * hooks. Found through the {@value #ATTRIBUTE} context attribute, and for DNS lookups, which get no context,
+ * through a thread local set while the request runs. Requests that are not sampled have neither, so the hooks
+ * cost them one lookup.
+ * <p>
+ * A timeline is only used by the thread executing its request.
+ */
+final class RequestTimeline {
+
+    static final String ATTRIBUTE = "proxy.diagnostics.timeline";
+
+    private static final ThreadLocal<RequestTimeline> CURRENT = new ThreadLocal<>();
+
+    /**
+     * Phases of an exchange. {@code CONNECT} is the TCP connect to the proxy, or to the destination for direct
+     * routes; {@code TUNNEL} the {@code CONNECT} exchange; {@code AUTH} exchanges answered with {@code 407};
+     * {@code ORIGIN} the wait for the destination's response headers.
+     */
+    enum Phase {
+        DNS, CONNECT, TUNNEL, AUTH, TLS, ORIGIN
+    }
+
+    private final Instant start = Instant.now();
+
+    private final long startNanos = System.nanoTime();
+
+    private final long[] nanos = new long[Phase.values().length];
+
+    private final ObservationRegistry observationRegistry;
+
+    private final Observation observation;
+
+    RequestTimeline(ObservationRegistry observationRegistry, Observation observation) {
+        this.observationRegistry = observationRegistry;
+        this.observation = observation;
+    }
+
+    static RequestTimeline from(HttpContext context) {
+        return context != null && context.getAttribute(ATTRIBUTE) instanceof RequestTimeline timeline ? timeline : null;
+    }
+
+    static RequestTimeline current() {
+        return CURRENT.get();
+    }
+
+    void attach(HttpContext context) {
+        context.setAttribute(ATTRIBUTE, this);
+        CURRENT.set(this);
+    }
+
+    void detach(HttpContext context) {
+        context.removeAttribute(ATTRIBUTE);
+        CURRENT.remove();
+    }
+
+    Observation getObservation() {
+        return observation;
+    }
+
+    /**
+     * Starts the span of a phase, if the request is traced.
+     *
+     * @return the started span, or {@code null}
+     */
+    Observation startSpan(Phase phase) {
+        if (observation == null) {
+            return null;
+        }
+        return Observation.createNotStarted("proxy.client.phase", observationRegistry)
+                .parentObservation(observation)
+                .lowCardinalityKeyValue("phase", phase.name().toLowerCase(Locale.ROOT))
+                .start();
+    }
+
+    /**
+     * Adds the time since {@code startNanos} to a phase and stops its span.
+     */
+    void end(Phase phase, long startNanos, Observation span, Throwable error) {
+        nanos[phase.ordinal()] += System.nanoTime() - startNanos;
+        if (span != null) {
+            // The phase of an exchange is only known from its response, e.g. a 407 answer to a CONNECT
+            span.lowCardinalityKeyValue("phase", phase.name().toLowerCase(Locale.ROOT));
+            if (error != null) {
+                span.error(error);
+            }
+            span.stop();
+        }
+    }
+
+    long get(Phase phase) {
+        return nanos[phase.ordinal()];
+    }
+
+    /**
+     * Removes time from a phase that was measured as part of it but belongs to a nested phase.
+     */
+    void subtract(Phase phase, long nested) {
+        nanos[phase.ordinal()] -= nested;
+    }
+
+    Instant getStart() {
+        return start;
+    }
+
+    long elapsedNanos() {
+        return System.nanoTime() - startNanos;
+    }
+
+    /**
+     * Returns the phases that took time, in milliseconds.
+     */
+    Map<String, Double> phaseMillis() {
+        Map<String, Double> phases = new LinkedHashMap<>();
+        for (Phase phase : Phase.values()) {
+            if (nanos[phase.ordinal()] > 0) {
+                phases.put(phase.name().toLowerCase(Locale.ROOT), nanos[phase.ordinal()] / 1_000_000.0);
+            }
+        }
+        return phases;
+    }
+}
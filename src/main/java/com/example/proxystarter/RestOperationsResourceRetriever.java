@@ -0,0 +1,48 @@
+package com.example.proxystarter;
+
+import com.nimbusds.jose.util.Resource;
+import com.nimbusds.jose.util.ResourceRetriever;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpMethod;
+import org.springframework.http.MediaType;
+import org.springframework.http.RequestEntity;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.client.RestClientException;
+import org.springframework.web.client.RestOperations;
+
+import java.io.IOException;
+import java.net.URISyntaxException;
+import java.net.URL;
+import java.util.List;
+
+/**
+ * Nimbus {@link ResourceRetriever} that fetches JWK sets through a {@link RestOperations}, so that
+ * JWKS requests go through the starter's shared, proxied HTTP client.
+ */
+class RestOperationsResourceRetriever implements ResourceRetriever {
+
+    private static final MediaType APPLICATION_JWK_SET_JSON = new MediaType("application", "jwk-set+json");
+
+    private final RestOperations restOperations;
+
+    RestOperationsResourceRetriever(RestOperations restOperations) {
+        this.restOperations = restOperations;
+    }
+
+    @Override
+    public Resource retrieveResource(URL url) throws IOException {
+        HttpHeaders headers = new HttpHeaders();
+        headers.setAccept(List.of(MediaType.APPLICATION_JSON, APPLICATION_JWK_SET_JSON));
+        try {
+            RequestEntity<Void> request = new RequestEntity<>(headers, HttpMethod.GET, url.toURI());
+            ResponseEntity<String> response = restOperations.exchange(request, String.class);
+            if (response.getStatusCode().value() != 200 || response.getBody() == null) {
+                throw new IOException("Unexpected JWK set response from " + url + ": " + response.getStatusCode());
+            }
+            MediaType contentType = response.getHeaders().getContentType();
+            return new Resource(response.getBody(), contentType != null ? contentType.toString() : null);
+        } catch (URISyntaxException | RestClientException ex) {
+            throw new IOException("Failed to retrieve JWK set from " + url, ex);
+        }
+    }
+}
@@ -0,0 +1,59 @@
+package com.example.proxystarter;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Lock-free token bucket, kept as the theoretical arrival time of the next request (the generic cell rate
+ * algorithm): a request is admitted when the arrival time it would push out lies no further than
+ * {@code burst} intervals ahead of now. One compare-and-set per request, no refill thread.
+ */
+final class TokenBucket {
+
+    private final long intervalNanos;
+
+    private final long toleranceNanos;
+
+    private final AtomicLong theoreticalArrival;
+
+    TokenBucket(double permitsPerSecond, int burst) {
+        this.intervalNanos = Math.max(1, (long) (1_000_000_000L / permitsPerSecond));
+        this.toleranceNanos = intervalNanos * Math.max(1, burst);
+        this.theoreticalArrival = new AtomicLong(System.nanoTime());
+    }
+
+    /**
+     * Reserves a permit if one is available now or within {@code maxWaitNanos}.
+     *
+     * @param maxWaitNanos how long the caller is willing to wait for the permit
+     * @return the time to wait before using the reserved permit, or {@code -1} if none is available in time;
+     *         nothing is reserved then
+     */
+    long reserve(long maxWaitNanos) {
+        while (true) {
+            long now = System.nanoTime();
+            long current = theoreticalArrival.get();
+            long next = Math.max(current, now) + intervalNanos;
+            long wait = next - toleranceNanos - now;
+            if (wait > maxWaitNanos) {
+                return -1;
+            }
+            if (theoreticalArrival.compareAndSet(current, next)) {
+                return Math.max(0, wait);
+            }
+        }
+    }
+
+    /**
+     * Returns a permit reserved by {@link #reserve(long)} that the caller ended up not using.
+     */
+    void refund() {
+        theoreticalArrival.addAndGet(-intervalNanos);
+    }
+
+    /**
+     * Returns whether the full burst is available, so that replacing the bucket by a new one admits no more.
+     */
+    boolean isFull() {
+        return theoreticalArrival.get() - System.nanoTime() <= 0;
+    }
+}
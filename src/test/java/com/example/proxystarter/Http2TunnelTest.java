@@ -0,0 +1,229 @@
+package com.example.proxystarter;
+
+import org.apache.hc.core5.http.ContentType;
+import org.apache.hc.core5.http.EntityDetails;
+import org.apache.hc.core5.http.HttpRequest;
+import org.apache.hc.core5.http.Message;
+import org.apache.hc.core5.http.URIScheme;
+import org.apache.hc.core5.http.impl.bootstrap.HttpAsyncServer;
+import org.apache.hc.core5.http.nio.AsyncRequestConsumer;
+import org.apache.hc.core5.http.nio.AsyncServerRequestHandler;
+import org.apache.hc.core5.http.nio.entity.StringAsyncEntityConsumer;
+import org.apache.hc.core5.http.nio.support.AsyncResponseBuilder;
+import org.apache.hc.core5.http.nio.support.BasicRequestConsumer;
+import org.apache.hc.core5.http.protocol.HttpContext;
+import org.apache.hc.core5.http2.HttpVersionPolicy;
+import org.apache.hc.core5.http2.impl.nio.bootstrap.H2ServerBootstrap;
+import org.apache.hc.core5.http2.ssl.H2ServerTlsStrategy;
+import org.apache.hc.core5.io.CloseMode;
+import org.apache.hc.core5.reactor.ListenerEndpoint;
+import org.apache.hc.core5.ssl.SSLContexts;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.web.client.RestClient;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class Http2TunnelTest {
+
+    private TestProxy proxy;
+
+    @BeforeEach
+    void startProxy() throws IOException {
+        proxy = TestProxy.start(exchange -> TestProxy.respond(exchange, 200, exchange.getProtocol()));
+    }
+
+    @AfterEach
+    void stopProxy() {
+        proxy.close();
+    }
+
+    @Test
+    void whenNotConfigured_thenHttp2IsDisabled() {
+        ProxyProperties properties = properties(Map.of());
+
+        assertThat(properties.http2().enabled()).isFalse();
+        assertThat(properties.http2().maxConcurrentStreams()).isEqualTo(100);
+        try (ProxyConfigurationService service = new ProxyConfigurationService(properties)) {
+            ProxyRoutingHttpClient client = (ProxyRoutingHttpClient) service.getCloseableHttpClient();
+            assertThat(client.getProxyClients().get(ProxyRouting.DEFAULT_PROXY).http2Client()).isNull();
+        }
+    }
+
+    @Test
+    void whenEnabled_thenProxyClientsMultiplexAndPlainHttpKeepsHttp1() {
+        ProxyProperties properties = properties(Map.of(
+                "proxy.http2.enabled", "true",
+                "proxy.http2.max-concurrent-streams", "50"
+        ));
+
+        try (ProxyConfigurationService service = new ProxyConfigurationService(properties)) {
+            ProxyRoutingHttpClient client = (ProxyRoutingHttpClient) service.getCloseableHttpClient();
+            assertThat(client.getProxyClients().get(ProxyRouting.DEFAULT_PROXY).http2Client()).isNotNull();
+            assertThat(client.getDirectClient().http2Client()).isNull();
+
+            // Plain HTTP is not tunnelled, so it stays on the pooled HTTP/1.1 connections to the proxy
+            RestClient restClient = service.createProxyEnabledRestClient(service.createRequestFactory());
+            String protocol = restClient.get().uri("http://origin.example.com/").retrieve().body(String.class);
+            assertThat(protocol).isEqualTo("HTTP/1.1");
+        }
+    }
+
+    @Test
+    void whenDestinationNegotiatesHttp2_thenConcurrentRequestsShareOneTunnel() throws Exception {
+        String keyStore = Http2TunnelTest.class.getResource("/origin.p12").getPath();
+        ScheduledExecutorService delays = Executors.newSingleThreadScheduledExecutor();
+        HttpAsyncServer origin = startHttp2Origin(delays);
+        AtomicInteger tunnels = new AtomicInteger();
+        ServerSocket tunnelProxy = startTunnelProxy(tunnels);
+        // The origin's certificate is self-signed, so the shared TLS context has to trust it
+        System.setProperty("javax.net.ssl.trustStore", keyStore);
+        System.setProperty("javax.net.ssl.trustStorePassword", "changeit");
+        System.setProperty("javax.net.ssl.trustStoreType", "PKCS12");
+        ProxyProperties properties = TestProxy.bind(Map.of(
+                "proxy.enabled", "true",
+                "proxy.host", "127.0.0.1",
+                "proxy.port", String.valueOf(tunnelProxy.getLocalPort()),
+                "proxy.http2.enabled", "true"
+        ));
+
+        try (ProxyConfigurationService service = new ProxyConfigurationService(properties);
+             ExecutorService callers = Executors.newVirtualThreadPerTaskExecutor()) {
+            RestClient restClient = service.createProxyEnabledRestClient(service.createRequestFactory());
+            String url = "https://localhost:"
+                    + ((InetSocketAddress) origin.getEndpoints().iterator().next().getAddress()).getPort() + "/";
+            List<Future<String>> responses = new ArrayList<>();
+            for (int i = 0; i < 10; i++) {
+                String payload = "request-" + i;
+                responses.add(callers.submit(() -> restClient.post().uri(url).body(payload).retrieve()
+                        .body(String.class)));
+            }
+
+            for (int i = 0; i < responses.size(); i++) {
+                assertThat(responses.get(i).get(10, TimeUnit.SECONDS)).isEqualTo("HTTP/2.0 request-" + i);
+            }
+            assertThat(tunnels).hasValue(1);
+        } finally {
+            System.clearProperty("javax.net.ssl.trustStore");
+            System.clearProperty("javax.net.ssl.trustStorePassword");
+            System.clearProperty("javax.net.ssl.trustStoreType");
+            tunnelProxy.close();
+            origin.close(CloseMode.IMMEDIATE);
+            delays.shutdownNow();
+        }
+    }
+
+    /**
+     * Starts an origin negotiating HTTP/2 via ALPN, answering each request after a delay with its protocol and
+     * body, so that concurrent requests overlap.
+     */
+    private static HttpAsyncServer startHttp2Origin(ScheduledExecutorService delays) throws Exception {
+        HttpAsyncServer origin = H2ServerBootstrap.bootstrap()
+                .setTlsStrategy(new H2ServerTlsStrategy(SSLContexts.custom()
+                        .loadKeyMaterial(Http2TunnelTest.class.getResource("/origin.p12"),
+                                "changeit".toCharArray(), "changeit".toCharArray())
+                        .build()))
+                .setVersionPolicy(HttpVersionPolicy.NEGOTIATE)
+                .register("*", new AsyncServerRequestHandler<Message<HttpRequest, String>>() {
+                    @Override
+                    public AsyncRequestConsumer<Message<HttpRequest, String>> prepare(
+                            HttpRequest request, EntityDetails entityDetails, HttpContext context) {
+                        return new BasicRequestConsumer<>(entityDetails != null ? new StringAsyncEntityConsumer() : null);
+                    }
+
+                    @Override
+                    public void handle(Message<HttpRequest, String> message, ResponseTrigger responseTrigger,
+                                       HttpContext context) {
+                        String body = context.getProtocolVersion() + " " + message.getBody();
+                        delays.schedule(() -> {
+                            responseTrigger.submitResponse(AsyncResponseBuilder.create(200)
+                                    .setEntity(body, ContentType.TEXT_PLAIN)
+                                    .build(), context);
+                            return null;
+                        }, 200, TimeUnit.MILLISECONDS);
+                    }
+                })
+                .create();
+        origin.start();
+        ListenerEndpoint endpoint = origin.listen(new InetSocketAddress("127.0.0.1", 0), URIScheme.HTTPS).get();
+        assertThat(endpoint).isNotNull();
+        return origin;
+    }
+
+    /**
+     * Starts a forward proxy that only opens {@code CONNECT} tunnels, counting them.
+     */
+    private static ServerSocket startTunnelProxy(AtomicInteger tunnels) throws IOException {
+        ServerSocket proxy = new ServerSocket(0, 50, java.net.InetAddress.getLoopbackAddress());
+        Thread.ofVirtual().start(() -> {
+            while (!proxy.isClosed()) {
+                try {
+                    Socket client = proxy.accept();
+                    Thread.ofVirtual().start(() -> tunnel(client, tunnels));
+                } catch (IOException ex) {
+                    return;
+                }
+            }
+        });
+        return proxy;
+    }
+
+    private static void tunnel(Socket client, AtomicInteger tunnels) {
+        try (client) {
+            InputStream in = client.getInputStream();
+            String[] requestLine = readHead(in).split("\r\n")[0].split(" ");
+            String[] authority = requestLine[1].split(":");
+            tunnels.incrementAndGet();
+            try (Socket upstream = new Socket(authority[0], Integer.parseInt(authority[1]))) {
+                client.getOutputStream().write("HTTP/1.1 200 Connection established\r\n\r\n"
+                        .getBytes(StandardCharsets.US_ASCII));
+                Thread upload = Thread.ofVirtual().start(() -> {
+                    try {
+                        in.transferTo(upstream.getOutputStream());
+                        upstream.shutdownOutput();
+                    } catch (IOException ignored) {
+                        // Either side closed the tunnel
+                    }
+                });
+                upstream.getInputStream().transferTo(client.getOutputStream());
+                upload.join();
+            }
+        } catch (IOException | InterruptedException ignored) {
+            // Either side closed the tunnel
+        }
+    }
+
+    private static String readHead(InputStream in) throws IOException {
+        // Byte by byte, so that nothing sent after the head is consumed
+        ByteArrayOutputStream head = new ByteArrayOutputStream();
+        int matched = 0;
+        int next;
+        while (matched < 4 && (next = in.read()) != -1) {
+            head.write(next);
+            matched = (next == '\r' || next == '\n') && (matched % 2 == 0) == (next == '\r') ? matched + 1 : 0;
+        }
+        return head.toString(StandardCharsets.US_ASCII);
+    }
+
+    private ProxyProperties properties(Map<String, String> overrides) {
+        return proxy.properties(overrides);
+    }
+}
@@ -0,0 +1,145 @@
+package com.example.proxystarter;
+
+import com.nimbusds.jose.JWSAlgorithm;
+import com.nimbusds.jose.JWSHeader;
+import com.nimbusds.jose.crypto.ECDSASigner;
+import com.nimbusds.jose.jwk.Curve;
+import com.nimbusds.jose.jwk.ECKey;
+import com.nimbusds.jose.jwk.JWK;
+import com.nimbusds.jose.jwk.JWKMatcher;
+import com.nimbusds.jose.jwk.JWKSelector;
+import com.nimbusds.jose.jwk.JWKSet;
+import com.nimbusds.jose.jwk.RSAKey;
+import com.nimbusds.jose.jwk.gen.ECKeyGenerator;
+import com.nimbusds.jose.jwk.gen.RSAKeyGenerator;
+import com.nimbusds.jose.jwk.source.ImmutableJWKSet;
+import com.nimbusds.jose.jwk.source.JWKSource;
+import com.nimbusds.jose.proc.SecurityContext;
+import com.nimbusds.jwt.JWTClaimsSet;
+import com.nimbusds.jwt.SignedJWT;
+import com.sun.net.httpserver.HttpServer;
+import org.junit.jupiter.api.Test;
+import org.mockito.Mockito;
+import org.springframework.boot.autoconfigure.AutoConfigurations;
+import org.springframework.boot.test.context.runner.ApplicationContextRunner;
+import org.springframework.http.RequestEntity;
+import org.springframework.http.ResponseEntity;
+import org.springframework.security.oauth2.jwt.BadJwtException;
+import org.springframework.security.oauth2.jwt.JwtDecoder;
+import org.springframework.security.oauth2.jwt.NimbusJwtDecoder;
+import org.springframework.web.client.RestOperations;
+
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+
+class JwtDecoderConfigurationTest {
+
+    private final ApplicationContextRunner contextRunner = new ApplicationContextRunner()
+            .withConfiguration(AutoConfigurations.of(ProxyAutoConfiguration.class, JwtDecoderConfiguration.class))
+            .withPropertyValues("spring.security.oauth2.resourceserver.jwt.jwk-set-uri=https://example.com/jwk");
+
+    @Test
+    void whenJwkCacheEnabled_thenCachingJwkSourceBeanCreated() {
+        contextRunner.run(context -> {
+            assertThat(context).hasSingleBean(JWKSource.class);
+            assertThat(context).hasSingleBean(JwtDecoder.class);
+        });
+    }
+
+    @Test
+    void whenJwkCacheDisabled_thenJwkSourceBeanNotCreated() {
+        contextRunner.withPropertyValues("proxy.jwk-cache.enabled=false")
+                .run(context -> {
+                    assertThat(context).doesNotHaveBean(JWKSource.class);
+                    assertThat(context).hasSingleBean(JwtDecoder.class);
+                });
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    void whenKeysAreLookedUpRepeatedly_thenJwkSetIsFetchedOnce() throws Exception {
+        RSAKey key = new RSAKeyGenerator(2048).keyID("test-key").generate();
+        RestOperations restOperations = Mockito.mock(RestOperations.class);
+        Mockito.when(restOperations.exchange(any(RequestEntity.class), eq(String.class)))
+                .thenReturn(ResponseEntity.ok(new JWKSet(key).toString()));
+
+        JwkCacheProperties properties = new JwkCacheProperties(true, Duration.ofMinutes(5), Duration.ofSeconds(15),
+                Duration.ofSeconds(30), false, Duration.ofHours(1));
+        JWKSource<SecurityContext> jwkSource = JwtDecoderConfiguration.createJwkSource(
+                "https://example.com/jwk", restOperations, properties);
+
+        JWKSelector selector = new JWKSelector(new JWKMatcher.Builder().keyID("test-key").build());
+        List<JWK> first = jwkSource.get(selector, null);
+        List<JWK> second = jwkSource.get(selector, null);
+
+        assertThat(first).hasSize(1);
+        assertThat(second).hasSize(1);
+        verify(restOperations, times(1)).exchange(any(RequestEntity.class), eq(String.class));
+    }
+
+    @Test
+    void whenNoAlgorithmsConfigured_thenJwkSetIsFetchedOnFirstTokenAndItsAlgorithmsAccepted() throws Exception {
+        ECKey key = new ECKeyGenerator(Curve.P_256).keyID("ec-key").generate();
+        AtomicInteger fetches = new AtomicInteger();
+        HttpServer jwkServer = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        jwkServer.createContext("/jwk", exchange -> {
+            fetches.incrementAndGet();
+            byte[] body = new JWKSet(key.toPublicJWK()).toString().getBytes(StandardCharsets.UTF_8);
+            exchange.getResponseHeaders().set("Content-Type", "application/json");
+            exchange.sendResponseHeaders(200, body.length);
+            try (OutputStream out = exchange.getResponseBody()) {
+                out.write(body);
+            }
+        });
+        jwkServer.start();
+        try {
+            contextRunner.withPropertyValues("spring.security.oauth2.resourceserver.jwt.jwk-set-uri=http://127.0.0.1:"
+                            + jwkServer.getAddress().getPort() + "/jwk")
+                    .run(context -> {
+                        assertThat(context).getBean(JwtDecoder.class).isInstanceOf(NimbusJwtDecoder.class);
+                        assertThat(fetches).hasValue(0);
+
+                        String token = sign(key);
+                        assertThat(context.getBean(JwtDecoder.class).decode(token).getSubject()).isEqualTo("user");
+                        assertThat(fetches).hasValue(1);
+                    });
+        } finally {
+            jwkServer.stop(0);
+        }
+    }
+
+    @Test
+    void whenAlgorithmsConfigured_thenOtherAlgorithmsAreRejected() throws Exception {
+        ECKey key = new ECKeyGenerator(Curve.P_256).keyID("ec-key").generate();
+        JWKSource<SecurityContext> jwkSource = new ImmutableJWKSet<>(new JWKSet(key.toPublicJWK()));
+        String token = sign(key);
+
+        assertThat(JwtDecoderConfiguration.createJwtDecoder(jwkSource, List.of("ES256")).decode(token).getSubject())
+                .isEqualTo("user");
+        assertThatThrownBy(() -> JwtDecoderConfiguration.createJwtDecoder(jwkSource, List.of("RS256")).decode(token))
+                .isInstanceOf(BadJwtException.class);
+    }
+
+    private static String sign(ECKey key) throws Exception {
+        SignedJWT jwt = new SignedJWT(new JWSHeader.Builder(JWSAlgorithm.ES256).keyID(key.getKeyID()).build(),
+                new JWTClaimsSet.Builder()
+                        .subject("user")
+                        .expirationTime(Date.from(Instant.now().plusSeconds(300)))
+                        .build());
+        jwt.sign(new ECDSASigner(key));
+        return jwt.serialize();
+    }
+}
@@ -0,0 +1,72 @@
+package com.example.proxystarter;
+
+import org.junit.jupiter.api.Test;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatIllegalArgumentException;
+
+class NonProxyHostsMatcherTest {
+
+    private final NonProxyHostsMatcher matcher = new NonProxyHostsMatcher(
+            "localhost|127.0.0.1|*.internal.example.com|192.168.*|10.0.0.0/8|fd00::/8", 16);
+
+    @Test
+    void whenHostMatchesExactPattern_thenDirect() {
+        assertThat(matcher.matches("localhost")).isTrue();
+        assertThat(matcher.matches("LOCALHOST")).isTrue();
+        assertThat(matcher.matches("127.0.0.1")).isTrue();
+    }
+
+    @Test
+    void whenHostMatchesWildcardPattern_thenDirect() {
+        assertThat(matcher.matches("api.internal.example.com")).isTrue();
+        assertThat(matcher.matches("internal.example.com")).isFalse();
+        assertThat(matcher.matches("192.168.1.20")).isTrue();
+    }
+
+    @Test
+    void whenHostIsInCidrRange_thenDirect() {
+        assertThat(matcher.matches("10.1.2.3")).isTrue();
+        assertThat(matcher.matches("11.1.2.3")).isFalse();
+        assertThat(matcher.matches("[fd00::1]")).isTrue();
+        assertThat(matcher.matches("fe80::1")).isFalse();
+    }
+
+    @Test
+    void whenHostIsIpv6Literal_thenParsedWithoutResolving() {
+        assertThat(NonProxyHostsMatcher.parseAddressLiteral("fd00::1")).hasSize(16);
+        assertThat(NonProxyHostsMatcher.parseAddressLiteral("2001:db8:0:0:0:0:0:1")).hasSize(16);
+        assertThat(NonProxyHostsMatcher.parseAddressLiteral("fe80::1%eth0")).hasSize(16);
+        assertThat(NonProxyHostsMatcher.parseAddressLiteral("::ffff:10.1.2.3")).containsExactly(10, 1, 2, 3);
+        assertThat(NonProxyHostsMatcher.parseAddressLiteral("host.example.com:8080")).isNull();
+        assertThat(NonProxyHostsMatcher.parseAddressLiteral("1::2::3")).isNull();
+        assertThat(matcher.matches("::ffff:10.1.2.3")).isTrue();
+    }
+
+    @Test
+    void whenHostDoesNotMatch_thenProxied() {
+        assertThat(matcher.matches("example.com")).isFalse();
+        assertThat(matcher.matches("10.example.com")).isFalse();
+        assertThat(matcher.matches("")).isFalse();
+    }
+
+    @Test
+    void whenManyHostsAreLookedUp_thenDecisionsStayCorrectPastCacheSize() {
+        for (int i = 0; i < 100; i++) {
+            assertThat(matcher.matches("host" + i + ".internal.example.com")).isTrue();
+            assertThat(matcher.matches("host" + i + ".example.org")).isFalse();
+        }
+    }
+
+    @Test
+    void whenPatternsEmpty_thenNothingMatches() {
+        NonProxyHostsMatcher empty = new NonProxyHostsMatcher(null, 16);
+        assertThat(empty.isEmpty()).isTrue();
+        assertThat(empty.matches("localhost")).isFalse();
+    }
+
+    @Test
+    void whenCidrRangeInvalid_thenRejected() {
+        assertThatIllegalArgumentException().isThrownBy(() -> new NonProxyHostsMatcher("10.0.0.0/33", 16));
+    }
+}
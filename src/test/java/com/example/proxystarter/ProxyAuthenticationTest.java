@@ -0,0 +1,97 @@
+package com.example.proxystarter;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.web.client.RestClient;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class ProxyAuthenticationTest {
+
+    private final AtomicInteger roundTrips = new AtomicInteger();
+
+    private final AtomicInteger challenges = new AtomicInteger();
+
+    private volatile String expectedAuthorization = basic("proxyuser", "proxypassword");
+
+    private TestProxy proxy;
+
+    @BeforeEach
+    void startProxy() throws IOException {
+        // Counts every exchange and challenges those without the expected Basic credentials
+        proxy = TestProxy.start(exchange -> {
+            roundTrips.incrementAndGet();
+            if (!expectedAuthorization.equals(exchange.getRequestHeaders().getFirst("Proxy-Authorization"))) {
+                challenges.incrementAndGet();
+                TestProxy.challenge(exchange);
+                return;
+            }
+            TestProxy.respond(exchange, 200, "proxied");
+        });
+    }
+
+    @AfterEach
+    void stopProxy() {
+        proxy.close();
+    }
+
+    @Test
+    void whenNotPreemptive_thenOnlyFirstRequestIsChallenged() {
+        try (ProxyConfigurationService service = new ProxyConfigurationService(properties(false))) {
+            sendRequests(service, 5);
+        }
+
+        assertThat(challenges).hasValue(1);
+        assertThat(roundTrips).hasValue(6);
+    }
+
+    @Test
+    void whenPreemptive_thenNoRequestIsChallenged() {
+        try (ProxyConfigurationService service = new ProxyConfigurationService(properties(true))) {
+            sendRequests(service, 5);
+        }
+
+        assertThat(challenges).hasValue(0);
+        assertThat(roundTrips).hasValue(5);
+    }
+
+    @Test
+    void whenCredentialsRotated_thenClientUsesNewCredentialsWithoutRebuild() {
+        try (ProxyConfigurationService service = new ProxyConfigurationService(properties(true))) {
+            sendRequests(service, 2);
+
+            expectedAuthorization = basic("proxyuser", "rotated");
+            service.updateCredentials(ProxyRouting.DEFAULT_PROXY, "proxyuser", "rotated");
+            sendRequests(service, 2);
+        }
+
+        assertThat(challenges).hasValue(0);
+        assertThat(roundTrips).hasValue(4);
+    }
+
+    private static void sendRequests(ProxyConfigurationService service, int count) {
+        RestClient restClient = service.createProxyEnabledRestClient(service.createRequestFactory());
+        for (int i = 0; i < count; i++) {
+            String body = restClient.get().uri("http://origin.example.com/" + i).retrieve().body(String.class);
+            assertThat(body).isEqualTo("proxied");
+        }
+    }
+
+    private ProxyProperties properties(boolean preemptive) {
+        return proxy.properties(Map.of(
+                "proxy.username", "proxyuser",
+                "proxy.password", "proxypassword",
+                "proxy.auth.preemptive", String.valueOf(preemptive)));
+    }
+
+    private static String basic(String username, String password) {
+        return "Basic " + Base64.getEncoder().encodeToString((username + ":" + password).getBytes(StandardCharsets.UTF_8));
+    }
+}
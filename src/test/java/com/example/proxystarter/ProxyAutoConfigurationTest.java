@@ -1,5 +1,7 @@
 package com.example.proxystarter;
 
+import org.apache.hc.client5.http.impl.classic.CloseableHttpClient;
+import org.apache.hc.client5.http.impl.io.PoolingHttpClientConnectionManager;
 import org.junit.jupiter.api.Test;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Qualifier;
@@ -11,6 +13,8 @@ import org.springframework.http.client.HttpComponentsClientHttpRequestFactory;
 import org.springframework.security.oauth2.jwt.JwtDecoder;
 import org.springframework.web.client.RestTemplate;
 
+import java.time.Duration;
+
 import static org.assertj.core.api.Assertions.assertThat;
 
 class ProxyAutoConfigurationTest {
@@ -41,6 +45,47 @@ class ProxyAutoConfigurationTest {
                 });
     }
 
+    @Test
+    void whenProxyEnabled_thenHttpClientIsSharedAndPoolIsConfigured() {
+        contextRunner.withPropertyValues(
+                        "proxy.pool.max-total=400",
+                        "proxy.pool.max-per-route=100",
+                        "proxy.pool.connect-timeout=2s",
+                        "proxy.non-proxy-hosts=localhost"
+                )
+                .run(context -> {
+                    ProxyProperties properties = context.getBean(ProxyProperties.class);
+                    assertThat(properties.pool().maxTotal()).isEqualTo(400);
+                    assertThat(properties.pool().maxPerRoute()).isEqualTo(100);
+                    assertThat(properties.pool().connectTimeout()).isEqualTo(Duration.ofSeconds(2));
+                    assertThat(properties.pool().evictIdleAfter()).isEqualTo(Duration.ofSeconds(30));
+
+                    ProxyConfigurationService service = context.getBean(ProxyConfigurationService.class);
+                    assertThat(service.getCloseableHttpClient()).isSameAs(service.getCloseableHttpClient());
+
+                    ProxyRoutingHttpClient httpClient = (ProxyRoutingHttpClient) service.getCloseableHttpClient();
+                    PoolingHttpClientConnectionManager proxied = httpClient.route("api.example.com").connectionManager();
+                    assertThat(proxied.getMaxTotal()).isEqualTo(400);
+                    assertThat(proxied.getDefaultMaxPerRoute()).isEqualTo(100);
+                    PoolingHttpClientConnectionManager direct = httpClient.route("localhost").connectionManager();
+                    assertThat(direct).isNotSameAs(proxied);
+                    assertThat(direct.getMaxTotal()).isEqualTo(400);
+                    assertThat(direct.getDefaultMaxPerRoute()).isEqualTo(100);
+                });
+    }
+
+    @Test
+    void whenProxyEnabled_thenRestTemplateUsesSharedRequestFactoryAndHttpClient() {
+        contextRunner.run(context -> {
+            CloseableHttpClient httpClient = context.getBean(CloseableHttpClient.class);
+            HttpComponentsClientHttpRequestFactory factory = context.getBean(HttpComponentsClientHttpRequestFactory.class);
+
+            assertThat(factory.getHttpClient()).isSameAs(httpClient);
+            assertThat(context.getBean(RestTemplate.class).getRequestFactory()).isSameAs(factory);
+            assertThat(context.getBean(ProxyConfigurationService.class).getCloseableHttpClient()).isSameAs(httpClient);
+        });
+    }
+
     @Test
     void whenCustomRestTemplateBeanExists_thenProxyEnabledRestTemplateBeanNotCreated() {
         contextRunner.withUserConfiguration(CustomRestTemplateConfig.class)
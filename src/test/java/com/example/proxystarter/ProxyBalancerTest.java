@@ -0,0 +1,152 @@
+package com.example.proxystarter;
+
+import org.apache.hc.client5.http.HttpRoute;
+import org.apache.hc.client5.http.classic.ExecChain;
+import org.apache.hc.client5.http.classic.ExecRuntime;
+import org.apache.hc.client5.http.classic.methods.HttpGet;
+import org.apache.hc.client5.http.protocol.HttpClientContext;
+import org.apache.hc.core5.http.HttpHost;
+import org.apache.hc.core5.http.HttpStatus;
+import org.apache.hc.core5.http.message.BasicClassicHttpResponse;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.web.client.RestClient;
+
+import java.io.IOException;
+import java.net.ServerSocket;
+import java.util.List;
+import java.util.Map;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatIllegalStateException;
+import static org.mockito.Mockito.mock;
+
+class ProxyBalancerTest {
+
+    private TestProxy proxy;
+
+    @BeforeEach
+    void startProxy() throws IOException {
+        proxy = TestProxy.respondingWith("proxied");
+    }
+
+    @AfterEach
+    void stopProxy() {
+        proxy.close();
+    }
+
+    @Test
+    void whenRoundRobin_thenEndpointsAlternate() {
+        ProxyBalancer balancer = balancer(Map.of("proxy.balancing.strategy", "ROUND_ROBIN"));
+
+        HttpHost first = balancer.select().getHost();
+        HttpHost second = balancer.select().getHost();
+
+        assertThat(first).isNotEqualTo(second);
+        assertThat(balancer.select().getHost()).isEqualTo(first);
+    }
+
+    @Test
+    void whenLeastInFlight_thenIdlestEndpointIsSelected() {
+        ProxyBalancer balancer = balancer(Map.of("proxy.balancing.strategy", "LEAST_IN_FLIGHT"));
+        ProxyEndpoint busy = balancer.getEndpoints().get(0);
+        busy.acquire();
+
+        assertThat(balancer.select()).isSameAs(balancer.getEndpoints().get(1));
+    }
+
+    @Test
+    void whenFailureThresholdReached_thenEndpointLeavesRotationUntilHealthy() {
+        ProxyBalancer balancer = balancer(Map.of("proxy.balancing.failure-threshold", "2"));
+        ProxyEndpoint failing = balancer.getEndpoints().get(0);
+
+        balancer.recordFailure(failing);
+        assertThat(failing.getState()).isEqualTo(ProxyEndpoint.State.CLOSED);
+        balancer.recordFailure(failing);
+        assertThat(failing.getState()).isEqualTo(ProxyEndpoint.State.OPEN);
+        for (int i = 0; i < 4; i++) {
+            assertThat(balancer.select()).isNotSameAs(failing);
+        }
+
+        balancer.recordHealthy(failing);
+        assertThat(failing.getState()).isEqualTo(ProxyEndpoint.State.CLOSED);
+    }
+
+    @Test
+    void whenEndpointIsDown_thenRequestsFailOverToHealthyEndpoint() throws IOException {
+        int deadPort;
+        try (ServerSocket socket = new ServerSocket(0)) {
+            deadPort = socket.getLocalPort();
+        }
+        ProxyProperties properties = TestProxy.bind(Map.of(
+                "proxy.enabled", "true",
+                "proxy.host", "127.0.0.1",
+                "proxy.port", String.valueOf(deadPort),
+                "proxy.endpoints[0]", "127.0.0.1:" + proxy.port(),
+                "proxy.balancing.failure-threshold", "1",
+                "proxy.balancing.probe-interval", "1h"
+        ));
+
+        try (ProxyConfigurationService service = new ProxyConfigurationService(properties)) {
+            RestClient restClient = service.createProxyEnabledRestClient(service.createRequestFactory());
+            for (int i = 0; i < 4; i++) {
+                String body = restClient.get().uri("http://origin.example.com/").retrieve().body(String.class);
+                assertThat(body).isEqualTo("proxied");
+            }
+
+            ProxyBalancer balancer = service.getRouting().getBalancers().get(ProxyRouting.DEFAULT_PROXY);
+            assertThat(balancer.find(new HttpHost("127.0.0.1", deadPort)).getState())
+                    .isEqualTo(ProxyEndpoint.State.OPEN);
+        }
+    }
+
+    @Test
+    void whenProxyRefusesTunnel_thenEndpointFailsUnlessOriginAnswered() throws Exception {
+        ProxyBalancer balancer = balancer(Map.of("proxy.balancing.failure-threshold", "1"));
+        ProxyEndpoint endpoint = balancer.getEndpoints().get(0);
+        ProxyHealthExecHandler handler = new ProxyHealthExecHandler(balancer);
+
+        handler.execute(new HttpGet("https://origin.example.com/"), tunnelScope(endpoint), (request, scope) -> {
+            scope.clientContext.setAttribute(ProxyHealthExecHandler.TARGET_REACHED_ATTRIBUTE, Boolean.TRUE);
+            return new BasicClassicHttpResponse(HttpStatus.SC_BAD_GATEWAY);
+        });
+        assertThat(endpoint.getState()).isEqualTo(ProxyEndpoint.State.CLOSED);
+
+        handler.execute(new HttpGet("https://origin.example.com/"), tunnelScope(endpoint),
+                (request, scope) -> new BasicClassicHttpResponse(HttpStatus.SC_BAD_GATEWAY));
+        assertThat(endpoint.getState()).isEqualTo(ProxyEndpoint.State.OPEN);
+    }
+
+    @Test
+    void whenTrialRequestThrows_thenTrialEnds() throws Exception {
+        ProxyBalancer balancer = balancer(Map.of(
+                "proxy.balancing.failure-threshold", "1",
+                "proxy.balancing.open-duration", "0s"
+        ));
+        ProxyEndpoint endpoint = balancer.getEndpoints().get(0);
+        balancer.recordFailure(endpoint);
+        assertThat(endpoint.tryStartTrial(System.nanoTime())).isTrue();
+
+        ProxyHealthExecHandler handler = new ProxyHealthExecHandler(balancer);
+        assertThatIllegalStateException().isThrownBy(() -> handler.execute(new HttpGet("https://origin.example.com/"),
+                tunnelScope(endpoint), (request, scope) -> {
+                    throw new IllegalStateException("Unexpected");
+                }));
+
+        assertThat(endpoint.tryStartTrial(System.nanoTime())).isTrue();
+    }
+
+    private static ExecChain.Scope tunnelScope(ProxyEndpoint endpoint) {
+        HttpRoute route = new HttpRoute(new HttpHost("https", "origin.example.com", 443), null, endpoint.getHost(), true);
+        return new ExecChain.Scope("test", route, new HttpGet("https://origin.example.com/"), mock(ExecRuntime.class),
+                HttpClientContext.create());
+    }
+
+    private static ProxyBalancer balancer(Map<String, String> balancing) {
+        ProxyProperties properties = TestProxy.bind(balancing);
+        return new ProxyBalancer("test",
+                List.of(new HttpHost("proxy-a.example.com", 8080), new HttpHost("proxy-b.example.com", 8080)),
+                ProxyBalancingStrategy.of(properties.balancing().strategy()), properties.balancing());
+    }
+}
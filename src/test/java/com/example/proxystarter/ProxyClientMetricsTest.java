@@ -0,0 +1,140 @@
+package com.example.proxystarter;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.boot.autoconfigure.AutoConfigurations;
+import org.springframework.boot.test.context.runner.ApplicationContextRunner;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.web.client.RestClient;
+
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class ProxyClientMetricsTest {
+
+    private final MeterRegistry registry = new SimpleMeterRegistry();
+
+    private TestProxy proxy;
+
+    @BeforeEach
+    void startProxy() throws IOException {
+        // Challenges every request without credentials, like an authenticating forward proxy
+        proxy = TestProxy.start(exchange -> {
+            if (exchange.getRequestHeaders().getFirst("Proxy-Authorization") == null) {
+                TestProxy.challenge(exchange);
+                return;
+            }
+            TestProxy.respond(exchange, 200, "proxied");
+        });
+    }
+
+    @AfterEach
+    void stopProxy() {
+        proxy.close();
+    }
+
+    @Test
+    void whenRequestGoesThroughProxy_thenPoolConnectChallengeAndRequestAreRecorded() {
+        ProxyProperties properties = proxy.properties(Map.of(
+                "proxy.username", "proxyuser",
+                "proxy.password", "proxypassword"
+        ));
+
+        try (ProxyConfigurationService service =
+                     new ProxyConfigurationService(properties, null, new ProxyClientMetrics(registry))) {
+            RestClient restClient = service.createProxyEnabledRestClient(service.createRequestFactory());
+            String body = restClient.get().uri("http://origin.example.com/").retrieve().body(String.class);
+            assertThat(body).isEqualTo("proxied");
+        }
+
+        assertThat(registry.get(ProxyClientMetrics.REQUESTS)
+                .tags("proxy", ProxyRouting.DEFAULT_PROXY, "route", "proxy", "status", "200", "outcome", "SUCCESS")
+                .timer().count()).isEqualTo(1);
+        assertThat(registry.get(ProxyClientMetrics.AUTH_CHALLENGE).tag("proxy", ProxyRouting.DEFAULT_PROXY)
+                .timer().count()).isEqualTo(1);
+        assertThat(registry.get(ProxyClientMetrics.LEASE).tag("outcome", "SUCCESS").timer().count()).isPositive();
+        assertThat(registry.get(ProxyClientMetrics.CONNECT).tag("outcome", "SUCCESS").timer().count()).isPositive();
+        assertThat(registry.get("proxy.client.pool.leased").tag("proxy", ProxyRouting.DEFAULT_PROXY).gauge())
+                .isNotNull();
+        assertThat(registry.find("proxy.client.pool.leased").tagKeys("target").gauge()).isNull();
+    }
+
+    @Test
+    void whenPerRouteGaugesEnabled_thenPoolGaugesArePerDestination() {
+        ProxyProperties properties = proxy.properties(Map.of(
+                "proxy.username", "proxyuser",
+                "proxy.password", "proxypassword"
+        ));
+
+        try (ProxyConfigurationService service =
+                     new ProxyConfigurationService(properties, null, new ProxyClientMetrics(registry, true))) {
+            RestClient restClient = service.createProxyEnabledRestClient(service.createRequestFactory());
+            restClient.get().uri("http://origin.example.com/").retrieve().body(String.class);
+        }
+
+        assertThat(registry.get("proxy.client.pool.leased").tag("target", "origin.example.com:80").gauge())
+                .isNotNull();
+    }
+
+    @Test
+    void whenPoolsAreReloaded_thenPoolGaugesReadTheNewPool() {
+        Map<String, String> properties = new HashMap<>(Map.of(
+                "proxy.username", "proxyuser",
+                "proxy.password", "proxypassword",
+                "proxy.pool.max-total", "20"));
+
+        try (ProxyConfigurationService service = new ProxyConfigurationService(proxy.properties(properties), null,
+                new ProxyClientMetrics(registry))) {
+            RestClient restClient = service.createProxyEnabledRestClient(service.createRequestFactory());
+            restClient.get().uri("http://origin.example.com/").retrieve().body(String.class);
+            assertThat(registry.get("proxy.client.pool.max").tag("proxy", ProxyRouting.DEFAULT_PROXY).gauge().value())
+                    .isEqualTo(20);
+
+            properties.put("proxy.pool.max-total", "30");
+            properties.put("proxy.reload.drain-timeout", "0s");
+            assertThat(service.reload(proxy.properties(properties))).isTrue();
+            restClient.get().uri("http://origin.example.com/").retrieve().body(String.class);
+
+            assertThat(registry.get("proxy.client.pool.max").tag("proxy", ProxyRouting.DEFAULT_PROXY).gauge().value())
+                    .isEqualTo(30);
+            assertThat(registry.get("proxy.client.pool.available").tag("proxy", ProxyRouting.DEFAULT_PROXY).gauge()
+                    .value()).isEqualTo(1);
+        }
+    }
+
+    @Test
+    void whenMeterRegistryExists_thenMetricsAreBound() {
+        new ApplicationContextRunner()
+                .withConfiguration(AutoConfigurations.of(ProxyAutoConfiguration.class))
+                .withUserConfiguration(MeterRegistryConfig.class)
+                .withPropertyValues("proxy.enabled=true", "proxy.host=proxy.example.com", "proxy.port=8080")
+                .run(context -> assertThat(context).hasSingleBean(ProxyClientMetrics.class));
+    }
+
+    @Test
+    void whenNoMeterRegistryOrMetricsDisabled_thenNoMetrics() {
+        ApplicationContextRunner contextRunner = new ApplicationContextRunner()
+                .withConfiguration(AutoConfigurations.of(ProxyAutoConfiguration.class))
+                .withPropertyValues("proxy.enabled=true", "proxy.host=proxy.example.com", "proxy.port=8080");
+
+        contextRunner.run(context -> assertThat(context).doesNotHaveBean(ProxyClientInstrumentation.class));
+        contextRunner.withUserConfiguration(MeterRegistryConfig.class)
+                .withPropertyValues("proxy.metrics.enabled=false")
+                .run(context -> assertThat(context).doesNotHaveBean(ProxyClientInstrumentation.class));
+    }
+
+    @Configuration
+    static class MeterRegistryConfig {
+        @Bean
+        public MeterRegistry meterRegistry() {
+            return new SimpleMeterRegistry();
+        }
+    }
+}
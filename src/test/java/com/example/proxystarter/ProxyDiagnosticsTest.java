@@ -0,0 +1,150 @@
+package com.example.proxystarter;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.boot.autoconfigure.AutoConfigurations;
+import org.springframework.boot.test.context.runner.ApplicationContextRunner;
+import org.springframework.web.client.HttpServerErrorException;
+import org.springframework.web.client.RestClient;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class ProxyDiagnosticsTest {
+
+    private TestProxy proxy;
+
+    @BeforeEach
+    void startProxy() throws IOException {
+        proxy = TestProxy.respondingWith("ok");
+    }
+
+    @AfterEach
+    void stopProxy() {
+        proxy.close();
+    }
+
+    @Test
+    void whenRequestIsSampled_thenPhasesAreRecorded() {
+        ProxyDiagnostics diagnostics = diagnostics("1", "1s");
+        try (ProxyConfigurationService service = service(proxy.port(), diagnostics)) {
+            get(service, "http://origin.example.com/");
+        }
+
+        assertThat(diagnostics.getSampledRequests()).singleElement().satisfies(timing -> {
+            assertThat(timing.proxy()).isEqualTo(ProxyRouting.DEFAULT_PROXY);
+            assertThat(timing.target()).startsWith("origin.example.com");
+            assertThat(timing.status()).isEqualTo(200);
+            assertThat(timing.phases()).containsKeys("connect", "origin");
+        });
+    }
+
+    @Test
+    void whenSamplingIsOff_thenNoRequestIsRecorded() {
+        ProxyDiagnostics diagnostics = diagnostics("0", "1s");
+        try (ProxyConfigurationService service = service(proxy.port(), diagnostics)) {
+            for (int i = 0; i < 10; i++) {
+                get(service, "http://origin.example.com/");
+            }
+        }
+
+        assertThat(diagnostics.getSampledRequests()).isEmpty();
+    }
+
+    @Test
+    void whenTunnelIsSlow_thenItIsKeptWithoutSampling() throws Exception {
+        ProxyDiagnostics diagnostics = diagnostics("0", "50ms");
+        try (ServerSocket slowProxy = new ServerSocket(0)) {
+            // Answers each CONNECT after a delay with 502, like a proxy failing to reach the destination
+            Thread.ofVirtual().start(() -> {
+                try (Socket socket = slowProxy.accept()) {
+                    BufferedReader reader = new BufferedReader(
+                            new InputStreamReader(socket.getInputStream(), StandardCharsets.US_ASCII));
+                    while (!reader.readLine().isEmpty()) {
+                        // Skip the request head
+                    }
+                    Thread.sleep(100);
+                    socket.getOutputStream().write(
+                            "HTTP/1.1 502 Bad Gateway\r\nContent-Length: 0\r\n\r\n".getBytes(StandardCharsets.US_ASCII));
+                } catch (IOException | InterruptedException ex) {
+                    // The test fails on the missing slow tunnel
+                }
+            });
+
+            try (ProxyConfigurationService service = service(slowProxy.getLocalPort(), diagnostics)) {
+                // HttpClient hands the refused CONNECT back as the proxy's response
+                assertThatThrownBy(() -> get(service, "https://origin.example.com/"))
+                        .isInstanceOf(HttpServerErrorException.BadGateway.class);
+            }
+        }
+
+        assertThat(diagnostics.getSlowTunnels()).singleElement().satisfies(tunnel -> {
+            assertThat(tunnel.target()).isEqualTo("origin.example.com:443");
+            assertThat(tunnel.status()).isEqualTo(502);
+            assertThat(tunnel.millis()).isGreaterThanOrEqualTo(50);
+        });
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    void whenEndpointIsRead_thenPoolsAndConfigurationAreShownWithoutSecrets() {
+        new ApplicationContextRunner()
+                .withConfiguration(AutoConfigurations.of(ProxyAutoConfiguration.class))
+                .withPropertyValues(
+                        "proxy.enabled=true",
+                        "proxy.host=127.0.0.1",
+                        "proxy.port=" + proxy.port(),
+                        "proxy.username=proxyuser",
+                        "proxy.password=proxy-secret",
+                        "proxy.diagnostics.enabled=true"
+                )
+                .run(context -> {
+                    RestClient restClient = context.getBean(RestClient.class);
+                    restClient.get().uri("http://origin.example.com/").retrieve().toBodilessEntity();
+
+                    Map<String, Object> report = context.getBean(ProxyDiagnosticsEndpoint.class).diagnostics();
+                    Map<String, ProxyDiagnosticsEndpoint.Pool> pools =
+                            (Map<String, ProxyDiagnosticsEndpoint.Pool>) report.get("pools");
+                    assertThat(pools).containsKeys(ProxyRouting.DEFAULT_PROXY, ProxyRouting.DIRECT);
+                    assertThat(pools.get(ProxyRouting.DEFAULT_PROXY).routes().keySet())
+                            .anySatisfy(target -> assertThat(target).startsWith("origin.example.com"));
+
+                    Map<String, Object> configuration = (Map<String, Object>) report.get("configuration");
+                    Map<String, ProxyDiagnosticsEndpoint.ProxySummary> proxies =
+                            (Map<String, ProxyDiagnosticsEndpoint.ProxySummary>) configuration.get("proxies");
+                    assertThat(proxies.get(ProxyRouting.DEFAULT_PROXY).authenticated()).isTrue();
+                    assertThat(report.toString()).doesNotContain("proxy-secret");
+                });
+    }
+
+    private static ProxyDiagnostics diagnostics(String sampleRate, String slowTunnelThreshold) {
+        ProxyProperties properties = TestProxy.bind(Map.of(
+                "proxy.diagnostics.enabled", "true",
+                "proxy.diagnostics.sample-rate", sampleRate,
+                "proxy.diagnostics.slow-tunnel-threshold", slowTunnelThreshold
+        ));
+        return new ProxyDiagnostics(properties.diagnostics(), null);
+    }
+
+    private static ProxyConfigurationService service(int proxyPort, ProxyDiagnostics diagnostics) {
+        ProxyProperties proxyProperties = TestProxy.bind(Map.of(
+                "proxy.enabled", "true",
+                "proxy.host", "127.0.0.1",
+                "proxy.port", String.valueOf(proxyPort)));
+        return new ProxyConfigurationService(proxyProperties, null, null, diagnostics);
+    }
+
+    private static void get(ProxyConfigurationService service, String url) {
+        service.createProxyEnabledRestClient(service.createRequestFactory())
+                .get().uri(url).retrieve().toBodilessEntity();
+    }
+}
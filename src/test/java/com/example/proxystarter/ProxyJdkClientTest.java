@@ -0,0 +1,134 @@
+package com.example.proxystarter;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.boot.autoconfigure.AutoConfigurations;
+import org.springframework.boot.test.context.runner.ApplicationContextRunner;
+
+import java.io.IOException;
+import java.net.Authenticator;
+import java.net.PasswordAuthentication;
+import java.net.ProxySelector;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+import java.util.Map;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class ProxyJdkClientTest {
+
+    private static final String AUTHORIZATION = "Basic "
+            + Base64.getEncoder().encodeToString("proxyuser:proxypassword".getBytes(StandardCharsets.UTF_8));
+
+    private final AtomicInteger challenges = new AtomicInteger();
+
+    private TestProxy proxy;
+
+    private ApplicationContextRunner contextRunner;
+
+    @BeforeEach
+    void startProxy() throws IOException {
+        proxy = TestProxy.start(exchange -> {
+            if (!AUTHORIZATION.equals(exchange.getRequestHeaders().getFirst("Proxy-Authorization"))) {
+                challenges.incrementAndGet();
+                TestProxy.challenge(exchange);
+                return;
+            }
+            TestProxy.respond(exchange, 200, "proxied");
+        });
+        contextRunner = new ApplicationContextRunner()
+                .withConfiguration(AutoConfigurations.of(ProxyAutoConfiguration.class))
+                .withPropertyValues(
+                        "proxy.enabled=true",
+                        "proxy.host=127.0.0.1",
+                        "proxy.port=" + proxy.port(),
+                        "proxy.username=proxyuser",
+                        "proxy.password=proxypassword"
+                );
+    }
+
+    @AfterEach
+    void stopProxy() {
+        proxy.close();
+    }
+
+    @Test
+    void whenNotSystemWide_thenJvmSettingsAreUntouched() {
+        ProxySelector defaultSelector = ProxySelector.getDefault();
+        Authenticator defaultAuthenticator = Authenticator.getDefault();
+
+        contextRunner.run(context -> {
+            assertThat(System.getProperty("http.proxyHost")).isNull();
+            assertThat(ProxySelector.getDefault()).isSameAs(defaultSelector);
+            assertThat(Authenticator.getDefault()).isSameAs(defaultAuthenticator);
+        });
+    }
+
+    @Test
+    void whenSystemWide_thenJvmSettingsAreAppliedAndRestoredOnReload() {
+        Authenticator defaultAuthenticator = Authenticator.getDefault();
+
+        contextRunner.withPropertyValues("proxy.system-wide=true").run(context -> {
+            ProxyConfigurationService service = context.getBean(ProxyConfigurationService.class);
+            assertThat(System.getProperty("http.proxyHost")).isEqualTo("127.0.0.1");
+            assertThat(Authenticator.getDefault()).isSameAs(service.getAuthenticator());
+
+            service.reload(TestProxy.bind(Map.of("proxy.enabled", "false")));
+            assertThat(System.getProperty("http.proxyHost")).isNull();
+            assertThat(Authenticator.getDefault()).isSameAs(defaultAuthenticator);
+        });
+    }
+
+    @Test
+    void whenJdkHttpClientUsed_thenRequestGoesThroughProxyWithCredentials() {
+        contextRunner.run(context -> {
+            HttpClient client = context.getBean(HttpClient.class);
+            HttpResponse<String> response = client.send(
+                    HttpRequest.newBuilder(URI.create("http://origin.example.com/")).build(),
+                    HttpResponse.BodyHandlers.ofString());
+
+            assertThat(response.body()).isEqualTo("proxied");
+            assertThat(challenges).hasValue(1);
+        });
+    }
+
+    @Test
+    void whenVirtualThreadsEnabled_thenJdkClientsShareTheServiceExecutor() {
+        ProxyConfigurationService service = new ProxyConfigurationService(proxy.properties(Map.of(
+                "proxy.virtual-threads.enabled", "true")));
+        Executor executor;
+        try (service) {
+            executor = service.createJdkHttpClient().executor().orElseThrow();
+            assertThat(service.createJdkHttpClient().executor()).containsSame(executor);
+        }
+
+        assertThat(executor).isInstanceOfSatisfying(ExecutorService.class,
+                closed -> assertThat(closed.isShutdown()).isTrue());
+    }
+
+    @Test
+    void authenticatorAnswersOnlyProxyChallengesFromConfiguredProxies() {
+        contextRunner.run(context -> {
+            ProxyAuthenticator authenticator = context.getBean(ProxyConfigurationService.class).getAuthenticator();
+            int port = proxy.port();
+
+            PasswordAuthentication credentials = authenticator.requestPasswordAuthenticationInstance("127.0.0.1", null,
+                    port, "http", "proxy", "basic", null, Authenticator.RequestorType.PROXY);
+            assertThat(credentials).isNotNull();
+            assertThat(credentials.getUserName()).isEqualTo("proxyuser");
+
+            assertThat(authenticator.requestPasswordAuthenticationInstance("127.0.0.1", null, port,
+                    "http", "origin", "basic", null, Authenticator.RequestorType.SERVER)).isNull();
+            assertThat(authenticator.requestPasswordAuthenticationInstance("other.example.com", null, port,
+                    "http", "proxy", "basic", null, Authenticator.RequestorType.PROXY)).isNull();
+        });
+    }
+}
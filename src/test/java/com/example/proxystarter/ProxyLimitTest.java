@@ -0,0 +1,188 @@
+package com.example.proxystarter;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.web.client.ResourceAccessException;
+import org.springframework.web.client.RestClient;
+
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class ProxyLimitTest {
+
+    private final MeterRegistry registry = new SimpleMeterRegistry();
+
+    private final CountDownLatch slowRequestStarted = new CountDownLatch(1);
+
+    private final CountDownLatch releaseSlowRequest = new CountDownLatch(1);
+
+    private TestProxy proxy;
+
+    @BeforeEach
+    void startProxy() throws IOException {
+        // Holds /slow requests until the test releases them
+        proxy = TestProxy.start(exchange -> {
+            if (exchange.getRequestURI().getPath().equals("/slow")) {
+                slowRequestStarted.countDown();
+                try {
+                    releaseSlowRequest.await(5, TimeUnit.SECONDS);
+                } catch (InterruptedException ex) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+            TestProxy.respond(exchange, 200, "ok");
+        });
+    }
+
+    @AfterEach
+    void stopProxy() {
+        releaseSlowRequest.countDown();
+        proxy.close();
+    }
+
+    @Test
+    void whenDestinationIsAtConcurrencyLimit_thenRequestIsShed() throws Exception {
+        try (ProxyConfigurationService service = service(Map.of(
+                "proxy.limits.per-destination.max-concurrent", "1"))) {
+            RestClient restClient = service.createProxyEnabledRestClient(service.createRequestFactory());
+            CompletableFuture<String> inFlight = CompletableFuture.supplyAsync(
+                    () -> get(restClient, "http://busy.example.com/slow"));
+            assertThat(slowRequestStarted.await(5, TimeUnit.SECONDS)).isTrue();
+
+            assertShed(() -> get(restClient, "http://busy.example.com/"), "destination", "concurrency");
+            assertThat(get(restClient, "http://other.example.com/")).isEqualTo("ok");
+
+            releaseSlowRequest.countDown();
+            assertThat(inFlight.get(5, TimeUnit.SECONDS)).isEqualTo("ok");
+            assertThat(get(restClient, "http://busy.example.com/")).isEqualTo("ok");
+        }
+
+        assertThat(registry.get(ProxyClientMetrics.LIMIT_REJECTED)
+                .tags("scope", "destination", "limit", "concurrency").counter().count()).isEqualTo(1);
+    }
+
+    @Test
+    void whenQueueTimeoutIsSet_thenRequestWaitsForPermit() throws Exception {
+        try (ProxyConfigurationService service = service(Map.of(
+                "proxy.limits.per-destination.max-concurrent", "1",
+                "proxy.limits.queue-timeout", "5s"))) {
+            RestClient restClient = service.createProxyEnabledRestClient(service.createRequestFactory());
+            CompletableFuture<String> inFlight = CompletableFuture.supplyAsync(
+                    () -> get(restClient, "http://busy.example.com/slow"));
+            assertThat(slowRequestStarted.await(5, TimeUnit.SECONDS)).isTrue();
+
+            CompletableFuture<String> queued = CompletableFuture.supplyAsync(
+                    () -> get(restClient, "http://busy.example.com/"));
+            Thread.sleep(200);
+            assertThat(queued).isNotDone();
+
+            releaseSlowRequest.countDown();
+            assertThat(inFlight.get(5, TimeUnit.SECONDS)).isEqualTo("ok");
+            assertThat(queued.get(5, TimeUnit.SECONDS)).isEqualTo("ok");
+        }
+    }
+
+    @Test
+    void whenRateIsExceeded_thenRequestsBeyondBurstAreShed() {
+        try (ProxyConfigurationService service = service(Map.of(
+                "proxy.limits.destinations[0].hosts", "*.example.com",
+                "proxy.limits.destinations[0].rate", "1",
+                "proxy.limits.destinations[0].burst", "2"))) {
+            RestClient restClient = service.createProxyEnabledRestClient(service.createRequestFactory());
+            assertThat(get(restClient, "http://limited.example.com/")).isEqualTo("ok");
+            assertThat(get(restClient, "http://limited.example.com/")).isEqualTo("ok");
+
+            assertShed(() -> get(restClient, "http://limited.example.com/"), "destination", "rate");
+            assertThat(get(restClient, "http://limited.example.org/")).isEqualTo("ok");
+        }
+    }
+
+    @Test
+    void whenProxyIsAtConcurrencyLimit_thenRequestsToOtherDestinationsAreShed() throws Exception {
+        try (ProxyConfigurationService service = service(Map.of(
+                "proxy.limits.per-proxy.max-concurrent", "1"))) {
+            RestClient restClient = service.createProxyEnabledRestClient(service.createRequestFactory());
+            CompletableFuture<String> inFlight = CompletableFuture.supplyAsync(
+                    () -> get(restClient, "http://busy.example.com/slow"));
+            assertThat(slowRequestStarted.await(5, TimeUnit.SECONDS)).isTrue();
+
+            assertShed(() -> get(restClient, "http://other.example.com/"), "proxy", "concurrency");
+
+            releaseSlowRequest.countDown();
+            assertThat(inFlight.get(5, TimeUnit.SECONDS)).isEqualTo("ok");
+        }
+    }
+
+    @Test
+    void whenRequestIsShedByConcurrency_thenItSpendsNoRateToken() throws Exception {
+        try (ProxyConfigurationService service = service(Map.of(
+                "proxy.limits.per-destination.max-concurrent", "1",
+                "proxy.limits.per-destination.rate", "0.1",
+                "proxy.limits.per-destination.burst", "2"))) {
+            RestClient restClient = service.createProxyEnabledRestClient(service.createRequestFactory());
+            CompletableFuture<String> inFlight = CompletableFuture.supplyAsync(
+                    () -> get(restClient, "http://busy.example.com/slow"));
+            assertThat(slowRequestStarted.await(5, TimeUnit.SECONDS)).isTrue();
+
+            assertShed(() -> get(restClient, "http://busy.example.com/"), "destination", "concurrency");
+            assertShed(() -> get(restClient, "http://busy.example.com/"), "destination", "concurrency");
+
+            releaseSlowRequest.countDown();
+            assertThat(inFlight.get(5, TimeUnit.SECONDS)).isEqualTo("ok");
+            // The second token of the burst is still there
+            assertThat(get(restClient, "http://busy.example.com/")).isEqualTo("ok");
+        }
+    }
+
+    @Test
+    void whenRequestIsShedByProxyRate_thenDestinationTokenIsReturned() throws Exception {
+        try (ProxyConfigurationService service = service(Map.of(
+                "proxy.limits.per-destination.rate", "0.1",
+                "proxy.limits.per-destination.burst", "2",
+                "proxy.limits.per-proxy.rate", "5",
+                "proxy.limits.per-proxy.burst", "1"))) {
+            RestClient restClient = service.createProxyEnabledRestClient(service.createRequestFactory());
+            assertThat(get(restClient, "http://limited.example.com/")).isEqualTo("ok");
+            assertShed(() -> get(restClient, "http://limited.example.com/"), "proxy", "rate");
+            assertShed(() -> get(restClient, "http://limited.example.com/"), "proxy", "rate");
+
+            // Once the proxy rate recovers, the destination still has the second token of its burst
+            Thread.sleep(300);
+            assertThat(get(restClient, "http://limited.example.com/")).isEqualTo("ok");
+            Thread.sleep(300);
+            assertShed(() -> get(restClient, "http://limited.example.com/"), "destination", "rate");
+        }
+    }
+
+    private static void assertShed(Runnable request, String scope, String limit) {
+        assertThatThrownBy(request::run)
+                .isInstanceOf(ResourceAccessException.class)
+                .cause()
+                .isInstanceOfSatisfying(ProxyLimitExceededException.class, ex -> {
+                    assertThat(ex.getScope()).isEqualTo(scope);
+                    assertThat(ex.getLimit()).isEqualTo(limit);
+                });
+    }
+
+    private ProxyConfigurationService service(Map<String, String> overrides) {
+        Map<String, String> properties = new HashMap<>();
+        properties.put("proxy.limits.enabled", "true");
+        properties.putAll(overrides);
+        ProxyProperties proxyProperties = proxy.properties(properties);
+        return new ProxyConfigurationService(proxyProperties, null, new ProxyClientMetrics(registry));
+    }
+
+    private static String get(RestClient restClient, String url) {
+        return restClient.get().uri(url).retrieve().body(String.class);
+    }
+}
@@ -0,0 +1,102 @@
+package com.example.proxystarter;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.boot.autoconfigure.AutoConfigurations;
+import org.springframework.boot.test.context.runner.ApplicationContextRunner;
+import org.springframework.web.client.RestClient;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class ProxyReloadTest {
+
+    private final CountDownLatch slowRequestStarted = new CountDownLatch(1);
+
+    private TestProxy proxyA;
+
+    private TestProxy proxyB;
+
+    @BeforeEach
+    void startProxies() throws IOException {
+        proxyA = startProxy("A");
+        proxyB = startProxy("B");
+    }
+
+    @AfterEach
+    void stopProxies() {
+        proxyA.close();
+        proxyB.close();
+    }
+
+    @Test
+    void whenReloaded_thenNewRequestsUseNewProxyAndInFlightRequestsComplete() throws Exception {
+        try (ProxyConfigurationService service = new ProxyConfigurationService(properties(proxyA))) {
+            RestClient restClient = service.createProxyEnabledRestClient(service.createRequestFactory());
+            assertThat(get(restClient, "/")).isEqualTo("A");
+
+            CompletableFuture<String> inFlight = CompletableFuture.supplyAsync(() -> get(restClient, "/slow"));
+            assertThat(slowRequestStarted.await(5, TimeUnit.SECONDS)).isTrue();
+
+            assertThat(service.reload(properties(proxyB))).isTrue();
+            assertThat(get(restClient, "/")).isEqualTo("B");
+            assertThat(inFlight.get(5, TimeUnit.SECONDS)).isEqualTo("A");
+
+            assertThat(service.reload(properties(proxyB))).isFalse();
+        }
+    }
+
+    @Test
+    void whenWatchedFileChanges_thenRefreshEventAppliesIt(@TempDir Path directory) throws IOException {
+        Path file = directory.resolve("proxy.properties");
+        Files.writeString(file, "proxy.port=" + proxyB.port() + "\n");
+
+        new ApplicationContextRunner()
+                .withConfiguration(AutoConfigurations.of(ProxyAutoConfiguration.class))
+                .withPropertyValues(
+                        "proxy.enabled=true",
+                        "proxy.host=127.0.0.1",
+                        "proxy.port=" + proxyA.port(),
+                        "proxy.reload.watch-file=" + file
+                )
+                .run(context -> {
+                    RestClient restClient = context.getBean(RestClient.class);
+                    assertThat(get(restClient, "/")).isEqualTo("B");
+
+                    Files.writeString(file, "proxy.port=" + proxyA.port() + "\n");
+                    context.publishEvent(new ProxyRefreshEvent(this));
+                    assertThat(get(restClient, "/")).isEqualTo("A");
+                });
+    }
+
+    private TestProxy startProxy(String name) throws IOException {
+        return TestProxy.start(exchange -> {
+            if (exchange.getRequestURI().getPath().equals("/slow")) {
+                slowRequestStarted.countDown();
+                try {
+                    Thread.sleep(500);
+                } catch (InterruptedException ex) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+            TestProxy.respond(exchange, 200, name);
+        });
+    }
+
+    private static String get(RestClient restClient, String path) {
+        return restClient.get().uri("http://origin.example.com" + path).retrieve().body(String.class);
+    }
+
+    private static ProxyProperties properties(TestProxy proxy) {
+        return proxy.properties(Map.of());
+    }
+}
@@ -0,0 +1,190 @@
+package com.example.proxystarter;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.http.HttpStatus;
+import org.springframework.web.client.HttpServerErrorException;
+import org.springframework.web.client.ResourceAccessException;
+import org.springframework.web.client.RestClient;
+
+import java.io.IOException;
+import java.net.SocketTimeoutException;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class ProxyResilienceTest {
+
+    private final Map<String, AtomicInteger> hits = new ConcurrentHashMap<>();
+
+    private final List<String> tenants = new CopyOnWriteArrayList<>();
+
+    private TestProxy proxy;
+
+    @BeforeEach
+    void startProxy() throws IOException {
+        // Answers as the proxy would: 502 for an unreachable upstream, 504 from the origin, slow paths sleep
+        proxy = TestProxy.start(exchange -> {
+            String path = exchange.getRequestURI().getPath();
+            int hit = hits.computeIfAbsent(path, key -> new AtomicInteger()).incrementAndGet();
+            tenants.add(String.valueOf(exchange.getRequestHeaders().getFirst("X-Tenant")));
+            switch (path) {
+                case "/flaky" -> TestProxy.respond(exchange, hit <= 2 ? 502 : 200, "ok");
+                case "/bad-gateway" -> TestProxy.respond(exchange, 502, "ok");
+                case "/gateway-timeout" -> TestProxy.respond(exchange, 504, "ok");
+                case "/slow" -> {
+                    sleep(2000);
+                    TestProxy.respond(exchange, 200, "ok");
+                }
+                case "/hedge" -> {
+                    if (hit == 1) {
+                        sleep(2000);
+                    }
+                    TestProxy.respond(exchange, 200, "ok");
+                }
+                default -> TestProxy.respond(exchange, 200, "ok");
+            }
+        });
+    }
+
+    @AfterEach
+    void stopProxy() {
+        proxy.close();
+    }
+
+    @Test
+    void whenProxyFailsTransiently_thenIdempotentRequestIsRetried() {
+        try (ProxyConfigurationService service = new ProxyConfigurationService(properties(Map.of()))) {
+            RestClient restClient = service.createProxyEnabledRestClient(service.createRequestFactory());
+
+            assertThat(restClient.get().uri(url("/flaky")).retrieve().body(String.class)).isEqualTo("ok");
+            assertThat(hits.get("/flaky")).hasValue(3);
+        }
+    }
+
+    @Test
+    void whenPostFails_thenItIsNotRetried() {
+        try (ProxyConfigurationService service = new ProxyConfigurationService(properties(Map.of()))) {
+            RestClient restClient = service.createProxyEnabledRestClient(service.createRequestFactory());
+
+            assertThatThrownBy(() -> restClient.post().uri(url("/bad-gateway")).body("payload").retrieve().toBodilessEntity())
+                    .isInstanceOfSatisfying(HttpServerErrorException.class,
+                            ex -> assertThat(ex.getStatusCode()).isEqualTo(HttpStatus.BAD_GATEWAY));
+            assertThat(hits.get("/bad-gateway")).hasValue(1);
+        }
+    }
+
+    @Test
+    void whenOriginFailsWithoutOriginRetries_thenRequestIsSentOnce() {
+        try (ProxyConfigurationService service = new ProxyConfigurationService(properties(Map.of()))) {
+            RestClient restClient = service.createProxyEnabledRestClient(service.createRequestFactory());
+
+            assertThatThrownBy(() -> restClient.get().uri(url("/gateway-timeout")).retrieve().toBodilessEntity())
+                    .isInstanceOf(HttpServerErrorException.class);
+            assertThat(hits.get("/gateway-timeout")).hasValue(1);
+        }
+    }
+
+    @Test
+    void whenDeadlinePasses_thenRequestFailsWithoutWaitingForResponse() {
+        try (ProxyConfigurationService service = new ProxyConfigurationService(
+                properties(Map.of("proxy.resilience.deadline", "300ms")))) {
+            RestClient restClient = service.createProxyEnabledRestClient(service.createRequestFactory());
+
+            long start = System.nanoTime();
+            assertThatThrownBy(() -> restClient.get().uri(url("/slow")).retrieve().toBodilessEntity())
+                    .isInstanceOf(ResourceAccessException.class)
+                    .hasCauseInstanceOf(SocketTimeoutException.class);
+            assertThat((System.nanoTime() - start) / 1_000_000).isLessThan(1500);
+        }
+    }
+
+    @Test
+    void whenRequestIsSlowerThanUsual_thenHedgedRequestAnswers() {
+        try (ProxyConfigurationService service = new ProxyConfigurationService(properties(Map.of(
+                "proxy.resilience.hedging.enabled", "true",
+                "proxy.resilience.hedging.min-samples", "5")))) {
+            RestClient restClient = service.createProxyEnabledRestClient(service.createRequestFactory());
+            for (int i = 0; i < 10; i++) {
+                restClient.get().uri(url("/fast")).retrieve().toBodilessEntity();
+            }
+
+            long start = System.nanoTime();
+            assertThat(restClient.get().uri(url("/hedge")).retrieve().body(String.class)).isEqualTo("ok");
+            assertThat((System.nanoTime() - start) / 1_000_000).isLessThan(1500);
+            assertThat(hits.get("/hedge")).hasValue(2);
+        }
+    }
+
+    @Test
+    void whenRequestIsRetried_thenEveryAttemptPassesLimitsAndCarriesInterceptorHeaders() {
+        try (ProxyConfigurationService service = new ProxyConfigurationService(properties(Map.of(
+                "proxy.limits.enabled", "true",
+                "proxy.limits.per-destination.rate", "1",
+                "proxy.limits.per-destination.burst", "2")))) {
+            RestClient restClient = service.createProxyEnabledRestClient(service.createRequestFactory()).mutate()
+                    .requestInterceptor((request, body, execution) -> {
+                        request.getHeaders().set("X-Tenant", "acme");
+                        return execution.execute(request, body);
+                    })
+                    .build();
+
+            // The third attempt finds the burst of two spent
+            assertThatThrownBy(() -> restClient.get().uri(url("/flaky")).retrieve().toBodilessEntity())
+                    .isInstanceOf(ResourceAccessException.class)
+                    .hasCauseInstanceOf(ProxyLimitExceededException.class);
+            assertThat(hits.get("/flaky")).hasValue(2);
+            assertThat(tenants).containsExactly("acme", "acme");
+        }
+    }
+
+    @Test
+    void whenRequestIsHedged_thenBothAttemptsHoldPermitsAndCarryInterceptorHeaders() {
+        try (ProxyConfigurationService service = new ProxyConfigurationService(properties(Map.of(
+                "proxy.limits.enabled", "true",
+                "proxy.limits.per-destination.max-concurrent", "2",
+                "proxy.resilience.hedging.enabled", "true",
+                "proxy.resilience.hedging.min-samples", "5")))) {
+            RestClient restClient = service.createProxyEnabledRestClient(service.createRequestFactory()).mutate()
+                    .requestInterceptor((request, body, execution) -> {
+                        request.getHeaders().set("X-Tenant", "acme");
+                        return execution.execute(request, body);
+                    })
+                    .build();
+            for (int i = 0; i < 10; i++) {
+                restClient.get().uri(url("/fast")).retrieve().toBodilessEntity();
+            }
+
+            assertThat(restClient.get().uri(url("/hedge")).retrieve().body(String.class)).isEqualTo("ok");
+            assertThat(hits.get("/hedge")).hasValue(2);
+            assertThat(tenants).hasSize(12).containsOnly("acme");
+        }
+    }
+
+    private static String url(String path) {
+        return "http://origin.example.com" + path;
+    }
+
+    private ProxyProperties properties(Map<String, String> overrides) {
+        Map<String, String> properties = new HashMap<>();
+        properties.put("proxy.resilience.enabled", "true");
+        properties.put("proxy.resilience.retry.backoff", "10ms");
+        properties.putAll(overrides);
+        return proxy.properties(properties);
+    }
+
+    private static void sleep(long millis) {
+        try {
+            Thread.sleep(millis);
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
@@ -0,0 +1,130 @@
+package com.example.proxystarter;
+
+import com.sun.net.httpserver.HttpExchange;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.web.client.RestClient;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class ProxyResponseCacheTest {
+
+    private final MeterRegistry registry = new SimpleMeterRegistry();
+
+    private final Map<String, AtomicInteger> hits = new ConcurrentHashMap<>();
+
+    private final AtomicInteger notModified = new AtomicInteger();
+
+    private TestProxy proxy;
+
+    @BeforeEach
+    void startProxy() throws IOException {
+        // Serves a fresh-for-a-minute resource and a revalidated-every-time resource with an ETag
+        proxy = TestProxy.start(exchange -> {
+            String key = exchange.getRequestURI().getHost() + exchange.getRequestURI().getPath();
+            hits.computeIfAbsent(key, k -> new AtomicInteger()).incrementAndGet();
+            if (exchange.getRequestURI().getPath().equals("/etag")) {
+                exchange.getResponseHeaders().set("Cache-Control", "no-cache");
+                exchange.getResponseHeaders().set("ETag", "\"v1\"");
+                if ("\"v1\"".equals(exchange.getRequestHeaders().getFirst("If-None-Match"))) {
+                    notModified.incrementAndGet();
+                    exchange.sendResponseHeaders(304, -1);
+                    exchange.close();
+                    return;
+                }
+            } else {
+                exchange.getResponseHeaders().set("Cache-Control", "max-age=60");
+            }
+            respond(exchange);
+        });
+    }
+
+    @AfterEach
+    void stopProxy() {
+        proxy.close();
+    }
+
+    @Test
+    void whenResponseIsFresh_thenRepeatedReadsAreServedFromCache() {
+        try (ProxyConfigurationService service = service(Map.of())) {
+            RestClient restClient = service.createProxyEnabledRestClient(service.createRequestFactory());
+            for (int i = 0; i < 3; i++) {
+                assertThat(get(restClient, "http://refdata.example.com/fresh")).isEqualTo("reference data");
+            }
+        }
+
+        assertThat(hits.get("refdata.example.com/fresh")).hasValue(1);
+        assertThat(registry.get(ProxyClientMetrics.CACHE).tag("result", "MISS").counter().count()).isEqualTo(1);
+        assertThat(registry.get(ProxyClientMetrics.CACHE).tag("result", "HIT").counter().count()).isEqualTo(2);
+    }
+
+    @Test
+    void whenResponseMustBeRevalidated_thenConditionalRequestIsSent() {
+        try (ProxyConfigurationService service = service(Map.of())) {
+            RestClient restClient = service.createProxyEnabledRestClient(service.createRequestFactory());
+            assertThat(get(restClient, "http://refdata.example.com/etag")).isEqualTo("reference data");
+            assertThat(get(restClient, "http://refdata.example.com/etag")).isEqualTo("reference data");
+        }
+
+        assertThat(notModified).hasValue(1);
+        assertThat(registry.get(ProxyClientMetrics.CACHE).tag("result", "VALIDATED").counter().count()).isEqualTo(1);
+    }
+
+    @Test
+    void whenHostDoesNotMatch_thenCacheIsBypassed() {
+        try (ProxyConfigurationService service = service(Map.of("proxy.cache.hosts", "refdata.example.com"))) {
+            RestClient restClient = service.createProxyEnabledRestClient(service.createRequestFactory());
+            for (int i = 0; i < 2; i++) {
+                get(restClient, "http://refdata.example.com/fresh");
+                get(restClient, "http://live.example.com/fresh");
+            }
+        }
+
+        assertThat(hits.get("refdata.example.com/fresh")).hasValue(1);
+        assertThat(hits.get("live.example.com/fresh")).hasValue(2);
+    }
+
+    @Test
+    void whenDirectoryIsSet_thenBodiesAreStoredOnDisk(@TempDir Path directory) throws IOException {
+        try (ProxyConfigurationService service = service(Map.of("proxy.cache.directory", directory.toString()))) {
+            RestClient restClient = service.createProxyEnabledRestClient(service.createRequestFactory());
+            get(restClient, "http://refdata.example.com/fresh");
+
+            try (var files = Files.list(directory)) {
+                assertThat(files).isNotEmpty();
+            }
+            assertThat(get(restClient, "http://refdata.example.com/fresh")).isEqualTo("reference data");
+        }
+
+        assertThat(hits.get("refdata.example.com/fresh")).hasValue(1);
+    }
+
+    private ProxyConfigurationService service(Map<String, String> overrides) {
+        Map<String, String> properties = new HashMap<>();
+        properties.put("proxy.cache.enabled", "true");
+        properties.putAll(overrides);
+        ProxyProperties proxyProperties = proxy.properties(properties);
+        return new ProxyConfigurationService(proxyProperties, null, new ProxyClientMetrics(registry));
+    }
+
+    private static String get(RestClient restClient, String url) {
+        return restClient.get().uri(url).retrieve().body(String.class);
+    }
+
+    private static void respond(HttpExchange exchange) throws IOException {
+        exchange.getResponseHeaders().set("Content-Type", "text/plain");
+        TestProxy.respond(exchange, 200, "reference data");
+    }
+}
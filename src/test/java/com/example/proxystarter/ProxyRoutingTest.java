@@ -0,0 +1,111 @@
+package com.example.proxystarter;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.web.client.RestClient;
+
+import java.io.IOException;
+import java.net.Proxy;
+import java.net.URI;
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatIllegalStateException;
+
+class ProxyRoutingTest {
+
+    private static final Map<String, String> PROPERTIES = Map.ofEntries(
+            Map.entry("proxy.enabled", "true"),
+            Map.entry("proxy.host", "proxy.example.com"),
+            Map.entry("proxy.port", "8080"),
+            Map.entry("proxy.non-proxy-hosts", "localhost|*.internal.example.com"),
+            Map.entry("proxy.proxies.partner.host", "partner-proxy.example.com"),
+            Map.entry("proxy.proxies.partner.port", "3128"),
+            Map.entry("proxy.proxies.partner.max-per-route", "10"),
+            Map.entry("proxy.routes[0].hosts", "*.partner.com|partner.com"),
+            Map.entry("proxy.routes[0].proxy", "partner"),
+            Map.entry("proxy.routes[1].hosts", "10.0.0.0/8"),
+            Map.entry("proxy.routes[1].proxy", "DIRECT")
+    );
+
+    @Test
+    void whenHostMatchesRule_thenRuleProxyIsUsed() {
+        ProxyRouting routing = new ProxyRouting(TestProxy.bind(PROPERTIES));
+
+        assertThat(routing.resolve("api.partner.com").name()).isEqualTo("partner");
+        assertThat(routing.resolve("partner.com").name()).isEqualTo("partner");
+        assertThat(routing.resolve("api.partner.com").maxPerRoute()).isEqualTo(10);
+    }
+
+    @Test
+    void whenHostMatchesDirectRuleOrNonProxyHosts_thenDirect() {
+        ProxyRouting routing = new ProxyRouting(TestProxy.bind(PROPERTIES));
+
+        assertThat(routing.resolve("10.1.2.3")).isNull();
+        assertThat(routing.resolve("localhost")).isNull();
+        assertThat(routing.resolve("svc.internal.example.com")).isNull();
+    }
+
+    @Test
+    void whenHostMatchesNoRule_thenDefaultProxyIsUsed() {
+        ProxyRouting routing = new ProxyRouting(TestProxy.bind(PROPERTIES));
+
+        assertThat(routing.resolve("example.org").name()).isEqualTo(ProxyRouting.DEFAULT_PROXY);
+        assertThat(routing.resolveProxyHost("example.org").getHostName()).isEqualTo("proxy.example.com");
+    }
+
+    @Test
+    void whenProxyDisabled_thenEverythingIsDirect() {
+        Map<String, String> properties = new HashMap<>(PROPERTIES);
+        properties.put("proxy.enabled", "false");
+        ProxyRouting routing = new ProxyRouting(TestProxy.bind(properties));
+
+        assertThat(routing.getProxies()).isEmpty();
+        assertThat(routing.resolve("api.partner.com")).isNull();
+    }
+
+    @Test
+    void whenRouteRefersToUnknownProxy_thenRejected() {
+        Map<String, String> properties = new HashMap<>(PROPERTIES);
+        properties.put("proxy.routes[0].proxy", "missing");
+
+        assertThatIllegalStateException().isThrownBy(() -> new ProxyRouting(TestProxy.bind(properties)));
+    }
+
+    @Test
+    void whenSelectingForUri_thenSelectorAppliesSameRules() {
+        ProxyRoutingSelector selector = new ProxyRoutingSelector(new ProxyRouting(TestProxy.bind(PROPERTIES)));
+
+        assertThat(selector.select(URI.create("https://api.partner.com/x")).get(0).address().toString())
+                .startsWith("partner-proxy.example.com");
+        assertThat(selector.select(URI.create("http://localhost:8080/"))).containsExactly(Proxy.NO_PROXY);
+    }
+
+    @Test
+    void whenClientCreated_thenEachProxyHasItsOwnPool() {
+        try (ProxyConfigurationService service = new ProxyConfigurationService(TestProxy.bind(PROPERTIES))) {
+            ProxyRoutingHttpClient client = (ProxyRoutingHttpClient) service.getCloseableHttpClient();
+
+            assertThat(client.getProxyClients()).containsOnlyKeys(ProxyRouting.DEFAULT_PROXY, "partner");
+            assertThat(client.route("api.partner.com").connectionManager())
+                    .isNotSameAs(client.route("example.org").connectionManager())
+                    .isNotSameAs(client.route("localhost").connectionManager());
+            assertThat(client.route("api.partner.com").connectionManager().getDefaultMaxPerRoute()).isEqualTo(10);
+        }
+    }
+
+    @Test
+    void whenHostMatchesNonProxyHosts_thenClientConnectsDirect() throws IOException {
+        try (TestProxy proxy = TestProxy.respondingWith("proxied");
+             TestProxy origin = TestProxy.respondingWith("direct");
+             ProxyConfigurationService service = new ProxyConfigurationService(proxy.properties(Map.of(
+                     "proxy.non-proxy-hosts", "localhost")))) {
+            RestClient restClient = service.createProxyEnabledRestClient(service.createRequestFactory());
+
+            assertThat(restClient.get().uri("http://localhost:" + origin.port() + "/").retrieve().body(String.class))
+                    .isEqualTo("direct");
+            assertThat(restClient.get().uri("http://127.0.0.1:" + origin.port() + "/").retrieve().body(String.class))
+                    .isEqualTo("proxied");
+        }
+    }
+}
@@ -0,0 +1,130 @@
+package com.example.proxystarter;
+
+import org.apache.hc.client5.http.classic.ExecChainHandler;
+import org.apache.hc.client5.http.impl.classic.CloseableHttpClient;
+import org.apache.hc.client5.http.impl.io.PoolingHttpClientConnectionManager;
+import org.apache.hc.client5.http.io.HttpClientConnectionManager;
+import org.apache.hc.core5.http.impl.io.HttpRequestExecutor;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.condition.EnabledIfSystemProperty;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.aot.hint.RuntimeHints;
+import org.springframework.aot.hint.predicate.RuntimeHintsPredicates;
+import org.springframework.boot.autoconfigure.AutoConfigurations;
+import org.springframework.boot.test.context.runner.ApplicationContextRunner;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class ProxyStartupTest {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(ProxyStartupTest.class);
+
+    private static final AtomicInteger POOLS_CREATED = new AtomicInteger();
+
+    private final ApplicationContextRunner contextRunner = new ApplicationContextRunner()
+            .withConfiguration(AutoConfigurations.of(ProxyAutoConfiguration.class, JwtDecoderConfiguration.class,
+                    ReactiveProxyAutoConfiguration.class))
+            .withUserConfiguration(CountingInstrumentationConfig.class)
+            .withPropertyValues(
+                    "proxy.enabled=true",
+                    "proxy.host=proxy.example.com",
+                    "proxy.port=8080",
+                    "spring.security.oauth2.resourceserver.jwt.jwk-set-uri=https://example.com/jwk"
+            );
+
+    @Test
+    void whenContextStarts_thenClientsAreBuiltOnFirstUseOnly() {
+        POOLS_CREATED.set(0);
+        contextRunner.run(context -> {
+            assertThat(context).hasNotFailed();
+            assertThat(POOLS_CREATED).hasValue(0);
+            assertThat(context.getBeanFactory().containsSingleton("proxyHttpAsyncClient")).isFalse();
+            assertThat(context.getBeanFactory().containsSingleton("proxyJwkSource")).isFalse();
+
+            ProxyRoutingHttpClient httpClient = (ProxyRoutingHttpClient) context.getBean(CloseableHttpClient.class);
+            assertThat(httpClient.isInitialized()).isFalse();
+
+            // One pool for the default proxy and one for direct traffic
+            assertThat(httpClient.getDirectClient()).isNotNull();
+            assertThat(httpClient.isInitialized()).isTrue();
+            assertThat(POOLS_CREATED).hasValue(2);
+        });
+    }
+
+    @Test
+    void runtimeHintsCoverRuntimeBindingAndHttpClientResources() {
+        RuntimeHints hints = new RuntimeHints();
+        new ProxyRuntimeHints().registerHints(hints, getClass().getClassLoader());
+
+        assertThat(RuntimeHintsPredicates.reflection().onType(ProxyProperties.class)).accepts(hints);
+        assertThat(RuntimeHintsPredicates.reflection().onType(ProxyProperties.Pool.class)).accepts(hints);
+        assertThat(RuntimeHintsPredicates.resource().forResource("mozilla/public-suffix-list.txt")).accepts(hints);
+    }
+
+    /**
+     * Compares context startup against a startup that also builds the clients, as the starter used to.
+     * Run with {@code mvn test -Dtest=ProxyStartupTest -Dproxy.benchmark=true}.
+     */
+    @Test
+    @EnabledIfSystemProperty(named = "proxy.benchmark", matches = "true")
+    void compareStartupTime() {
+        int runs = 20;
+        long lazy = 0;
+        long eager = 0;
+        for (int i = 0; i < runs + 5; i++) {
+            long lazyNanos = measureStartup(false);
+            long eagerNanos = measureStartup(true);
+            // The first runs warm up class loading and the JIT
+            if (i >= 5) {
+                lazy += lazyNanos;
+                eager += eagerNanos;
+            }
+        }
+        LOGGER.info("startup: lazy {} ms, eager {} ms", lazy / runs / 1_000_000, eager / runs / 1_000_000);
+        assertThat(lazy).isLessThan(eager);
+    }
+
+    private long measureStartup(boolean buildClients) {
+        long[] elapsed = new long[1];
+        long start = System.nanoTime();
+        contextRunner.run(context -> {
+            if (buildClients) {
+                ((ProxyRoutingHttpClient) context.getBean(CloseableHttpClient.class)).getDirectClient();
+                context.getBean(ProxyConfigurationService.class).getCloseableHttpAsyncClient();
+            }
+            elapsed[0] = System.nanoTime() - start;
+        });
+        return elapsed[0];
+    }
+
+    @Configuration
+    static class CountingInstrumentationConfig {
+
+        @Bean
+        public ProxyClientInstrumentation countingInstrumentation() {
+            return new ProxyClientInstrumentation() {
+                @Override
+                public HttpClientConnectionManager instrumentConnectionManager(String proxy,
+                                                                               PoolingHttpClientConnectionManager connectionManager) {
+                    POOLS_CREATED.incrementAndGet();
+                    return connectionManager;
+                }
+
+                @Override
+                public HttpRequestExecutor createRequestExecutor(String proxy) {
+                    return new HttpRequestExecutor();
+                }
+
+                @Override
+                public ExecChainHandler createExecHandler(String proxy) {
+                    return (request, scope, chain) -> chain.proceed(request, scope);
+                }
+            };
+        }
+    }
+}
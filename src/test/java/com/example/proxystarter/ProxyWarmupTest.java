@@ -0,0 +1,114 @@
+package com.example.proxystarter;
+
+import org.apache.hc.client5.http.impl.io.PoolingHttpClientConnectionManager;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.boot.actuate.health.Status;
+import org.springframework.boot.ApplicationRunner;
+import org.springframework.boot.DefaultApplicationArguments;
+import org.springframework.boot.autoconfigure.AutoConfigurations;
+import org.springframework.boot.test.context.runner.ApplicationContextRunner;
+
+import java.io.IOException;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class ProxyWarmupTest {
+
+    private final AtomicInteger requests = new AtomicInteger();
+
+    private TestProxy proxy;
+
+    @BeforeEach
+    void startProxy() throws IOException {
+        proxy = TestProxy.start(exchange -> {
+            requests.incrementAndGet();
+            exchange.sendResponseHeaders(200, -1);
+            exchange.close();
+        });
+    }
+
+    @AfterEach
+    void stopProxy() {
+        proxy.close();
+    }
+
+    @Test
+    void whenWarmupEnabled_thenConnectionsArePooledAndHealthTurnsUp() {
+        new ApplicationContextRunner()
+                .withConfiguration(AutoConfigurations.of(ProxyAutoConfiguration.class))
+                .withPropertyValues(
+                        "proxy.enabled=true",
+                        "proxy.host=127.0.0.1",
+                        "proxy.port=" + proxy.port(),
+                        "proxy.warmup.enabled=true",
+                        "proxy.warmup.destinations=http://origin.example.com/",
+                        "proxy.warmup.connections=3"
+                )
+                .run(context -> {
+                    ProxyWarmup warmup = context.getBean(ProxyWarmup.class);
+                    context.getBean("proxyWarmupReadiness", ApplicationRunner.class).run(new DefaultApplicationArguments());
+                    assertThat(warmup.isComplete()).isTrue();
+                    assertThat(warmup.getResults()).containsEntry("http://origin.example.com/", "3/3 connections");
+                    assertThat(requests).hasValue(3);
+
+                    ProxyRoutingHttpClient httpClient = (ProxyRoutingHttpClient) context.getBean(ProxyConfigurationService.class)
+                            .getCloseableHttpClient();
+                    PoolingHttpClientConnectionManager pool = httpClient.getProxyClients()
+                            .get(ProxyRouting.DEFAULT_PROXY).connectionManager();
+                    assertThat(pool.getTotalStats().getAvailable()).isEqualTo(3);
+
+                    assertThat(context.getBean(ProxyWarmupHealthIndicator.class).health().getStatus()).isEqualTo(Status.UP);
+                });
+    }
+
+    @Test
+    void whenWarmupDisabled_thenNoWarmupOrHealthIndicator() {
+        new ApplicationContextRunner()
+                .withConfiguration(AutoConfigurations.of(ProxyAutoConfiguration.class))
+                .withPropertyValues("proxy.enabled=true", "proxy.host=127.0.0.1", "proxy.port=8080")
+                .run(context -> {
+                    assertThat(context).doesNotHaveBean(ProxyWarmup.class);
+                    assertThat(context).doesNotHaveBean(ProxyWarmupHealthIndicator.class);
+                    assertThat(context).doesNotHaveBean("proxyWarmupReadiness");
+                });
+    }
+
+    @Test
+    void whenWarmupInProgress_thenHealthStaysUp() {
+        ProxyWarmup warmup = new ProxyWarmup(null, TestProxy.bind(Map.of("proxy.enabled", "false")).warmup());
+
+        assertThat(new ProxyWarmupHealthIndicator(warmup).health().getStatus()).isEqualTo(Status.UP);
+    }
+
+    @Test
+    void whenWarmupEnabled_thenOnlyClientsRoutingItsDestinationsAreTargets() {
+        ProxyProperties properties = proxy.properties(Map.of(
+                "proxy.warmup.enabled", "true",
+                "proxy.warmup.destinations", "http://origin.example.com/",
+                "proxy.non-proxy-hosts", "direct.example.com"
+        ));
+
+        try (ProxyConfigurationService service = new ProxyConfigurationService(properties)) {
+            assertThat(service.isWarmupTarget(ProxyRouting.DEFAULT_PROXY)).isTrue();
+            assertThat(service.isWarmupTarget(ProxyRouting.DIRECT)).isFalse();
+        }
+    }
+
+    @Test
+    void sslContextSessionCacheIsConfigured() {
+        ProxyProperties properties = TestProxy.bind(Map.of(
+                "proxy.tls.session-cache-size", "500",
+                "proxy.tls.session-timeout", "1h"
+        ));
+
+        try (ProxyConfigurationService service = new ProxyConfigurationService(properties)) {
+            assertThat(service.getSslContext()).isSameAs(service.getSslContext());
+            assertThat(service.getSslContext().getClientSessionContext().getSessionCacheSize()).isEqualTo(500);
+            assertThat(service.getSslContext().getClientSessionContext().getSessionTimeout()).isEqualTo(3600);
+        }
+    }
+}
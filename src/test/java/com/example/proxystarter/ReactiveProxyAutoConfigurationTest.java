@@ -0,0 +1,47 @@
+package com.example.proxystarter;
+
+import org.apache.hc.client5.http.impl.async.CloseableHttpAsyncClient;
+import org.apache.hc.core5.http2.HttpVersionPolicy;
+import org.junit.jupiter.api.Test;
+import org.springframework.boot.autoconfigure.AutoConfigurations;
+import org.springframework.boot.test.context.runner.ApplicationContextRunner;
+import org.springframework.security.oauth2.jwt.ReactiveJwtDecoder;
+import org.springframework.web.reactive.function.client.WebClient;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class ReactiveProxyAutoConfigurationTest {
+
+    private final ApplicationContextRunner contextRunner = new ApplicationContextRunner()
+            .withConfiguration(AutoConfigurations.of(ProxyAutoConfiguration.class, ReactiveProxyAutoConfiguration.class))
+            .withPropertyValues(
+                    "proxy.enabled=true",
+                    "proxy.host=proxy.example.com",
+                    "proxy.port=8080",
+                    "proxy.username=proxyuser",
+                    "proxy.password=proxypassword"
+            );
+
+    @Test
+    void whenReactiveClassesPresent_thenWebClientAndAsyncClientBeansCreated() {
+        contextRunner.run(context -> {
+            assertThat(context).hasSingleBean(WebClient.class);
+            assertThat(context).hasSingleBean(CloseableHttpAsyncClient.class);
+
+            CloseableHttpAsyncClient asyncClient = context.getBean(CloseableHttpAsyncClient.class);
+            assertThat(context.getBean(ProxyConfigurationService.class).getCloseableHttpAsyncClient()).isSameAs(asyncClient);
+            assertThat(context.getBean(ProxyProperties.class).async().versionPolicy()).isEqualTo(HttpVersionPolicy.NEGOTIATE);
+        });
+    }
+
+    @Test
+    void whenJwtUriPropertySet_thenReactiveJwtDecoderBeanCreated() {
+        contextRunner.withPropertyValues("spring.security.oauth2.resourceserver.jwt.jwk-set-uri=https://example.com/jwk")
+                .run(context -> assertThat(context).hasSingleBean(ReactiveJwtDecoder.class));
+    }
+
+    @Test
+    void whenJwtUriPropertyMissing_thenReactiveJwtDecoderBeanNotCreated() {
+        contextRunner.run(context -> assertThat(context).doesNotHaveBean(ReactiveJwtDecoder.class));
+    }
+}
@@ -0,0 +1,94 @@
+package com.example.proxystarter;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+import org.springframework.boot.context.properties.bind.Binder;
+import org.springframework.boot.context.properties.source.MapConfigurationPropertySource;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Stand-in forward proxy shared by the tests, and binding of {@code proxy.*} properties. Plain HTTP requests
+ * reach a forward proxy in absolute form, so answering them directly is enough for anything that does not tunnel.
+ */
+final class TestProxy implements AutoCloseable {
+
+    private final HttpServer server;
+
+    private final ExecutorService executor;
+
+    private TestProxy(HttpServer server, ExecutorService executor) {
+        this.server = server;
+        this.executor = executor;
+    }
+
+    /**
+     * Starts a proxy on a loopback port handling every request with {@code handler}, each on a thread of its own.
+     */
+    static TestProxy start(HttpHandler handler) throws IOException {
+        HttpServer server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        ExecutorService executor = Executors.newCachedThreadPool();
+        server.createContext("/", handler);
+        server.setExecutor(executor);
+        server.start();
+        return new TestProxy(server, executor);
+    }
+
+    /**
+     * Starts a proxy answering every request with status 200 and {@code body}.
+     */
+    static TestProxy respondingWith(String body) throws IOException {
+        return start(exchange -> respond(exchange, 200, body));
+    }
+
+    int port() {
+        return server.getAddress().getPort();
+    }
+
+    /**
+     * Binds properties routing through this proxy, with the given overrides.
+     */
+    ProxyProperties properties(Map<String, String> overrides) {
+        Map<String, String> properties = new HashMap<>();
+        properties.put("proxy.enabled", "true");
+        properties.put("proxy.host", "127.0.0.1");
+        properties.put("proxy.port", String.valueOf(port()));
+        properties.putAll(overrides);
+        return bind(properties);
+    }
+
+    static ProxyProperties bind(Map<String, String> properties) {
+        return new Binder(new MapConfigurationPropertySource(properties)).bind("proxy", ProxyProperties.class).get();
+    }
+
+    static void respond(HttpExchange exchange, int status, String body) throws IOException {
+        byte[] bytes = body.getBytes(StandardCharsets.UTF_8);
+        exchange.sendResponseHeaders(status, bytes.length);
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(bytes);
+        }
+    }
+
+    /**
+     * Answers with a Basic authentication challenge, as an authenticating proxy does without valid credentials.
+     */
+    static void challenge(HttpExchange exchange) throws IOException {
+        exchange.getResponseHeaders().add("Proxy-Authenticate", "Basic realm=\"proxy\"");
+        exchange.sendResponseHeaders(407, -1);
+        exchange.close();
+    }
+
+    @Override
+    public void close() {
+        server.stop(0);
+        executor.shutdownNow();
+    }
+}